@@ -15,10 +15,23 @@ repositories {
     mavenCentral()
 }
 
+// Бенчмарки JMH: src/jmh/java, запуск - ./gradlew jmh
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val jmhVersion = "1.37"
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:$jmhVersion")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
 }
 
 application {
@@ -73,6 +86,42 @@ tasks.check {
 }
 
 
+// Результаты - build/reports/jmh/results.json (формат JSON JMH, удобно сравнивать между коммитами).
+// Фильтр бенчмарков: -Pjmh.include=WalletBenchmark, доп. аргументы JMH: -Pjmh.args="-p transactions=1000"
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs JMH benchmarks and writes JSON results."
+    dependsOn(tasks.named("jmhClasses"))
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+
+    val results = layout.buildDirectory.file("reports/jmh/results.json")
+    outputs.file(results)
+    outputs.upToDateWhen { false }
+    doFirst {
+        results.get().asFile.parentFile.mkdirs()
+    }
+
+    val include = providers.gradleProperty("jmh.include").orElse(".*")
+    val extra = providers.gradleProperty("jmh.args").orElse("")
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(include.get(), "-rf", "json", "-rff", results.get().asFile.absolutePath) +
+            extra.get().split(" ").filter { it.isNotBlank() }
+    })
+}
+
+// Нагрузочный прогон сервера команд: ./gradlew loadTest -Pload.args="--clients 1000 --commands 200"
+tasks.register<JavaExec>("loadTest") {
+    group = "benchmark"
+    description = "Runs the command server load generator and prints latency percentiles."
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.example.LoadGenerator")
+    val extra = providers.gradleProperty("load.args").orElse("")
+    argumentProviders.add(CommandLineArgumentProvider {
+        extra.get().split(" ").filter { it.isNotBlank() }
+    })
+}
+
 tasks.jacocoTestReport {
     dependsOn(tasks.test)
 
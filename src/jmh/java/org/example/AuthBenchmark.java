@@ -0,0 +1,64 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Цена входа: проверка PBKDF2 при разном числе итераций против повторного входа
+ * по кэшу сеансов. finance.auth.iterations=1 в форке - чтобы вход не пересчитывал
+ * хэш с «устаревшим» числом итераций и замерялась именно проверка.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dfinance.auth.iterations=1")
+@State(Scope.Benchmark)
+public class AuthBenchmark {
+
+    @Param({"10000", "120000", "310000"})
+    public int iterations;
+
+    private AppData data;
+    private AuthService auth;
+    private String stored;
+
+    @Setup
+    public void setUp() {
+        stored = PasswordHash.hash("password", iterations);
+        data = new AppData();
+        data.getUsers().put("user", new UserAccount("user", stored));
+        auth = new AuthService(data);
+        auth.login("user", "password");
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return PasswordHash.verify("password", stored);
+    }
+
+    /**
+     * Вход без кэша: каждый раз PBKDF2 (пересчёт не нужен, если итераций не меньше текущих).
+     */
+    @Benchmark
+    public UserAccount loginUncached() {
+        data.getSessions().invalidate("user");
+        return auth.login("user", "password");
+    }
+
+    @Benchmark
+    public UserAccount loginCached() {
+        return auth.login("user", "password");
+    }
+}
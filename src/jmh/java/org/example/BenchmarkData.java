@@ -0,0 +1,90 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Синтетические данные для бенчмарков. Генерация детерминирована (фиксированный seed),
+ * поэтому результаты разных коммитов сравнимы между собой.
+ *
+ * Операции идут по возрастанию даты в пределах пяти лет, как в настоящей истории:
+ * примерно треть - доходы, остальное - расходы по десятку категорий.
+ */
+final class BenchmarkData {
+
+    static final String[] CATEGORIES = {
+            "Еда", "Транспорт", "Аренда", "Кафе", "Связь", "Здоровье",
+            "Одежда", "Подарки", "Путешествия", "Кино", "Книги", "Спорт"
+    };
+    static final LocalDate START = LocalDate.of(2020, 1, 1);
+    static final int DAYS = 5 * 365;
+    // Хэш пароля "password": один на всех, чтобы подготовка тысяч пользователей не считала PBKDF2
+    static final String PASSWORD_HASH = PasswordHash.hash("password");
+
+    private BenchmarkData() {
+    }
+
+    static TransactionColumns transactions(int count, long seed) {
+        Random rnd = new Random(seed);
+        TransactionColumns rows = new TransactionColumns();
+        int startDay = (int) START.toEpochDay();
+        for (int i = 0; i < count; i++) {
+            int day = startDay + (int) ((long) i * DAYS / Math.max(1, count));
+            if (rnd.nextInt(3) == 0) {
+                rows.add(TransactionType.INCOME, Money.ofMajor(1000 + rnd.nextInt(100_000)), "Зарплата",
+                        "поступление " + rnd.nextInt(100), day);
+            } else {
+                rows.add(TransactionType.EXPENSE, 100 + rnd.nextInt(500_000), CATEGORIES[rnd.nextInt(CATEGORIES.length)],
+                        "покупка " + rnd.nextInt(1000), day);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Пользователь с count операциями и бюджетами на первые категории.
+     */
+    static UserAccount user(String username, int count, long seed) {
+        UserAccount user = new UserAccount(username, PASSWORD_HASH);
+        Wallet wallet = user.getWallet();
+        wallet.appendAll(transactions(count, seed));
+        for (int i = 0; i < 4; i++) {
+            wallet.setBudget(CATEGORIES[i], Money.ofMajor(50_000));
+        }
+        return user;
+    }
+
+    static AppData users(int users, int transactionsPerUser, long seed) {
+        AppData data = new AppData();
+        for (int u = 0; u < users; u++) {
+            String name = "user" + u;
+            data.addUser(name, user(name, transactionsPerUser, seed + u));
+        }
+        return data;
+    }
+
+    static Path tempDir(String prefix) {
+        try {
+            return Files.createTempDirectory(prefix);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void deleteRecursively(Path dir) {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
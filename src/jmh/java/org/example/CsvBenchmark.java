@@ -0,0 +1,72 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Экспорт и импорт CSV.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class CsvBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int transactions;
+
+    private Path dir;
+    private UserAccount user;
+    private WalletService service;
+    private String exportFile;
+    private String gzipFile;
+    private String importFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = BenchmarkData.tempDir("csv_bench");
+        user = BenchmarkData.user("bench", transactions, 42);
+        service = new WalletService();
+        exportFile = dir.resolve("export.csv").toString();
+        gzipFile = dir.resolve("export.csv.gz").toString();
+        importFile = dir.resolve("import.csv").toString();
+        service.exportTransactionsToCsv(user, importFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public int export() throws IOException {
+        return service.exportTransactionsToCsv(user, exportFile, null, null, null);
+    }
+
+    @Benchmark
+    public int exportGzip() throws IOException {
+        return service.exportTransactionsToCsv(user, gzipFile, null, null, null);
+    }
+
+    @Benchmark
+    public int importCsv() throws IOException {
+        UserAccount target = new UserAccount("target", "password");
+        return service.importTransactionsFromCsv(target, importFile).getImported();
+    }
+}
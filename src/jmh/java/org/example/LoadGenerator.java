@@ -0,0 +1,188 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Нагрузка на {@link CommandServer}: много клиентов одновременно регистрируются
+ * и выполняют смесь команд (70% add_expense, 20% summary, 10% report за неделю).
+ * Печатает пропускную способность и задержку команд (p50, p90, p99, максимум).
+ *
+ * Аргументы: --clients N, --commands N (на клиента), --port N (подключиться к запущенному
+ * серверу; без него сервер поднимается в этом же процессе на временных данных).
+ * Запуск: ./gradlew loadTest -Pload.args="--clients 1000 --commands 200"
+ */
+public final class LoadGenerator {
+
+    private static final byte[] PROMPT_END = "] > ".getBytes(StandardCharsets.US_ASCII);
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = intArg(args, "--clients", 200);
+        int commands = intArg(args, "--commands", 200);
+        int port = intArg(args, "--port", -1);
+
+        Path dir = null;
+        AppData data = null;
+        CommandServer server = null;
+        if (port < 0) {
+            dir = BenchmarkData.tempDir("load");
+            data = new AppData();
+            DataStore.openJournal(data, dir.resolve("finance.journal").toFile(), Journal.FsyncPolicy.BATCH);
+            server = new CommandServer(data, 0);
+            server.start();
+            port = server.getPort();
+            System.out.println("Сервер в процессе, порт " + port + ", "
+                    + (server.usesVirtualThreads() ? "виртуальные потоки" : "потоки платформы"));
+        }
+
+        long[][] latencies = new long[clients][];
+        ExecutorService pool = CommandServer.newPerTaskExecutor("load-client");
+        long started = System.nanoTime();
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                int serverPort = port;
+                results.add(pool.submit(() -> runClient(serverPort, client, commands)));
+            }
+            for (int c = 0; c < clients; c++) {
+                latencies[c] = results.get(c).get();
+            }
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        long elapsed = System.nanoTime() - started;
+
+        if (server != null) {
+            server.close();
+            DataStore.closeJournal(data);
+            BenchmarkData.deleteRecursively(dir);
+        }
+        report(latencies, elapsed);
+    }
+
+    private static long[] runClient(int port, int client, int commands) throws IOException {
+        Random rnd = new Random(client);
+        long[] latencies = new long[commands];
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            Reader reader = new Reader(in);
+            reader.untilPrompt();
+            exchange(out, reader, "register\nload" + client + "_" + System.nanoTime() + "\npassword\n");
+
+            LocalDate today = LocalDate.now();
+            for (int i = 0; i < commands; i++) {
+                int kind = rnd.nextInt(10);
+                String command;
+                if (kind < 7) {
+                    command = "add_expense\n" + (1 + rnd.nextInt(5000)) + "\n"
+                            + BenchmarkData.CATEGORIES[rnd.nextInt(BenchmarkData.CATEGORIES.length)] + "\nпокупка\n";
+                } else if (kind < 9) {
+                    command = "summary\n";
+                } else {
+                    command = "report\n" + today.minusDays(7) + "\n" + today + "\n\n";
+                }
+                latencies[i] = exchange(out, reader, command);
+            }
+            out.write("exit\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        return latencies;
+    }
+
+    /**
+     * Посылает команду вместе с ответами на её вопросы и ждёт следующего приглашения.
+     *
+     * @return время от отправки до приглашения, нс
+     */
+    private static long exchange(OutputStream out, Reader reader, String command) throws IOException {
+        long start = System.nanoTime();
+        out.write(command.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        reader.untilPrompt();
+        return System.nanoTime() - start;
+    }
+
+    private static void report(long[][] perClient, long elapsedNanos) {
+        int total = 0;
+        for (long[] l : perClient) {
+            total += l.length;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] l : perClient) {
+            System.arraycopy(l, 0, all, pos, l.length);
+            pos += l.length;
+        }
+        Arrays.sort(all);
+        System.out.printf("Клиентов: %d, команд: %d, время: %.2f с, %.0f команд/с%n",
+                perClient.length, total, elapsedNanos / 1e9, total / (elapsedNanos / 1e9));
+        System.out.printf("Задержка, мс: p50 %.3f, p90 %.3f, p99 %.3f, макс. %.3f%n",
+                percentile(all, 50), percentile(all, 90), percentile(all, 99),
+                all.length == 0 ? 0.0 : all[all.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static int intArg(String[] args, String name, int defaultValue) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return Integer.parseInt(args[i + 1]);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Читает ответ сервера до приглашения "[...] > ", помня только последние байты.
+     */
+    private static final class Reader {
+        private final InputStream in;
+        private final byte[] buf = new byte[16 * 1024];
+        private final byte[] tail = new byte[PROMPT_END.length];
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        void untilPrompt() throws IOException {
+            while (true) {
+                int n = in.read(buf);
+                if (n < 0) {
+                    throw new IOException("Сервер закрыл соединение");
+                }
+                int keep = Math.min(n, tail.length);
+                System.arraycopy(tail, keep, tail, 0, tail.length - keep);
+                System.arraycopy(buf, n - keep, tail, tail.length - keep, keep);
+                if (Arrays.equals(tail, PROMPT_END)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сохранение и загрузка снимка данных при разном числе пользователей (по 100 операций у каждого).
+ * Снимок разбит на шарды, поэтому размер сохранённого - сумма длин их файлов.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class StorageBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int users;
+
+    @Param({"100"})
+    public int transactionsPerUser;
+
+    private Path dir;
+    private AppData data;
+    private AppData loaded;
+    private AppData touched;
+    private File dataFile;
+    private File journalFile;
+    private File saveFile;
+    private File touchedFile;
+    private File touchedJournal;
+
+    @Setup
+    public void setUp() {
+        dir = BenchmarkData.tempDir("storage_bench");
+        dataFile = dir.resolve("finance.dat").toFile();
+        journalFile = dir.resolve("finance.journal").toFile();
+        saveFile = dir.resolve("saved.dat").toFile();
+        data = BenchmarkData.users(users, transactionsPerUser, 42);
+        DataStore.save(data, dataFile, journalFile);
+        // Загружено с диска и не тронуто: кошельки при сохранении копируются без разбора
+        loaded = DataStore.load(dataFile, journalFile);
+
+        touchedFile = dir.resolve("touched.dat").toFile();
+        touchedJournal = dir.resolve("touched.journal").toFile();
+        DataStore.save(data, touchedFile, touchedJournal);
+        touched = DataStore.load(touchedFile, touchedJournal);
+        try {
+            DataStore.openJournal(touched, touchedJournal, Journal.FsyncPolicy.OFF);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        DataStore.closeJournal(touched);
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    private static long length(File dataFile) {
+        long total = 0;
+        for (int shard : DataStore.shardIndexes(dataFile)) {
+            total += DataStore.shardFile(dataFile, shard).length();
+        }
+        return total;
+    }
+
+    /**
+     * Сохранение, когда все кошельки в памяти и кодируются заново.
+     */
+    @Benchmark
+    public long saveDecoded() {
+        DataStore.save(data, saveFile, journalFile);
+        return length(saveFile);
+    }
+
+    /**
+     * Сохранение только что загруженных данных.
+     */
+    @Benchmark
+    public long saveUntouched() {
+        DataStore.save(loaded, saveFile, journalFile);
+        return length(saveFile);
+    }
+
+    /**
+     * Сохранение после изменения одного пользователя: пишется только его шард.
+     */
+    @Benchmark
+    public long saveOneChanged() {
+        touched.getUsers().get("user0").getWallet().setBudget("Еда", Money.ofMajor(1000));
+        DataStore.save(touched, touchedFile, touchedJournal);
+        return length(touchedFile);
+    }
+
+    @Benchmark
+    public int load() {
+        return DataStore.load(dataFile, journalFile).getUsers().size();
+    }
+
+    /**
+     * Загрузка и вход одного пользователя: разбирается только его кошелёк.
+     */
+    @Benchmark
+    public long loadAndLogin() {
+        AppData fresh = DataStore.load(dataFile, journalFile);
+        return new AuthService(fresh).login("user0", "password").getWallet().getBalance();
+    }
+}
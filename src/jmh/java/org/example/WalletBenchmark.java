@@ -0,0 +1,118 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение кошелька: сводка, отчёт за месяц, итоги за период, последние операции.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class WalletBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int transactions;
+
+    private UserAccount user;
+    private WalletService service;
+    private WalletService sequential;
+    private WalletService parallel;
+    private LocalDate monthFrom;
+    private LocalDate monthTo;
+    private LocalDate yearFrom;
+    private LocalDate yearTo;
+
+    @Setup
+    public void setUp() {
+        user = BenchmarkData.user("bench", transactions, 42);
+        service = new WalletService();
+        sequential = new WalletService(Integer.MAX_VALUE);
+        parallel = new WalletService(1);
+        // Последний полный месяц истории и год с неполными крайними месяцами
+        YearMonth last = YearMonth.from(BenchmarkData.START.plusDays(BenchmarkData.DAYS - 40));
+        monthFrom = last.atDay(1);
+        monthTo = last.atEndOfMonth();
+        yearFrom = BenchmarkData.START.plusDays(400);
+        yearTo = yearFrom.plusDays(365);
+        user.getWallet().getLatestTransactions(1); // индекс по дате строится один раз, вне замеров
+    }
+
+    @Benchmark
+    public List<String> buildSummary() {
+        return service.buildSummary(user);
+    }
+
+    @Benchmark
+    public List<String> buildFilteredReportMonth() {
+        return service.buildFilteredReport(user, monthFrom, monthTo, null);
+    }
+
+    /**
+     * Отчёт по всей истории в приёмник, который ничего не хранит: стоимость форматирования без памяти на строки.
+     */
+    @Benchmark
+    public int writeFilteredReportAll() {
+        return service.writeFilteredReport(user, null, null, null, 0, Integer.MAX_VALUE, NullAppendable.INSTANCE);
+    }
+
+    /**
+     * Первая страница отчёта по всей истории: итоги по всем операциям в одном потоке
+     * и параллельно (в обычном режиме выбор делает порог finance.parallel.threshold).
+     */
+    @Benchmark
+    public int firstReportPageSequential() {
+        return sequential.writeFilteredReport(user, null, null, null, 0, 50, NullAppendable.INSTANCE);
+    }
+
+    @Benchmark
+    public int firstReportPageParallel() {
+        return parallel.writeFilteredReport(user, null, null, null, 0, 50, NullAppendable.INSTANCE);
+    }
+
+    @Benchmark
+    public long periodTotalsYear() {
+        return user.getWallet().getPeriodTotals(yearFrom, yearTo, null).get(TransactionType.EXPENSE);
+    }
+
+    @Benchmark
+    public Object latestTransactions() {
+        return user.getWallet().getLatestTransactions(50);
+    }
+
+    private static final class NullAppendable implements Appendable {
+        static final NullAppendable INSTANCE = new NullAppendable();
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Добавление операций. Кошелёк пересоздаётся перед каждой итерацией,
+ * чтобы его размер во время замера оставался близким к параметру.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class WalletWriteBenchmark {
+
+    private static final int BATCH_SIZE = 1_000;
+
+    @Param({"1000", "100000", "1000000"})
+    public int transactions;
+
+    private UserAccount user;
+    private WalletService service;
+    private Transaction transaction;
+    private List<Transaction> batch;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        user = BenchmarkData.user("bench", transactions, 42);
+        service = new WalletService();
+        transaction = new Transaction(TransactionType.EXPENSE, 12_345, "Еда", "обед", LocalDate.now());
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new Transaction(TransactionType.EXPENSE, 12_345, BenchmarkData.CATEGORIES[i % 4], "обед", null));
+        }
+    }
+
+    @Benchmark
+    public void addTransaction() {
+        user.getWallet().addTransaction(transaction);
+    }
+
+    @Benchmark
+    public List<String> addExpense() {
+        return service.addExpense(user, 12_345, "Еда", "обед");
+    }
+
+    /**
+     * Переименование туда и обратно: стоимость не должна зависеть от числа операций.
+     */
+    @Benchmark
+    public boolean renameCategory() {
+        Wallet wallet = user.getWallet();
+        return wallet.renameCategory("Еда", "Продукты") & wallet.renameCategory("Продукты", "Еда");
+    }
+
+    /**
+     * Пачка из BATCH_SIZE расходов; сравнивать с addExpense, умноженным на BATCH_SIZE.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<String> addTransactionsBatch() {
+        return service.addTransactions(user, batch);
+    }
+}
@@ -0,0 +1,96 @@
+package org.example;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Фоновое сохранение снимка: сеансы только просят сохранить ({@link #requestSave}),
+ * а шарды пишутся на диск в отдельном потоке. Запросы, пришедшие, пока сохранение ждёт
+ * очереди, сливаются в одно. Кроме того, раз в интервал (свойство
+ * finance.autosave.intervalSec, 0 - выключено) данные сохраняются, если что-то изменилось.
+ */
+final class AutoSaver {
+
+    static final long INTERVAL_MILLIS = Integer.getInteger("finance.autosave.intervalSec", 60) * 1000L;
+
+    private static final long CLOSE_TIMEOUT_SEC = 60;
+
+    private final Runnable save;
+    private final BooleanSupplier hasChanges;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean queued = new AtomicBoolean();
+
+    /**
+     * @param save           сохранение (выполняется в потоке автосохранения)
+     * @param hasChanges     есть ли что сохранять по таймеру
+     * @param intervalMillis интервал автосохранения; 0 - только по запросу
+     */
+    AutoSaver(Runnable save, BooleanSupplier hasChanges, long intervalMillis) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("Интервал автосохранения не может быть отрицательным.");
+        }
+        this.save = save;
+        this.hasChanges = hasChanges;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "finance-autosave");
+            t.setDaemon(true);
+            return t;
+        });
+        if (intervalMillis > 0) {
+            executor.scheduleWithFixedDelay(this::saveIfChanged, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Ставит сохранение в очередь и сразу возвращается.
+     */
+    void requestSave() {
+        if (!queued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::runQueued);
+        } catch (RejectedExecutionException e) {
+            queued.set(false); // уже остановлен: данные сохранит закрывающий
+        }
+    }
+
+    /**
+     * Останавливает таймер и ждёт завершения сохранений, уже поставленных в очередь.
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SEC, TimeUnit.SECONDS)) {
+                System.out.println("Фоновое сохранение не завершилось за " + CLOSE_TIMEOUT_SEC + " с.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runQueued() {
+        // Флаг снимается до сохранения: изменения, пришедшие во время записи, запросят следующее
+        queued.set(false);
+        run();
+    }
+
+    private void saveIfChanged() {
+        if (hasChanges.getAsBoolean()) {
+            run();
+        }
+    }
+
+    // Исключение остановило бы таймер: сообщаем и ждём следующего раза
+    private void run() {
+        try {
+            save.run();
+        } catch (RuntimeException e) {
+            System.out.println("Ошибка фонового сохранения: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Пакетный front end: выполняет файл команд, по одной на строку в записи
+ * {@link CommandParser}, в одном сеансе. Пустые строки и строки с '#' пропускаются,
+ * 'exit' завершает пакет. Ошибка в команде не прерывает пакет, а печатается
+ * с номером строки.
+ *
+ * Вопросов нет, вывод буферизуется целиком, поэтому тысячи команд выполняются
+ * со скоростью сервисов, а не терминала.
+ */
+final class BatchRunner {
+
+    // Сколько подряд идущих add_income/add_expense добавляются одной пачкой
+    private static final int MAX_GROUP = 1_000;
+
+    private final CommandContext context;
+    private final PrintWriter out;
+    private final boolean quiet;
+
+    private final List<Command.AddTransaction> group = new ArrayList<>();
+    private final List<String> groupLines = new ArrayList<>();
+    private final List<Integer> groupLineNumbers = new ArrayList<>();
+    private int executed;
+    private int failed;
+
+    /**
+     * @param quiet печатать только ошибки; тогда подряд идущие add_income/add_expense
+     *              добавляются пачками через {@link Command.AddTransactions}
+     */
+    BatchRunner(AppData data, PrintWriter out, boolean quiet) {
+        this.context = new CommandContext(data);
+        this.out = out;
+        this.quiet = quiet;
+    }
+
+    Summary run(BufferedReader script) throws IOException {
+        executed = 0;
+        failed = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = script.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.equalsIgnoreCase("exit")) {
+                break;
+            }
+            Command command;
+            try {
+                command = CommandParser.parse(line);
+            } catch (IllegalArgumentException e) {
+                flushGroup();
+                record(lineNumber, line, CommandResult.error(e.getMessage()));
+                continue;
+            }
+            if (quiet && command instanceof Command.AddTransaction) {
+                group.add((Command.AddTransaction) command);
+                groupLines.add(line);
+                groupLineNumbers.add(lineNumber);
+                if (group.size() == MAX_GROUP) {
+                    flushGroup();
+                }
+                continue;
+            }
+            flushGroup();
+            record(lineNumber, line, context.execute(command));
+        }
+        flushGroup();
+        out.flush();
+        return new Summary(executed, failed);
+    }
+
+    // Пачка проверяется целиком до изменений, поэтому при ошибке кошелёк не тронут
+    // и операции можно выполнить по одной, чтобы указать строку с ошибкой.
+    private void flushGroup() {
+        if (group.isEmpty()) {
+            return;
+        }
+        List<Transaction> transactions = new ArrayList<>(group.size());
+        for (Command.AddTransaction command : group) {
+            transactions.add(command.toTransaction());
+        }
+        if (context.execute(new Command.AddTransactions(transactions)).isOk()) {
+            executed += group.size();
+        } else {
+            for (int i = 0; i < group.size(); i++) {
+                record(groupLineNumbers.get(i), groupLines.get(i), context.execute(group.get(i)));
+            }
+        }
+        group.clear();
+        groupLines.clear();
+        groupLineNumbers.clear();
+    }
+
+    private void record(int lineNumber, String line, CommandResult result) {
+        executed++;
+        if (!result.isOk()) {
+            failed++;
+            out.println("Строка " + lineNumber + ": " + line);
+            result.writeTo(out);
+        } else if (!quiet) {
+            result.writeTo(out);
+        }
+    }
+
+    /**
+     * Итог пакета: сколько команд выполнено и сколько из них с ошибкой.
+     */
+    static final class Summary {
+        private final int executed;
+        private final int failed;
+
+        Summary(int executed, int failed) {
+            this.executed = executed;
+            this.failed = failed;
+        }
+
+        int getExecuted() {
+            return executed;
+        }
+
+        int getFailed() {
+            return failed;
+        }
+    }
+}
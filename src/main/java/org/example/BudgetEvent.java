@@ -0,0 +1,176 @@
+package org.example;
+
+import java.time.YearMonth;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Событие по бюджету или балансу после добавления расходов: траты впервые достигли
+ * порога бюджета или превысили лимит, по категории нет бюджета, баланс ушёл в ноль или минус.
+ *
+ * Событие хранит только числа; текст собирается в {@link #getMessage()}, то есть только
+ * если кто-то его показывает. Слушатели подключаются через
+ * {@link WalletService#addListener(Listener)}.
+ */
+final class BudgetEvent {
+
+    enum Kind {
+        /** Траты достигли порога (процента от лимита). */
+        THRESHOLD,
+        /** Траты превысили лимит. */
+        OVER_LIMIT,
+        /** По категории нет бюджета. */
+        NO_BUDGET,
+        /** Баланс нулевой или отрицательный. */
+        LOW_BALANCE
+    }
+
+    /**
+     * Получатель событий. Вызывается в потоке, добавившем операции, сразу после добавления
+     * (блокировка кошелька уже снята), поэтому должен быть потокобезопасным.
+     */
+    interface Listener {
+        void onBudgetEvent(BudgetEvent event);
+    }
+
+    private final Kind kind;
+    private final String category;
+    private final YearMonth month;
+    private final long spent;
+    private final long limit;
+    private final int threshold;
+    private final long balance;
+    private final String currency;
+
+    private BudgetEvent(Kind kind, String category, YearMonth month, long spent, long limit, int threshold, long balance,
+                        String currency) {
+        this.kind = kind;
+        this.category = category;
+        this.month = month;
+        this.spent = spent;
+        this.limit = limit;
+        this.threshold = threshold;
+        this.balance = balance;
+        this.currency = currency;
+    }
+
+    static BudgetEvent threshold(CategoryBudget budget, YearMonth month, long spent, int threshold) {
+        return new BudgetEvent(Kind.THRESHOLD, budget.getName(), month, spent, budget.getLimit(), threshold, 0,
+                budget.getCurrency());
+    }
+
+    static BudgetEvent overLimit(CategoryBudget budget, YearMonth month, long spent) {
+        return new BudgetEvent(Kind.OVER_LIMIT, budget.getName(), month, spent, budget.getLimit(), 100, 0,
+                budget.getCurrency());
+    }
+
+    static BudgetEvent noBudget(String category, YearMonth month) {
+        return new BudgetEvent(Kind.NO_BUDGET, category, month, 0, 0, 0, 0, null);
+    }
+
+    static BudgetEvent lowBalance(long balance, String currency) {
+        return new BudgetEvent(Kind.LOW_BALANCE, null, null, 0, 0, 0, balance, currency);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Имя категории как в бюджете (для NO_BUDGET - как в операции); null для LOW_BALANCE.
+     */
+    String getCategory() {
+        return category;
+    }
+
+    /**
+     * Месяц трат; null для LOW_BALANCE.
+     */
+    YearMonth getMonth() {
+        return month;
+    }
+
+    long getSpent() {
+        return spent;
+    }
+
+    long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Порог в процентах; 100 для OVER_LIMIT, 0 для остальных.
+     */
+    int getThreshold() {
+        return threshold;
+    }
+
+    long getBalance() {
+        return balance;
+    }
+
+    /**
+     * Валюта сумм события: бюджета или баланса; null для NO_BUDGET.
+     */
+    String getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Текст уведомления. Для месяца, отличного от текущего, перед текстом стоит месяц.
+     */
+    String getMessage() {
+        String prefix = month == null || month.equals(YearMonth.now()) ? "" : month + ": ";
+        switch (kind) {
+            case OVER_LIMIT:
+                return prefix + String.format(
+                        "ВНИМАНИЕ: бюджет по категории '%s' превышен. Потрачено %s из %s (перерасход %s).",
+                        category, Money.format(spent, currency), Money.format(limit, currency),
+                        Money.format(spent - limit, currency));
+            case THRESHOLD:
+                return prefix + String.format(threshold >= 90
+                                ? "Осторожно: вы превысили %d%% бюджета по категории '%s'. Потрачено %s из %s."
+                                : "Предупреждение: израсходовано более %d%% бюджета по категории '%s'. Потрачено %s из %s.",
+                        threshold, category, Money.format(spent, currency), Money.format(limit, currency));
+            case NO_BUDGET:
+                return "Предупреждение: по категории '" + category + "' ещё не установлен бюджет.";
+            default:
+                return "ВНИМАНИЕ: ваш баланс нулевой или отрицательный (" + Money.format(balance, currency) + ").";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getMessage();
+    }
+
+    /**
+     * Тексты событий; каждый собирается при обращении к элементу.
+     */
+    static List<String> messages(List<BudgetEvent> events) {
+        if (events.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new Messages(events);
+    }
+
+    private static final class Messages extends AbstractList<String> implements RandomAccess {
+        private final List<BudgetEvent> events;
+
+        Messages(List<BudgetEvent> events) {
+            this.events = events;
+        }
+
+        @Override
+        public String get(int index) {
+            return events.get(index).getMessage();
+        }
+
+        @Override
+        public int size() {
+            return events.size();
+        }
+    }
+}
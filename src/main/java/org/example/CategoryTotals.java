@@ -0,0 +1,82 @@
+package org.example;
+
+import java.util.Arrays;
+
+/**
+ * Суммы по категориям без упаковки в Double: массив long, индекс - id
+ * нормализованной категории в словаре кошелька. Нулевая сумма означает,
+ * что по категории ничего не было.
+ */
+final class CategoryTotals {
+
+    private final TransactionColumns.StringPool keys;
+    private long[] sums;
+
+    CategoryTotals(TransactionColumns.StringPool keys) {
+        this.keys = keys;
+        this.sums = new long[Math.max(4, keys.size())];
+    }
+
+    void add(int id, long amount) {
+        if (id >= sums.length) {
+            sums = Arrays.copyOf(sums, Math.max(id + 1, sums.length * 2));
+        }
+        sums[id] += amount;
+    }
+
+    long get(int id) {
+        return id >= 0 && id < sums.length ? sums[id] : 0;
+    }
+
+    /**
+     * Сумма по нормализованному имени категории.
+     */
+    long get(String key) {
+        return get(keys.find(key));
+    }
+
+    /**
+     * Переносит сумму категории from в категорию to.
+     */
+    void move(int from, int to) {
+        long amount = get(from);
+        if (amount != 0) {
+            sums[from] = 0;
+            add(to, amount);
+        }
+    }
+
+    /**
+     * Граница перебора id: все ненулевые суммы имеют id меньше этого значения.
+     */
+    int idLimit() {
+        return sums.length;
+    }
+
+    String name(int id) {
+        return keys.get(id);
+    }
+
+    /**
+     * Количество категорий с ненулевой суммой.
+     */
+    int count() {
+        int count = 0;
+        for (long sum : sums) {
+            if (sum != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    boolean isEmpty() {
+        return count() == 0;
+    }
+
+    CategoryTotals copy() {
+        CategoryTotals copy = new CategoryTotals(keys);
+        copy.sums = sums.clone();
+        return copy;
+    }
+}
@@ -0,0 +1,528 @@
+package org.example;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Команда над {@link AuthService} и {@link WalletService} с уже разобранными аргументами.
+ * Команды не читают ввод и не печатают: результат возвращается как {@link CommandResult}.
+ * Выполнять - через {@link CommandContext#execute(Command)}.
+ *
+ * Текстовый вид команд разбирает {@link CommandParser}, вопросы консоли задаёт {@link CommandSession}.
+ */
+abstract class Command {
+
+    static final String LOGIN_REQUIRED = "Сначала авторизуйтесь (команды 'register' или 'login').";
+    static final String LOGOUT_FIRST = "Сначала выйдите из аккаунта командой 'logout'.";
+    static final String ALREADY_LOGGED_IN = "Вы уже авторизованы. Используйте 'logout' для выхода.";
+
+    abstract CommandResult execute(CommandContext context);
+
+    /**
+     * true, если команда меняет данные (выполняется под общей блокировкой данных).
+     */
+    boolean changesData() {
+        return false;
+    }
+
+    /**
+     * Баланс кошелька: в базовой валюте, затем остатки в других валютах с кодом.
+     */
+    static String formatBalances(Wallet wallet) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : wallet.getBalances().entrySet()) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(Money.format(e.getValue(), e.getKey()));
+        }
+        return sb.length() == 0 ? Money.format(0) : sb.toString();
+    }
+
+    static final class Help extends Command {
+        @Override
+        CommandResult execute(CommandContext context) {
+            List<String> lines = new ArrayList<>();
+            lines.add("=== Справка по командам ===");
+            lines.add("Базовые команды:");
+            lines.add("  help              - показать эту справку");
+            lines.add("  register          - регистрация нового пользователя");
+            lines.add("  login             - вход пользователя");
+            lines.add("  logout            - выход из аккаунта");
+            lines.add("  exit              - выход из программы и сохранение данных");
+
+            if (context.getUser() != null) {
+                lines.add("");
+                lines.add("Работа с деньгами:");
+                lines.add("  add_income        - добавить доход (интерактивный ввод)");
+                lines.add("  add_expense       - добавить расход (интерактивный ввод)");
+                lines.add("  list_tx           - список операций (таблица)");
+
+                lines.add("");
+                lines.add("Бюджеты и категории:");
+                lines.add("  set_budget        - установить/изменить бюджет по категории");
+                lines.add("  edit_budget       - изменить существующий бюджет");
+                lines.add("  budgets           - показать таблицу всех бюджетов");
+                lines.add("  rename_category   - переименовать категорию (во всех операциях и бюджетах)");
+
+                lines.add("");
+                lines.add("Отчёты и статистика:");
+                lines.add("  summary           - сводка по всем категориям и бюджетам (текущий месяц)");
+                lines.add("  report            - отчёт по выборке (период + несколько категорий)");
+
+                lines.add("");
+                lines.add("Экспорт / импорт:");
+                lines.add("  export_csv        - экспорт операций в CSV");
+                lines.add("  import_csv        - импорт операций из CSV");
+
+                lines.add("");
+                lines.add("Примеры использования:");
+                lines.add("  add_income        → введите сумму, категорию ('ЗП') и описание");
+                lines.add("  set_budget        → 'Еда', затем месячный лимит (например, 20000)");
+                lines.add("  set_budget Еда 20000 50,80,100 - то же с порогами предупреждений в %");
+                lines.add("  report            → задайте диапазон дат и список категорий ('Еда, Транспорт')");
+                lines.add("  report 2025-01-01 - - 100 2 - операции с 2025-01-01, вторая страница по 100 строк");
+                lines.add("  export_csv        → укажите имя файла, например 'report.csv'");
+                lines.add("  add_expense 250 Еда \"обед в кафе\" - то же одной строкой, без вопросов");
+                lines.add("  add_expense 19.99USD Еда         - расход в другой валюте (код после суммы)");
+                lines.add("  set_budget Еда 500EUR            - бюджет в другой валюте, расходы переводятся по курсу");
+            }
+            lines.add("============================");
+            return CommandResult.lines(lines);
+        }
+    }
+
+    static final class Register extends Command {
+        private final String username;
+        private final String password;
+
+        Register(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        boolean changesData() {
+            return true;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            if (context.getUser() != null) {
+                return CommandResult.error(LOGOUT_FIRST);
+            }
+            UserAccount user = context.getAuthService().register(username, password);
+            context.setUser(user);
+            return CommandResult.ok("Пользователь '" + user.getUsername() + "' успешно зарегистрирован и авторизован.");
+        }
+    }
+
+    static final class Login extends Command {
+        private final String username;
+        private final String password;
+
+        Login(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            if (context.getUser() != null) {
+                return CommandResult.error(ALREADY_LOGGED_IN);
+            }
+            UserAccount user;
+            try {
+                user = context.getAuthService().login(username, password, context.getSource());
+            } catch (RuntimeException e) {
+                context.loginFailed();
+                throw e;
+            }
+            context.setUser(user);
+            return CommandResult.ok("Добро пожаловать, " + user.getUsername() + "!");
+        }
+    }
+
+    static final class Logout extends Command {
+        @Override
+        CommandResult execute(CommandContext context) {
+            context.setUser(null);
+            return CommandResult.ok("Вы вышли из аккаунта.");
+        }
+    }
+
+    /**
+     * Добавление одной операции; дата null - сегодня, валюта null - базовая.
+     * Пакетный режим собирает подряд идущие операции в {@link AddTransactions}.
+     */
+    abstract static class AddTransaction extends Command {
+        final long amount;
+        final String category;
+        final String description;
+        final LocalDate date;
+        final String currency;
+
+        AddTransaction(long amount, String category, String description, LocalDate date, String currency) {
+            this.amount = amount;
+            this.category = category;
+            this.description = description;
+            this.date = date;
+            this.currency = currency;
+        }
+
+        abstract TransactionType type();
+
+        Transaction toTransaction() {
+            return new Transaction(type(), amount, category, description, date, currency);
+        }
+
+        /**
+         * Операция на сегодня в базовой валюте - добавляется обычным путём, иначе - пачкой из одной операции.
+         */
+        boolean isPlain() {
+            return date == null && currency == null;
+        }
+
+        @Override
+        boolean changesData() {
+            return true;
+        }
+    }
+
+    static final class AddIncome extends AddTransaction {
+        AddIncome(long amount, String category, String description) {
+            this(amount, category, description, null);
+        }
+
+        AddIncome(long amount, String category, String description, LocalDate date) {
+            this(amount, category, description, date, null);
+        }
+
+        AddIncome(long amount, String category, String description, LocalDate date, String currency) {
+            super(amount, category, description, date, currency);
+        }
+
+        @Override
+        TransactionType type() {
+            return TransactionType.INCOME;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            UserAccount user = context.requireUser();
+            List<String> notifications = Collections.emptyList();
+            if (isPlain()) {
+                context.getWalletService().addIncome(user, amount, category, description);
+            } else {
+                notifications = context.getWalletService().addTransactions(user, Collections.singletonList(toTransaction()));
+            }
+            return CommandResult.ok("Доход добавлен. Текущий баланс: " + formatBalances(user.getWallet()),
+                    notifications);
+        }
+    }
+
+    static final class AddExpense extends AddTransaction {
+        AddExpense(long amount, String category, String description) {
+            this(amount, category, description, null);
+        }
+
+        AddExpense(long amount, String category, String description, LocalDate date) {
+            this(amount, category, description, date, null);
+        }
+
+        AddExpense(long amount, String category, String description, LocalDate date, String currency) {
+            super(amount, category, description, date, currency);
+        }
+
+        @Override
+        TransactionType type() {
+            return TransactionType.EXPENSE;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            UserAccount user = context.requireUser();
+            WalletService service = context.getWalletService();
+            List<String> notifications = isPlain()
+                    ? service.addExpense(user, amount, category, description)
+                    : service.addTransactions(user, Collections.singletonList(toTransaction()));
+            return CommandResult.ok("Расход добавлен. Текущий баланс: " + formatBalances(user.getWallet()),
+                    notifications);
+        }
+    }
+
+    /**
+     * Несколько операций одной пачкой: одна проверка, одна запись в журнал,
+     * одна проверка бюджетов (см. {@link WalletService#addTransactions(UserAccount, java.util.Collection)}).
+     */
+    static final class AddTransactions extends Command {
+        private final List<Transaction> transactions;
+
+        AddTransactions(List<Transaction> transactions) {
+            this.transactions = transactions;
+        }
+
+        @Override
+        boolean changesData() {
+            return true;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            UserAccount user = context.requireUser();
+            List<String> notifications = context.getWalletService().addTransactions(user, transactions);
+            return CommandResult.ok("Добавлено операций: " + transactions.size() + ". Текущий баланс: "
+                    + formatBalances(user.getWallet()), notifications);
+        }
+    }
+
+    /**
+     * Установка бюджета; для edit_budget (onlyExisting) бюджет по категории уже должен быть.
+     * Пороги и валюта null - у существующего бюджета остаются прежние, у нового - по умолчанию.
+     */
+    static final class SetBudget extends Command {
+        private final String category;
+        private final long limit;
+        private final boolean onlyExisting;
+        private final int[] thresholds;
+        private final String currency;
+
+        SetBudget(String category, long limit, boolean onlyExisting) {
+            this(category, limit, onlyExisting, null);
+        }
+
+        SetBudget(String category, long limit, boolean onlyExisting, int[] thresholds) {
+            this(category, limit, onlyExisting, thresholds, null);
+        }
+
+        SetBudget(String category, long limit, boolean onlyExisting, int[] thresholds, String currency) {
+            this.category = category;
+            this.limit = limit;
+            this.onlyExisting = onlyExisting;
+            this.thresholds = thresholds;
+            this.currency = currency;
+        }
+
+        @Override
+        boolean changesData() {
+            return true;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            UserAccount user = context.requireUser();
+            CategoryBudget existing = user.getWallet().getBudget(category);
+            if (onlyExisting && existing == null) {
+                return CommandResult.error("Бюджет по этой категории не найден. Используйте 'set_budget' для создания.");
+            }
+            int[] newThresholds = thresholds != null ? thresholds
+                    : existing != null ? existing.getThresholds() : CategoryBudget.DEFAULT_THRESHOLDS;
+            String newCurrency = currency != null ? Money.normalizeCurrency(currency)
+                    : existing != null ? existing.getCurrency() : Money.BASE_CURRENCY;
+            context.getWalletService().setBudget(user, category, limit, newThresholds, newCurrency);
+            return CommandResult.ok(onlyExisting
+                    ? "Бюджет обновлён."
+                    : "Бюджет по категории '" + category + "' установлен/обновлён: " + Money.format(limit, newCurrency));
+        }
+    }
+
+    static final class ListBudgets extends Command {
+        @Override
+        CommandResult execute(CommandContext context) {
+            Map<String, CategoryBudget> budgets = context.requireUser().getWallet().getBudgets();
+            if (budgets.isEmpty()) {
+                return CommandResult.ok("Бюджеты пока не заданы.");
+            }
+            List<String> lines = new ArrayList<>();
+            lines.add("=== Бюджеты по категориям ===");
+            lines.add(String.format("%-20s | %-12s | %s", "Категория", "Лимит", "Пороги, %"));
+            lines.add("---------------------+--------------+-----------");
+            for (CategoryBudget b : budgets.values()) {
+                lines.add(String.format("%-20s | %-12s | %s", b.getName(), Money.format(b.getLimit(), b.getCurrency()),
+                        CommandParser.formatThresholds(b.getThresholds())));
+            }
+            return CommandResult.lines(lines);
+        }
+    }
+
+    static final class RenameCategory extends Command {
+        private final String oldCategory;
+        private final String newCategory;
+
+        RenameCategory(String oldCategory, String newCategory) {
+            this.oldCategory = oldCategory;
+            this.newCategory = newCategory;
+        }
+
+        @Override
+        boolean changesData() {
+            return true;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            context.getWalletService().renameCategory(context.requireUser(), oldCategory, newCategory);
+            return CommandResult.ok("Категория '" + oldCategory + "' переименована в '" + newCategory + "'.");
+        }
+    }
+
+    static final class Summary extends Command {
+        @Override
+        CommandResult execute(CommandContext context) {
+            UserAccount user = context.requireUser();
+            WalletService service = context.getWalletService();
+            return CommandResult.streamed(out -> {
+                ReportWriter report = new ReportWriter(out);
+                report.line("===== Сводка =====");
+                service.writeSummary(user, out);
+                report.line("==================");
+            });
+        }
+    }
+
+    /**
+     * Отчёт по выборке; null в границах и категориях - без ограничения.
+     * Строки операций выводятся страницами по pageSize (0 - все сразу).
+     */
+    static final class Report extends Command {
+        private final LocalDate from;
+        private final LocalDate to;
+        private final Set<String> categories;
+        private final int pageSize;
+        private final int page;
+
+        Report(LocalDate from, LocalDate to, Set<String> categories) {
+            this(from, to, categories, 0, 1);
+        }
+
+        /**
+         * @param page номер страницы, с 1
+         */
+        Report(LocalDate from, LocalDate to, Set<String> categories, int pageSize, int page) {
+            this.from = from;
+            this.to = to;
+            this.categories = categories;
+            this.pageSize = pageSize;
+            this.page = page;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            UserAccount user = context.requireUser();
+            if (from != null && to != null && to.isBefore(from)) {
+                return CommandResult.error("Неверный диапазон: дата конца раньше даты начала.");
+            }
+            int offset = pageSize == 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, (long) (page - 1) * pageSize);
+            int limit = pageSize == 0 ? Integer.MAX_VALUE : pageSize;
+            WalletService service = context.getWalletService();
+            return CommandResult.streamed(out -> {
+                ReportWriter report = new ReportWriter(out);
+                report.line("===== Отчёт по выборке =====");
+                service.writeFilteredReport(user, from, to, categories, offset, limit, out);
+                report.line("============================");
+            });
+        }
+    }
+
+    static final class ListTransactions extends Command {
+        static final int DEFAULT_LIMIT = 50;
+
+        private final int limit;
+
+        ListTransactions(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            List<Transaction> latest = context.requireUser().getWallet().getLatestTransactions(limit);
+            if (latest.isEmpty()) {
+                return CommandResult.ok("Операций пока нет.");
+            }
+            List<String> lines = new ArrayList<>(latest.size() + 3);
+            lines.add("=== Последние операции ===");
+            lines.add(String.format("%-10s | %-7s | %-15s | %-10s | %s",
+                    "Дата", "Тип", "Категория", "Сумма", "Описание"));
+            lines.add("-----------+---------+-----------------+------------+------------------------");
+            for (Transaction tx : latest) {
+                String typeLabel = tx.getType() == TransactionType.INCOME ? "Доход" : "Расход";
+                lines.add(String.format("%-10s | %-7s | %-15s | %-10s | %s",
+                        tx.getDate(),
+                        typeLabel,
+                        tx.getCategory(),
+                        Money.format(tx.getAmount()),
+                        tx.getDescription()));
+            }
+            return CommandResult.lines(lines);
+        }
+    }
+
+    static final class ExportCsv extends Command {
+        private final String filename;
+        private final LocalDate from;
+        private final LocalDate to;
+        private final Set<String> categories;
+
+        ExportCsv(String filename, LocalDate from, LocalDate to, Set<String> categories) {
+            this.filename = filename;
+            this.from = from;
+            this.to = to;
+            this.categories = categories;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            UserAccount user = context.requireUser();
+            try {
+                int exported = context.getWalletService().exportTransactionsToCsv(user, filename, from, to, categories);
+                return CommandResult.ok("Экспортировано операций: " + exported + ", файл: " + filename);
+            } catch (IOException e) {
+                return CommandResult.error("Ошибка при экспорте: " + e.getMessage());
+            }
+        }
+    }
+
+    static final class ImportCsv extends Command {
+        private static final int SHOWN_ERRORS = 10;
+
+        private final String filename;
+
+        ImportCsv(String filename) {
+            this.filename = filename;
+        }
+
+        @Override
+        boolean changesData() {
+            return true;
+        }
+
+        @Override
+        CommandResult execute(CommandContext context) {
+            UserAccount user = context.requireUser();
+            CsvImporter.Report report;
+            try {
+                report = context.getWalletService().importTransactionsFromCsv(user, filename);
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                return CommandResult.error("Файл не найден: " + filename);
+            } catch (IOException e) {
+                return CommandResult.error("Ошибка при чтении файла: " + e.getMessage());
+            }
+            List<String> lines = new ArrayList<>(report.getNotifications());
+            if (report.getErrorCount() > 0) {
+                lines.add("Пропущено строк: " + report.getErrorCount());
+                report.getErrors().stream()
+                        .limit(SHOWN_ERRORS)
+                        .forEach(e -> lines.add("  " + e));
+            }
+            lines.add("Текущий баланс: " + formatBalances(user.getWallet()));
+            return CommandResult.ok("Импорт завершён. Добавлено операций: " + report.getImported(), lines);
+        }
+    }
+}
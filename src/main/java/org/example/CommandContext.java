@@ -0,0 +1,106 @@
+package org.example;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Сеанс команд: текущий пользователь и сервисы над общими данными.
+ * Один контекст - один пользователь консоли, соединения сервера или пакетного файла.
+ *
+ * {@link #execute} - единая точка выполнения: команды, меняющие данные, идут под общей
+ * блокировкой данных (см. {@link AppData#changeLock()}), а ошибки сервисов превращаются
+ * в результат с ошибкой вместо исключения.
+ */
+final class CommandContext {
+
+    private final AppData data;
+    private final AuthService authService;
+    private final WalletService walletService;
+    private final String source;
+    private final int maxLoginFailures;
+    private int loginFailures;
+    private UserAccount user;
+
+    CommandContext(AppData data) {
+        this(data, AuthService.LOCAL_SOURCE, 0);
+    }
+
+    /**
+     * @param source           откуда пришли команды (адрес соединения, консоль) - см. {@link AuthService#login(String, String, String)}
+     * @param maxLoginFailures сколько неудачных входов допускает сеанс (0 - без ограничения)
+     */
+    CommandContext(AppData data, String source, int maxLoginFailures) {
+        this.data = data;
+        this.source = source;
+        this.maxLoginFailures = maxLoginFailures;
+        this.authService = new AuthService(data);
+        this.walletService = new WalletService(data.getFxRates());
+    }
+
+    CommandResult execute(Command command) {
+        CommandResult result;
+        try {
+            if (command.changesData()) {
+                Lock lock = data.changeLock();
+                lock.lock();
+                try {
+                    result = command.execute(this);
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                result = command.execute(this);
+            }
+        } catch (IllegalStateException e) {
+            result = CommandResult.error("Ошибка: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            result = CommandResult.error("Неверные данные: " + e.getMessage());
+        } catch (RuntimeException e) {
+            result = CommandResult.error("Непредвиденная ошибка: " + e.getMessage());
+        }
+        if (command.changesData()) {
+            DataStore.compactIfNeeded(data);
+        }
+        return result;
+    }
+
+    UserAccount getUser() {
+        return user;
+    }
+
+    void setUser(UserAccount user) {
+        this.user = user;
+    }
+
+    /**
+     * Текущий пользователь; если никто не вошёл - IllegalStateException.
+     */
+    UserAccount requireUser() {
+        if (user == null) {
+            throw new IllegalStateException(Command.LOGIN_REQUIRED);
+        }
+        return user;
+    }
+
+    void loginFailed() {
+        loginFailures++;
+    }
+
+    /**
+     * Исчерпал ли сеанс свой лимит неудачных входов - тогда его пора закрыть.
+     */
+    boolean loginAttemptsExhausted() {
+        return maxLoginFailures > 0 && loginFailures >= maxLoginFailures;
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    AuthService getAuthService() {
+        return authService;
+    }
+
+    WalletService getWalletService() {
+        return walletService;
+    }
+}
@@ -0,0 +1,274 @@
+package org.example;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Разбор команды, записанной одной строкой: имя и аргументы через пробел,
+ * аргумент с пробелами - в двойных кавычках, "-" - пропущенный необязательный аргумент.
+ *
+ * <pre>
+ * register &lt;логин&gt; &lt;пароль&gt;
+ * login &lt;логин&gt; &lt;пароль&gt;
+ * add_income &lt;сумма[валюта]&gt; &lt;категория&gt; [описание] [дата]
+ * add_expense &lt;сумма[валюта]&gt; &lt;категория&gt; [описание] [дата]
+ * set_budget | edit_budget &lt;категория&gt; &lt;лимит[валюта]&gt; [пороги в % через запятую]
+ * rename_category &lt;старая&gt; &lt;новая&gt;
+ * report [с] [по] [категории через запятую] [строк на странице] [страница]
+ * list_tx [количество]
+ * export_csv &lt;файл&gt; [с] [по] [категории через запятую]
+ * import_csv &lt;файл&gt;
+ * help | logout | budgets | summary
+ * </pre>
+ *
+ * Код валюты пишется сразу после суммы: 19.99USD; без кода - базовая валюта.
+ */
+final class CommandParser {
+
+    private CommandParser() {
+    }
+
+    /**
+     * @throws IllegalArgumentException если команда неизвестна или аргументы не подходят
+     */
+    static Command parse(String line) {
+        List<String> args = tokenize(line);
+        if (args.isEmpty()) {
+            throw new IllegalArgumentException("Пустая команда.");
+        }
+        String name = args.get(0).toLowerCase(Locale.ROOT);
+        switch (name) {
+            case "help":
+                expect(args, 0, 0, "help");
+                return new Command.Help();
+            case "register":
+                expect(args, 2, 2, "register <логин> <пароль>");
+                return new Command.Register(args.get(1), args.get(2));
+            case "login":
+                expect(args, 2, 2, "login <логин> <пароль>");
+                return new Command.Login(args.get(1), args.get(2));
+            case "logout":
+                expect(args, 0, 0, "logout");
+                return new Command.Logout();
+            case "add_income":
+                expect(args, 2, 4, "add_income <сумма> <категория> [описание] [дата]");
+                return new Command.AddIncome(parseAmount(args.get(1)), args.get(2), optional(args, 3, ""),
+                        parseDate(optional(args, 4, null)), parseCurrency(args.get(1)));
+            case "add_expense":
+                expect(args, 2, 4, "add_expense <сумма> <категория> [описание] [дата]");
+                return new Command.AddExpense(parseAmount(args.get(1)), args.get(2), optional(args, 3, ""),
+                        parseDate(optional(args, 4, null)), parseCurrency(args.get(1)));
+            case "set_budget":
+            case "edit_budget":
+                expect(args, 2, 3, name + " <категория> <лимит> [пороги]");
+                return new Command.SetBudget(args.get(1), parseAmount(args.get(2)), name.equals("edit_budget"),
+                        parseThresholds(optional(args, 3, null)), parseCurrency(args.get(2)));
+            case "budgets":
+                expect(args, 0, 0, "budgets");
+                return new Command.ListBudgets();
+            case "rename_category":
+                expect(args, 2, 2, "rename_category <старая> <новая>");
+                return new Command.RenameCategory(args.get(1), args.get(2));
+            case "summary":
+                expect(args, 0, 0, "summary");
+                return new Command.Summary();
+            case "report":
+                expect(args, 0, 5, "report [с] [по] [категории] [строк на странице] [страница]");
+                return new Command.Report(parseDate(optional(args, 1, null)), parseDate(optional(args, 2, null)),
+                        parseCategories(optional(args, 3, null)),
+                        parsePositive(optional(args, 4, null), 0, "Строк на странице должно быть положительное целое число."),
+                        parsePositive(optional(args, 5, null), 1, "Номер страницы должен быть положительным целым числом."));
+            case "list_tx":
+                expect(args, 0, 1, "list_tx [количество]");
+                return new Command.ListTransactions(parsePositive(optional(args, 1, null),
+                        Command.ListTransactions.DEFAULT_LIMIT, "Количество операций должно быть положительным целым числом."));
+            case "export_csv":
+                expect(args, 1, 4, "export_csv <файл> [с] [по] [категории]");
+                return new Command.ExportCsv(args.get(1), parseDate(optional(args, 2, null)),
+                        parseDate(optional(args, 3, null)), parseCategories(optional(args, 4, null)));
+            case "import_csv":
+                expect(args, 1, 1, "import_csv <файл>");
+                return new Command.ImportCsv(args.get(1));
+            default:
+                throw new IllegalArgumentException("Неизвестная команда '" + name + "'. Введите 'help' для списка команд.");
+        }
+    }
+
+    /**
+     * Сумма в копейках, строго больше нуля; код валюты после суммы не учитывается.
+     */
+    static long parseAmount(String s) {
+        String text = s.trim();
+        long amount;
+        try {
+            amount = Money.parse(text.substring(0, text.length() - currencySuffixLength(text)).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Введите корректное число, например 123.45");
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Сумма должна быть положительной.");
+        }
+        return amount;
+    }
+
+    /**
+     * Код валюты после суммы ("19.99USD", "19.99 usd") или null, если его нет.
+     *
+     * @throws IllegalArgumentException если код не из трёх латинских букв
+     */
+    static String parseCurrency(String s) {
+        String text = s.trim();
+        int length = currencySuffixLength(text);
+        return length == 0 ? null : Money.normalizeCurrency(text.substring(text.length() - length));
+    }
+
+    // Длина буквенного хвоста строки
+    private static int currencySuffixLength(String s) {
+        int i = s.length();
+        while (i > 0 && Character.isLetter(s.charAt(i - 1))) {
+            i--;
+        }
+        return s.length() - i;
+    }
+
+    /**
+     * Дата ГГГГ-ММ-ДД; пусто или null - без ограничения (null).
+     */
+    static LocalDate parseDate(String s) {
+        if (s == null || s.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(s.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Неверный формат даты. Используйте ГГГГ-ММ-ДД, например 2025-01-15.");
+        }
+    }
+
+    /**
+     * Категории через запятую в нижнем регистре; пусто или null - все категории (null).
+     */
+    static Set<String> parseCategories(String s) {
+        if (s == null || s.trim().isEmpty()) {
+            return null;
+        }
+        Set<String> cats = new HashSet<>();
+        for (String c : s.split(",")) {
+            String trimmed = c.trim();
+            if (!trimmed.isEmpty()) {
+                cats.add(Wallet.normalizeCategory(trimmed));
+            }
+        }
+        return cats;
+    }
+
+    /**
+     * Пороги бюджета в процентах через запятую, например "50,80,100"; null - не заданы.
+     */
+    static int[] parseThresholds(String s) {
+        if (s == null || s.trim().isEmpty()) {
+            return null;
+        }
+        String[] parts = s.split(",");
+        int[] thresholds = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                thresholds[i] = Integer.parseInt(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Пороги - целые проценты через запятую, например 50,80,100");
+        }
+        return CategoryBudget.normalizeThresholds(thresholds);
+    }
+
+    static String formatThresholds(int[] thresholds) {
+        StringBuilder sb = new StringBuilder();
+        for (int t : thresholds) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(t);
+        }
+        return sb.toString();
+    }
+
+    // Положительное целое; null - defaultValue
+    private static int parsePositive(String s, int defaultValue, String error) {
+        if (s == null) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(s);
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // сообщение ниже
+        }
+        throw new IllegalArgumentException(error);
+    }
+
+    private static void expect(List<String> args, int min, int max, String usage) {
+        int count = args.size() - 1;
+        if (count < min || count > max) {
+            throw new IllegalArgumentException("Использование: " + usage);
+        }
+    }
+
+    // Аргумент index или defaultValue, если его нет или он "-"
+    private static String optional(List<String> args, int index, String defaultValue) {
+        if (index >= args.size() || args.get(index).equals("-")) {
+            return defaultValue;
+        }
+        return args.get(index);
+    }
+
+    /**
+     * Слова строки; в двойных кавычках пробелы сохраняются, "" внутри кавычек - сама кавычка.
+     */
+    static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+        boolean inToken = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inQuotes) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        current.append('"');
+                        i++;
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                current.append(c);
+                inToken = true;
+            }
+        }
+        if (inQuotes) {
+            throw new IllegalArgumentException("Не закрыта кавычка.");
+        }
+        if (inToken) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,112 @@
+package org.example;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Результат команды: успех или ошибка, краткое сообщение и строки вывода
+ * (таблицы, отчёты, уведомления о бюджете). Как показать результат, решает front end.
+ *
+ * Большой вывод (отчёты) не собирается заранее: результат хранит {@link Output},
+ * который пишет прямо в приёмник front end'а при показе.
+ */
+final class CommandResult {
+
+    /**
+     * Вывод, который пишется в приёмник при показе результата.
+     */
+    interface Output {
+        void writeTo(Appendable out);
+    }
+
+    private final boolean ok;
+    private final String message;
+    private final List<String> lines;
+    private final Output output;
+
+    private CommandResult(boolean ok, String message, List<String> lines, Output output) {
+        this.ok = ok;
+        this.message = message;
+        this.lines = lines;
+        this.output = output;
+    }
+
+    private CommandResult(boolean ok, String message, List<String> lines) {
+        this(ok, message, lines, null);
+    }
+
+    static CommandResult ok(String message) {
+        return new CommandResult(true, message, Collections.emptyList());
+    }
+
+    static CommandResult ok(String message, List<String> lines) {
+        return new CommandResult(true, message, Collections.unmodifiableList(lines));
+    }
+
+    static CommandResult lines(List<String> lines) {
+        return new CommandResult(true, null, Collections.unmodifiableList(lines));
+    }
+
+    /**
+     * Успех, вывод которого пишется при показе (см. {@link #writeTo}).
+     */
+    static CommandResult streamed(Output output) {
+        return new CommandResult(true, null, Collections.emptyList(), output);
+    }
+
+    static CommandResult error(String message) {
+        return new CommandResult(false, message, Collections.emptyList());
+    }
+
+    boolean isOk() {
+        return ok;
+    }
+
+    /**
+     * Сообщение о результате; null, если команда выводит только строки.
+     */
+    String getMessage() {
+        return message;
+    }
+
+    /**
+     * Строки вывода; потоковый вывод при этом собирается в память целиком.
+     */
+    List<String> getLines() {
+        if (output == null) {
+            return lines;
+        }
+        StringBuilder text = new StringBuilder();
+        output.writeTo(text);
+        List<String> all = new ArrayList<>(lines);
+        all.addAll(ReportWriter.toLines(text));
+        return Collections.unmodifiableList(all);
+    }
+
+    /**
+     * Печатает сообщение, затем строки вывода, затем потоковый вывод.
+     * Ошибка во время потокового вывода печатается после уже выведенной части.
+     */
+    void writeTo(PrintWriter out) {
+        if (message != null) {
+            out.println(message);
+        }
+        for (String line : lines) {
+            out.println(line);
+        }
+        if (output != null) {
+            try {
+                output.writeTo(out);
+            } catch (RuntimeException e) {
+                out.println("Непредвиденная ошибка: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (ok ? "OK" : "ERROR") + (message == null ? "" : ": " + message);
+    }
+}
@@ -0,0 +1,185 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сервер команд: тот же набор команд, что и в консоли, по TCP на локальном адресе.
+ * Каждое соединение - отдельный {@link CommandSession} со своим текущим пользователем,
+ * все соединения работают с одними данными.
+ *
+ * Протокол - текстовый, UTF-8, построчный, как в консоли: сервер печатает приглашение
+ * "[пользователь] > " и ждёт команду, а затем ответы на её вопросы. Ответ на команду
+ * заканчивается следующим приглашением, поэтому команды с ответами можно посылать
+ * сразу целиком.
+ *
+ * Соединение обслуживает виртуальный поток (JDK 21+), на JDK 17 - обычный поток.
+ * Сервер слушает только loopback: команды export_csv/import_csv работают с файлами сервера.
+ */
+final class CommandServer implements Closeable {
+
+    static final int DEFAULT_PORT = 7070;
+
+    private static final int BACKLOG = 1024;
+    private static final int OUTPUT_BUFFER = 16 * 1024;
+
+    private final AppData data;
+    private final ServerSocket serverSocket;
+    private final ExecutorService sessions;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+
+    CommandServer(AppData data, int port) throws IOException {
+        this.data = data;
+        this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        this.sessions = newPerTaskExecutor("command-session");
+        this.acceptor = new Thread(this::acceptLoop, "command-server-accept");
+    }
+
+    /**
+     * Запускает сервер и работает, пока в консоли не введут 'stop' (или процесс не остановят).
+     */
+    static void serveUntilStopped(AppData data, int port) throws IOException {
+        try (CommandServer server = new CommandServer(data, port)) {
+            server.start();
+            System.out.println("Сервер слушает " + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                    + server.getPort() + " (" + (server.usesVirtualThreads() ? "виртуальные потоки" : "потоки платформы")
+                    + "). Введите 'stop' для остановки.");
+            BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+            String line;
+            while ((line = console.readLine()) != null) {
+                if ("stop".equalsIgnoreCase(line.trim())) {
+                    return;
+                }
+            }
+            // Консоли нет (запуск в фоне) - работаем до остановки процесса
+            server.awaitStop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void start() {
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void awaitStop() throws InterruptedException {
+        acceptor.join();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                return; // сокет закрыт в close()
+            } catch (IOException e) {
+                System.out.println("Ошибка при приёме соединения: " + e.getMessage());
+                continue;
+            }
+            connections.add(socket);
+            try {
+                sessions.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                // сервер уже останавливается
+                connections.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), OUTPUT_BUFFER));
+            out.println("Финансовый трекер. Введите 'help' для списка команд.");
+            // Источник входа - адрес клиента: переподключение не сбрасывает его лимит неудач.
+            // С loopback приходят все локальные клиенты, общий лимит запирал бы их друг другу,
+            // поэтому для них перебор ограничивает лимит неудач на соединение
+            InetAddress address = s.getInetAddress();
+            String source = address.isLoopbackAddress() ? AuthService.LOCAL_SOURCE : address.getHostAddress();
+            new CommandSession(data, in, out, source, LoginThrottle.MAX_SESSION_FAILURES).run();
+        } catch (IOException e) {
+            // соединение оборвалось - сеанс просто заканчивается
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Перестаёт принимать соединения, закрывает открытые и ждёт завершения сеансов.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+        sessions.shutdown();
+        try {
+            if (!sessions.awaitTermination(10, TimeUnit.SECONDS)) {
+                sessions.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            sessions.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // соединение и так не обслуживается
+        }
+    }
+
+    /**
+     * Исполнитель "поток на задачу": виртуальные потоки, если они есть в JDK,
+     * иначе пул потоков-демонов. Виртуальные потоки ищутся через отражение,
+     * чтобы сборка оставалась совместимой с JDK 17.
+     */
+    static ExecutorService newPerTaskExecutor(String name) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadFactory factory = r -> {
+                Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newCachedThreadPool(factory);
+        }
+    }
+
+    boolean usesVirtualThreads() {
+        return !(sessions instanceof ThreadPoolExecutor);
+    }
+}
@@ -0,0 +1,252 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Текстовый front end команд: свой ввод/вывод поверх {@link CommandContext}.
+ * Консоль - один сеанс поверх System.in/System.out, сервер - по сеансу на соединение;
+ * все сеансы работают с общими данными.
+ *
+ * Команду можно ввести одной строкой с аргументами (см. {@link CommandParser}),
+ * а без аргументов сеанс задаст вопросы, как раньше.
+ *
+ * Вывод буферизуется и сбрасывается перед каждым чтением ввода, то есть один раз
+ * на ответ, а не на каждую строку.
+ */
+final class CommandSession implements Runnable {
+
+    private final CommandContext context;
+    private final BufferedReader in;
+    private final PrintWriter out;
+
+    CommandSession(AppData data, BufferedReader in, PrintWriter out) {
+        this(data, in, out, AuthService.LOCAL_SOURCE, 0);
+    }
+
+    /**
+     * @param maxLoginFailures после стольких неудачных входов сеанс заканчивается (0 - без ограничения)
+     */
+    CommandSession(AppData data, BufferedReader in, PrintWriter out, String source, int maxLoginFailures) {
+        this.context = new CommandContext(data, source, maxLoginFailures);
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Цикл команд до 'exit' или конца ввода.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            UserAccount user = context.getUser();
+            out.print((user == null ? "[гость]" : "[" + user.getUsername() + "]") + " > ");
+            try {
+                String line = nextLine().trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String cmd = line.split("\\s+", 2)[0].toLowerCase(Locale.ROOT);
+                if (cmd.equals("exit")) {
+                    break;
+                }
+                Command command = CommandParser.tokenize(line).size() > 1 ? CommandParser.parse(line) : ask(cmd);
+                if (command != null) {
+                    context.execute(command).writeTo(out);
+                    if (context.loginAttemptsExhausted()) {
+                        out.println("Слишком много неудачных попыток входа, сеанс завершён.");
+                        break;
+                    }
+                }
+            } catch (NoSuchElementException e) {
+                break; // ввод закончился
+            } catch (IllegalArgumentException e) {
+                out.println(e.getMessage()); // команда записана с ошибкой
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Собирает аргументы команды вопросами. null - команду выполнять не нужно
+     * (причина уже напечатана).
+     */
+    private Command ask(String cmd) {
+        boolean loggedIn = context.getUser() != null;
+        switch (cmd) {
+            case "register": {
+                if (loggedIn) {
+                    out.println(Command.LOGOUT_FIRST);
+                    return null;
+                }
+                out.print("Введите логин: ");
+                String username = nextLine().trim();
+                out.print("Введите пароль (минимум 4 символа): ");
+                String password = nextLine();
+                return new Command.Register(username, password);
+            }
+            case "login": {
+                if (loggedIn) {
+                    out.println(Command.ALREADY_LOGGED_IN);
+                    return null;
+                }
+                out.print("Логин: ");
+                String username = nextLine().trim();
+                out.print("Пароль: ");
+                String password = nextLine();
+                return new Command.Login(username, password);
+            }
+            case "add_income":
+            case "add_expense":
+            case "set_budget":
+            case "edit_budget":
+            case "rename_category":
+            case "report":
+            case "export_csv":
+            case "import_csv":
+                if (!loggedIn) {
+                    out.println("Ошибка: " + Command.LOGIN_REQUIRED);
+                    return null;
+                }
+                return askWalletCommand(cmd);
+            default:
+                // Команды без аргументов; неизвестное имя - ошибка разбора
+                return CommandParser.parse(cmd);
+        }
+    }
+
+    private Command askWalletCommand(String cmd) {
+        switch (cmd) {
+            case "add_income": {
+                String amount = readPositiveAmount("Введите сумму дохода: ");
+                String category = readNonEmptyString("Введите категорию дохода (например, ЗП, Премия): ");
+                String description = readNonEmptyString("Описание (например, зарплата за октябрь): ");
+                return new Command.AddIncome(CommandParser.parseAmount(amount), category, description, null,
+                        CommandParser.parseCurrency(amount));
+            }
+            case "add_expense": {
+                String amount = readPositiveAmount("Введите сумму расхода: ");
+                String category = readNonEmptyString("Введите категорию расхода (например, Еда, Аренда): ");
+                String description = readNonEmptyString("Описание (например, продукты): ");
+                return new Command.AddExpense(CommandParser.parseAmount(amount), category, description, null,
+                        CommandParser.parseCurrency(amount));
+            }
+            case "set_budget": {
+                String category = readNonEmptyString("Категория (например, Еда, Аренда): ");
+                String limit = readPositiveAmount("Месячный лимит по этой категории: ");
+                return new Command.SetBudget(category, CommandParser.parseAmount(limit), false, null,
+                        CommandParser.parseCurrency(limit));
+            }
+            case "edit_budget": {
+                String category = readNonEmptyString("Категория бюджета, который хотите изменить: ");
+                CategoryBudget existing = context.requireUser().getWallet().getBudget(category);
+                if (existing == null) {
+                    out.println("Бюджет по этой категории не найден. Используйте 'set_budget' для создания.");
+                    return null;
+                }
+                out.println("Текущий лимит: " + Money.format(existing.getLimit(), existing.getCurrency()));
+                String newLimit = readPositiveAmount("Новый месячный лимит: ");
+                return new Command.SetBudget(category, CommandParser.parseAmount(newLimit), true, null,
+                        CommandParser.parseCurrency(newLimit));
+            }
+            case "rename_category": {
+                String oldCat = readNonEmptyString("Старая категория: ");
+                String newCat = readNonEmptyString("Новая категория: ");
+                return new Command.RenameCategory(oldCat, newCat);
+            }
+            case "report": {
+                out.println("Отчёт по выборке.");
+                LocalDate from = readDateOrEmpty("Дата начала (ГГГГ-ММ-ДД, пусто - без ограничения): ");
+                LocalDate to = readDateOrEmpty("Дата конца   (ГГГГ-ММ-ДД, пусто - без ограничения): ");
+                if (from != null && to != null && to.isBefore(from)) {
+                    out.println("Неверный диапазон: дата конца раньше даты начала.");
+                    return null;
+                }
+                return new Command.Report(from, to, readCategoriesOrEmpty());
+            }
+            case "export_csv": {
+                String filename = readNonEmptyString("Имя файла для экспорта (например, report.csv или report.csv.gz): ");
+                LocalDate from = readDateOrEmpty("Дата начала (ГГГГ-ММ-ДД, пусто - без ограничения): ");
+                LocalDate to = readDateOrEmpty("Дата конца   (ГГГГ-ММ-ДД, пусто - без ограничения): ");
+                return new Command.ExportCsv(filename, from, to, readCategoriesOrEmpty());
+            }
+            default: {
+                String filename = readNonEmptyString("Имя файла для импорта (CSV): ");
+                return new Command.ImportCsv(filename);
+            }
+        }
+    }
+
+    /**
+     * Сумма (с необязательным кодом валюты после неё) - как введена, уже проверенная.
+     */
+    private String readPositiveAmount(String prompt) {
+        while (true) {
+            out.print(prompt);
+            String s = nextLine().trim();
+            if (s.isEmpty()) {
+                out.println("Значение не может быть пустым.");
+                continue;
+            }
+            try {
+                CommandParser.parseAmount(s);
+                CommandParser.parseCurrency(s);
+                return s;
+            } catch (IllegalArgumentException e) {
+                out.println(e.getMessage());
+            }
+        }
+    }
+
+    private String readNonEmptyString(String prompt) {
+        while (true) {
+            out.print(prompt);
+            String s = nextLine().trim();
+            if (s.isEmpty()) {
+                out.println("Значение не может быть пустым.");
+            } else {
+                return s;
+            }
+        }
+    }
+
+    private Set<String> readCategoriesOrEmpty() {
+        out.print("Категории через запятую (пусто - все): ");
+        return CommandParser.parseCategories(nextLine());
+    }
+
+    private LocalDate readDateOrEmpty(String prompt) {
+        while (true) {
+            out.print(prompt);
+            try {
+                return CommandParser.parseDate(nextLine());
+            } catch (IllegalArgumentException e) {
+                out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Следующая строка ввода; перед ожиданием ввода сбрасывает накопленный вывод.
+     *
+     * @throws NoSuchElementException если ввод закончился
+     */
+    private String nextLine() {
+        out.flush();
+        try {
+            String line = in.readLine();
+            if (line == null) {
+                throw new NoSuchElementException("Ввод закончился");
+            }
+            return line;
+        } catch (IOException e) {
+            // Соединение оборвалось - для сеанса это тот же конец ввода
+            throw new NoSuchElementException("Ввод недоступен: " + e.getMessage());
+        }
+    }
+}
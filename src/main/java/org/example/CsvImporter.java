@@ -0,0 +1,688 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Импорт операций из CSV (date,type,category,description,amount; первая строка - заголовок).
+ * Если заголовок объявляет шестой столбец currency, в нём код валюты операции
+ * (пустое значение - базовая валюта); без такого заголовка лишние столбцы не читаются.
+ *
+ * Файл отображается в память и делится на куски по границам записей: перевод строки
+ * внутри кавычек границей не считается. Куски разбираются параллельно прямо по байтам
+ * (UTF-8), повторяющиеся категории и описания не создают новых строк. Результат -
+ * одна пачка операций в порядке файла и отчёт об ошибочных строках.
+ */
+final class CsvImporter {
+
+    static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+    static final int MAX_REPORTED_ERRORS = 100;
+
+    private static final int FIELD_COUNT = 5;
+    private static final int CURRENCY_FIELD = 5;
+    private static final int MAX_HEADER = 4096;
+    private static final int SCAN_WINDOW = 1 << 20;
+    private static final int MAX_ERROR_TEXT = 200;
+    private static final byte[] INCOME = "INCOME".getBytes(StandardCharsets.US_ASCII);
+
+    private final int chunkSize;
+    private final ForkJoinPool pool;
+
+    CsvImporter() {
+        this(DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    CsvImporter(int chunkSize, ForkJoinPool pool) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Размер куска должен быть больше нуля.");
+        }
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    /**
+     * Разбирает файл. Кошелёк не меняется: операции возвращаются в {@link Result#getTransactions()}.
+     */
+    Result parse(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] starts = split(channel, size);
+            boolean withCurrency = hasCurrencyColumn(channel, size);
+
+            List<Chunk> chunks = new ArrayList<>();
+            for (int i = 0; i + 1 < starts.length; i++) {
+                if (starts[i + 1] > starts[i]) {
+                    chunks.add(new Chunk(channel, starts[i], starts[i + 1], i == 0, withCurrency));
+                }
+            }
+            if (chunks.size() == 1) {
+                chunks.get(0).call();
+            } else if (!chunks.isEmpty()) {
+                for (Future<Chunk> f : pool.invokeAll(chunks)) {
+                    await(f);
+                }
+            }
+            return merge(chunks);
+        }
+    }
+
+    /**
+     * Объявлен ли в заголовке столбец currency (шестым). Заголовок читается до разбора кусков:
+     * куски, кроме первого, его не видят.
+     */
+    private static boolean hasCurrencyColumn(FileChannel channel, long size) throws IOException {
+        ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(MAX_HEADER, size));
+        byte[] bytes = new byte[head.limit()];
+        head.get(bytes);
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        int newline = text.indexOf('\n');
+        String[] columns = (newline < 0 ? text : text.substring(0, newline)).split(",");
+        return columns.length > CURRENCY_FIELD
+                && columns[CURRENCY_FIELD].trim().equalsIgnoreCase("currency");
+    }
+
+    /**
+     * Начала кусков (последний элемент - размер файла). Сначала параллельно считается
+     * чётность кавычек в каждом куске, затем от каждой предварительной границы
+     * ищется ближайший перевод строки вне кавычек.
+     */
+    private long[] split(FileChannel channel, long size) throws IOException {
+        int n = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        long[] starts = new long[n + 1];
+        starts[n] = size;
+        if (n == 1) {
+            return starts;
+        }
+
+        List<Callable<Boolean>> parity = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long from = (long) i * chunkSize;
+            long to = Math.min(size, from + chunkSize);
+            parity.add(() -> countQuotes(channel, from, to) % 2 == 1);
+        }
+        List<Future<Boolean>> odd = pool.invokeAll(parity);
+
+        boolean inQuotes = false;
+        for (int i = 1; i < n; i++) {
+            inQuotes ^= await(odd.get(i - 1));
+            long next = nextRecordStart(channel, (long) i * chunkSize, inQuotes, size);
+            starts[i] = Math.max(starts[i - 1], next);
+        }
+        return starts;
+    }
+
+    private static long countQuotes(FileChannel channel, long from, long to) throws IOException {
+        long count = 0;
+        for (long pos = from; pos < to; pos += SCAN_WINDOW) {
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(SCAN_WINDOW, to - pos));
+            int limit = window.limit();
+            for (int i = 0; i < limit; i++) {
+                if (window.get(i) == '"') {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Позиция сразу после первого перевода строки вне кавычек, начиная с from.
+     */
+    private static long nextRecordStart(FileChannel channel, long from, boolean inQuotes, long size)
+            throws IOException {
+        for (long pos = from; pos < size; pos += SCAN_WINDOW) {
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(SCAN_WINDOW, size - pos));
+            int limit = window.limit();
+            for (int i = 0; i < limit; i++) {
+                byte b = window.get(i);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    return pos + i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static Result merge(List<Chunk> chunks) {
+        TransactionColumns all = new TransactionColumns();
+        List<LineError> errors = new ArrayList<>();
+        int errorCount = 0;
+        long firstLine = 1;
+        for (Chunk chunk : chunks) {
+            all.addAll(chunk.rows);
+            errorCount += chunk.errorCount;
+            for (LineError e : chunk.errors) {
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add(new LineError(firstLine + e.line, e.reason, e.text, e.detail));
+                }
+            }
+            firstLine += chunk.lineCount;
+        }
+        return new Result(all, new Report(all.size(), errorCount, errors));
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Импорт прерван", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Разбор одного куска файла. Номера строк в ошибках - от начала куска (с нуля).
+     */
+    private static final class Chunk implements Callable<Chunk> {
+        private final FileChannel channel;
+        private final long from;
+        private final long to;
+        private final boolean first;
+        private final boolean withCurrency;
+
+        private final TransactionColumns rows = new TransactionColumns();
+        private final List<LineError> errors = new ArrayList<>();
+        private int errorCount;
+        private long lineCount;
+
+        private final Field[] fields = new Field[FIELD_COUNT + 1];
+        private int fieldCount;       // столбцов в последней прочитанной записи
+        private boolean quoteOpen;    // запись оборвалась внутри кавычек
+        private final ByteIds categoryIds = new ByteIds();
+        private final ByteIds descriptionIds = new ByteIds();
+        private final ByteIds currencyIds = new ByteIds(); // как в файле -> id приведённого кода
+        private final int baseCurrencyId = rows.currencyId(Money.BASE_CURRENCY);
+        private int cachedDate = -1; // yyyymmdd последней разобранной даты
+        private int cachedEpochDay;
+
+        Chunk(FileChannel channel, long from, long to, boolean first, boolean withCurrency) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+            this.first = first;
+            this.withCurrency = withCurrency;
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = new Field();
+            }
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            if (to - from > Integer.MAX_VALUE) {
+                throw new IOException("Слишком длинная запись в CSV (незакрытая кавычка?)");
+            }
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+            int limit = buf.limit();
+            int pos = 0;
+            if (first && limit >= 3 && buf.get(0) == (byte) 0xEF && buf.get(1) == (byte) 0xBB
+                    && buf.get(2) == (byte) 0xBF) {
+                pos = 3;
+            }
+            boolean header = first;
+            while (pos < limit) {
+                int start = pos;
+                long line = lineCount;
+                pos = readRecord(buf, pos, limit);
+                if (header) {
+                    header = false;
+                    continue;
+                }
+                parseRecord(buf, start, pos, line);
+            }
+            return this;
+        }
+
+        /**
+         * Читает запись, начиная с pos, в fields; возвращает начало следующей записи.
+         */
+        private int readRecord(ByteBuffer buf, int pos, int limit) {
+            int field = 0;
+            for (Field f : fields) {
+                f.clear();
+            }
+            fieldCount = 1;
+            quoteOpen = false;
+            boolean inQuotes = false;
+            while (pos < limit) {
+                byte b = buf.get(pos++);
+                if (inQuotes) {
+                    if (b == '"') {
+                        if (pos < limit && buf.get(pos) == '"') {
+                            append(field, b);
+                            pos++;
+                        } else {
+                            inQuotes = false;
+                        }
+                    } else {
+                        if (b == '\n') {
+                            lineCount++;
+                        }
+                        append(field, b);
+                    }
+                } else if (b == '"') {
+                    inQuotes = true;
+                } else if (b == ',') {
+                    field++;
+                    fieldCount++;
+                } else if (b == '\n') {
+                    lineCount++;
+                    return pos;
+                } else {
+                    append(field, b);
+                }
+            }
+            quoteOpen = inQuotes;
+            return pos;
+        }
+
+        private void append(int field, byte b) {
+            if (field < fields.length) {
+                fields[field].append(b);
+            }
+        }
+
+        private void parseRecord(ByteBuffer buf, int start, int end, long line) {
+            for (Field f : fields) {
+                f.trim();
+            }
+            if (fieldCount == 1 && fields[0].length() == 0 && !quoteOpen) {
+                return; // пустая строка
+            }
+            if (quoteOpen) {
+                error(buf, start, end, line, Reason.UNCLOSED_QUOTE, null);
+                return;
+            }
+            if (fieldCount < FIELD_COUNT) {
+                error(buf, start, end, line, Reason.TOO_FEW_COLUMNS, null);
+                return;
+            }
+            int epochDay = parseDate(fields[0]);
+            if (epochDay == Integer.MIN_VALUE) {
+                error(buf, start, end, line, Reason.BAD_DATE, fields[0].toString());
+                return;
+            }
+            long amount;
+            try {
+                amount = Money.parse(fields[4]);
+            } catch (NumberFormatException | ArithmeticException e) {
+                error(buf, start, end, line, Reason.BAD_AMOUNT, fields[4].toString());
+                return;
+            }
+            if (amount <= 0) {
+                error(buf, start, end, line, Reason.NON_POSITIVE_AMOUNT, fields[4].toString());
+                return;
+            }
+            int currency = baseCurrencyId;
+            Field code = fields[CURRENCY_FIELD];
+            if (withCurrency && code.length() > 0) {
+                currency = currencyIds.find(code);
+                if (currency < 0) {
+                    try {
+                        currency = currencyIds.put(code, rows.currencyId(Money.normalizeCurrency(code.toString())));
+                    } catch (IllegalArgumentException e) {
+                        error(buf, start, end, line, Reason.BAD_CURRENCY, code.toString());
+                        return;
+                    }
+                }
+            }
+            TransactionType type = fields[1].equalsIgnoreCase(INCOME) ? TransactionType.INCOME : TransactionType.EXPENSE;
+            int category = categoryIds.id(fields[2], rows.categoryPool());
+            int description = descriptionIds.id(fields[3], rows.descriptionPool());
+            rows.addIds(type, amount, category, description, epochDay, currency);
+        }
+
+        /**
+         * Дата вида yyyy-MM-dd в днях от эпохи или Integer.MIN_VALUE, если дата некорректна.
+         */
+        private int parseDate(Field f) {
+            if (f.length() != 10 || f.byteAt(4) != '-' || f.byteAt(7) != '-') {
+                return Integer.MIN_VALUE;
+            }
+            int year = f.digits(0, 4);
+            int month = f.digits(5, 7);
+            int day = f.digits(8, 10);
+            if (year < 0 || month < 0 || day < 0) {
+                return Integer.MIN_VALUE;
+            }
+            int packed = year * 10_000 + month * 100 + day;
+            if (packed != cachedDate) {
+                try {
+                    cachedEpochDay = (int) LocalDate.of(year, month, day).toEpochDay();
+                } catch (DateTimeException e) {
+                    return Integer.MIN_VALUE;
+                }
+                cachedDate = packed;
+            }
+            return cachedEpochDay;
+        }
+
+        private void error(ByteBuffer buf, int start, int end, long line, Reason reason, String detail) {
+            errorCount++;
+            if (errors.size() >= MAX_REPORTED_ERRORS) {
+                return;
+            }
+            while (end > start && (buf.get(end - 1) == '\n' || buf.get(end - 1) == '\r')) {
+                end--;
+            }
+            byte[] bytes = new byte[Math.min(end - start, MAX_ERROR_TEXT)];
+            buf.get(start, bytes);
+            errors.add(new LineError(line, reason, new String(bytes, StandardCharsets.UTF_8), detail));
+        }
+    }
+
+    /**
+     * Значение поля: байты без кавычек, переиспользуется от записи к записи.
+     * Как CharSequence отдаёт байты как символы Latin-1 - этого достаточно для разбора сумм.
+     */
+    private static final class Field implements CharSequence {
+        private byte[] bytes = new byte[64];
+        private int start;
+        private int end;
+
+        void clear() {
+            start = 0;
+            end = 0;
+        }
+
+        void append(byte b) {
+            if (end == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[end++] = b;
+        }
+
+        /**
+         * Убирает пробелы и управляющие символы по краям (как String.trim).
+         */
+        void trim() {
+            while (start < end && (bytes[start] & 0xFF) <= ' ') {
+                start++;
+            }
+            while (end > start && (bytes[end - 1] & 0xFF) <= ' ') {
+                end--;
+            }
+        }
+
+        byte byteAt(int index) {
+            return bytes[start + index];
+        }
+
+        /**
+         * Число из цифр [from, to) или -1, если там не только цифры.
+         */
+        int digits(int from, int to) {
+            int value = 0;
+            for (int i = from; i < to; i++) {
+                int d = byteAt(i) - '0';
+                if (d < 0 || d > 9) {
+                    return -1;
+                }
+                value = value * 10 + d;
+            }
+            return value;
+        }
+
+        boolean equalsIgnoreCase(byte[] ascii) {
+            if (length() != ascii.length) {
+                return false;
+            }
+            for (int i = 0; i < ascii.length; i++) {
+                byte b = byteAt(i);
+                if (b >= 'a' && b <= 'z') {
+                    b -= 'a' - 'A';
+                }
+                if (b != ascii[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean contentEquals(byte[] other) {
+            return Arrays.equals(bytes, start, end, other, 0, other.length);
+        }
+
+        int hash() {
+            int h = 1;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + bytes[i];
+            }
+            return h;
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOfRange(bytes, start, end);
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (byteAt(index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().subSequence(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, start, length(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Байты значения -> id строки в словаре. Строка создаётся только при первой встрече значения.
+     */
+    private static final class ByteIds {
+        private byte[][] keys = new byte[64][];
+        private int[] ids = new int[64];
+        private int count;
+
+        int id(Field value, TransactionColumns.StringPool pool) {
+            int id = find(value);
+            return id >= 0 ? id : put(value, pool.intern(value.toString()));
+        }
+
+        /**
+         * id значения или -1, если оно ещё не встречалось.
+         */
+        int find(Field value) {
+            int mask = keys.length - 1;
+            int slot = value.hash() & mask;
+            while (keys[slot] != null) {
+                if (value.contentEquals(keys[slot])) {
+                    return ids[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Запоминает id значения, которого ещё нет (после {@link #find}, вернувшего -1).
+         */
+        int put(Field value, int id) {
+            int mask = keys.length - 1;
+            int slot = value.hash() & mask;
+            while (keys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = value.toBytes();
+            ids[slot] = id;
+            if (++count * 2 > keys.length) {
+                grow();
+            }
+            return id;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            ids = new int[keys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = Arrays.hashCode(oldKeys[i]) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    ids[slot] = oldIds[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Причина, по которой строка пропущена.
+     */
+    enum Reason {
+        TOO_FEW_COLUMNS("мало столбцов"),
+        UNCLOSED_QUOTE("незакрытая кавычка"),
+        BAD_DATE("некорректная дата"),
+        BAD_AMOUNT("некорректная сумма"),
+        NON_POSITIVE_AMOUNT("неположительная сумма"),
+        BAD_CURRENCY("некорректная валюта");
+
+        private final String message;
+
+        Reason(String message) {
+            this.message = message;
+        }
+
+        String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Пропущенная строка: номер строки файла (заголовок - строка 1), причина и текст строки.
+     */
+    static final class LineError {
+        private final long line;
+        private final Reason reason;
+        private final String text;
+        private final String detail;
+
+        LineError(long line, Reason reason, String text, String detail) {
+            this.line = line;
+            this.reason = reason;
+            this.text = text;
+            this.detail = detail;
+        }
+
+        long getLine() {
+            return line;
+        }
+
+        Reason getReason() {
+            return reason;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            return "строка " + line + ": " + reason.getMessage()
+                    + (detail == null ? "" : " (" + detail + ")") + " | " + text;
+        }
+    }
+
+    /**
+     * Итог импорта: сколько операций добавлено и какие строки пропущены
+     * (подробно - не больше MAX_REPORTED_ERRORS, остальные только считаются),
+     * а после добавления в кошелёк - уведомления по бюджетам.
+     */
+    static final class Report {
+        private final int imported;
+        private final int errorCount;
+        private final List<LineError> errors;
+        private final List<String> notifications;
+
+        Report(int imported, int errorCount, List<LineError> errors) {
+            this(imported, errorCount, errors, Collections.emptyList());
+        }
+
+        private Report(int imported, int errorCount, List<LineError> errors, List<String> notifications) {
+            this.imported = imported;
+            this.errorCount = errorCount;
+            this.errors = Collections.unmodifiableList(errors);
+            this.notifications = Collections.unmodifiableList(notifications);
+        }
+
+        Report withNotifications(List<String> notifications) {
+            return new Report(imported, errorCount, errors, notifications);
+        }
+
+        int getImported() {
+            return imported;
+        }
+
+        int getErrorCount() {
+            return errorCount;
+        }
+
+        List<LineError> getErrors() {
+            return errors;
+        }
+
+        List<String> getNotifications() {
+            return notifications;
+        }
+    }
+
+    static final class Result {
+        private final TransactionColumns transactions;
+        private final Report report;
+
+        Result(TransactionColumns transactions, Report report) {
+            this.transactions = transactions;
+            this.report = report;
+        }
+
+        TransactionColumns getTransactions() {
+            return transactions;
+        }
+
+        Report getReport() {
+            return report;
+        }
+    }
+}
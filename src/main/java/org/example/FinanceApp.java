@@ -1,406 +1,308 @@
 package org.example;
 
 import java.io.*;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.time.YearMonth;
-import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
 
 /**
- * Главный класс: CLI-интерфейс и цикл команд.
+ * Главный класс: консольный режим (один сеанс {@link CommandSession} поверх System.in),
+ * режим сервера ({@link CommandServer}, аргументы "serve [порт]") и пакетный режим
+ * ({@link BatchRunner}, аргументы "batch файл [--quiet]").
  */
 public class FinanceApp {
 
-    private static final Scanner scanner = new Scanner(System.in);
-
     public static void main(String[] args) {
         AppData data = DataStore.load();
-        AuthService authService = new AuthService(data);
-        WalletService walletService = new WalletService();
+        DataStore.loadFxRates(data);
+        try {
+            DataStore.openJournal(data);
+        } catch (IOException e) {
+            System.out.println("Журнал изменений недоступен (" + e.getMessage() + "), данные будут сохраняться только автосохранением и при выходе.");
+        }
+        DataStore.startAutosave(data);
+        if (args.length > 0 && "serve".equals(args[0])) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : CommandServer.DEFAULT_PORT;
+            try {
+                CommandServer.serveUntilStopped(data, port);
+            } catch (IOException e) {
+                System.out.println("Не удалось запустить сервер: " + e.getMessage());
+            }
+        } else if (args.length > 1 && "batch".equals(args[0])) {
+            runBatch(data, args[1], args.length > 2 && "--quiet".equals(args[2]));
+        } else {
+            System.out.println("Финансовый трекер. Введите 'help' для списка команд.");
+            new CommandSession(data,
+                    new BufferedReader(new InputStreamReader(System.in)),
+                    new PrintWriter(System.out)).run();
+        }
 
-        UserAccount currentUser = null;
-        System.out.println("Финансовый трекер. Введите 'help' для списка команд.");
+        DataStore.stopAutosave(data);
+        DataStore.save(data);
+        DataStore.closeJournal(data);
+        System.out.println("Данные сохранены. До свидания!");
+    }
 
-        mainLoop:
-        while (true) {
-            System.out.print((currentUser == null ? "[гость]" : "[" + currentUser.getUsername() + "]") + " > ");
-            String line = scanner.nextLine().trim();
-            if (line.isEmpty()) {
-                continue;
-            }
+    private static void runBatch(AppData data, String file, boolean quiet) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+        long start = System.nanoTime();
+        try (BufferedReader script = Files.newBufferedReader(Paths.get(file))) {
+            BatchRunner.Summary summary = new BatchRunner(data, out, quiet).run(script);
+            System.out.printf("Выполнено команд: %d, с ошибкой: %d, время: %d мс%n",
+                    summary.getExecuted(), summary.getFailed(), (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            out.flush();
+            System.out.println("Не удалось прочитать файл команд: " + e.getMessage());
+        }
+    }
+}
 
-            String[] parts = line.split("\\s+");
-            String cmd = parts[0].toLowerCase();
+// ================== МОДЕЛЬ ==================
 
-            try {
-                switch (cmd) {
-                    case "help":
-                        printHelp(currentUser != null);
-                        break;
-                    case "exit":
-                        break mainLoop;
-                    case "register":
-                        if (currentUser != null) {
-                            System.out.println("Сначала выйдите из аккаунта командой 'logout'.");
-                        } else {
-                            currentUser = handleRegister(authService);
-                        }
-                        break;
-                    case "login":
-                        if (currentUser != null) {
-                            System.out.println("Вы уже авторизованы. Используйте 'logout' для выхода.");
-                        } else {
-                            currentUser = handleLogin(authService);
-                        }
-                        break;
-                    case "logout":
-                        currentUser = null;
-                        System.out.println("Вы вышли из аккаунта.");
-                        break;
-
-                    // Команды, доступные только после авторизации
-                    case "add_income":
-                        requireUser(currentUser);
-                        handleAddIncome(walletService, currentUser);
-                        break;
-                    case "add_expense":
-                        requireUser(currentUser);
-                        handleAddExpense(walletService, currentUser);
-                        break;
-                    case "set_budget":
-                        requireUser(currentUser);
-                        handleSetBudget(walletService, currentUser);
-                        break;
-                    case "edit_budget":
-                        requireUser(currentUser);
-                        handleEditBudget(walletService, currentUser);
-                        break;
-                    case "budgets":
-                        requireUser(currentUser);
-                        handleListBudgets(currentUser);
-                        break;
-                    case "rename_category":
-                        requireUser(currentUser);
-                        handleRenameCategory(walletService, currentUser);
-                        break;
-                    case "summary":
-                        requireUser(currentUser);
-                        handleSummary(walletService, currentUser);
-                        break;
-                    case "report":
-                        requireUser(currentUser);
-                        handleReport(walletService, currentUser);
-                        break;
-                    case "list_tx":
-                        requireUser(currentUser);
-                        handleListTransactions(currentUser);
-                        break;
-                    case "export_csv":
-                        requireUser(currentUser);
-                        handleExportCsv(walletService, currentUser);
-                        break;
-                    case "import_csv":
-                        requireUser(currentUser);
-                        handleImportCsv(walletService, currentUser);
-                        break;
-                    default:
-                        System.out.println("Неизвестная команда '" + cmd + "'. Введите 'help' для списка команд.");
-                }
-            } catch (IllegalStateException e) {
-                System.out.println("Ошибка: " + e.getMessage());
-            } catch (IllegalArgumentException e) {
-                System.out.println("Неверные данные: " + e.getMessage());
-            } catch (Exception e) {
-                System.out.println("Непредвиденная ошибка: " + e.getMessage());
+/**
+ * Объект верхнего уровня для сериализации.
+ * Реестр пользователей потокобезопасен: одни данные могут обслуживать несколько сессий.
+ */
+class AppData implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Map<String, UserAccount> users = new ConcurrentHashMap<>();
+    private long journalSeq; // номер последней записи журнала, вошедшей в снимок
+
+    private transient volatile Journal journal;
+    private transient volatile FxRates fxRates; // таблица курсов; в снимок не входит
+    private transient SessionCache sessions = new SessionCache();
+    private transient LoginThrottle loginThrottle = new LoginThrottle();
+    // Шарды файла данных (см. DataStore), изменённые после последнего сохранения.
+    // Данные, собранные не из шардов (новые, из одного файла), считаются изменёнными целиком.
+    private transient Set<Integer> dirtyShards = ConcurrentHashMap.newKeySet();
+    private transient volatile boolean allShardsDirty = true;
+
+    // Изменения данных идут под общей блокировкой, запись снимка - под исключительной:
+    // иначе изменение, попавшее между записью снимка и очисткой журнала, потерялось бы.
+    private transient ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private transient ReentrantLock saveLock = new ReentrantLock();
+    private transient Set<String> registering = ConcurrentHashMap.newKeySet(); // ключи регистраций в процессе
+    private transient volatile AutoSaver autoSaver;
+    // Загруженные кошельки; переполнение вытесняется при сохранении (см. DataStore#save)
+    private transient WalletCache walletCache = new WalletCache(this::requestSave);
+
+    public Map<String, UserAccount> getUsers() {
+        return users;
+    }
+
+    /**
+     * Добавляет нового пользователя, если ключ свободен, предварительно записав его в журнал.
+     * Ключ сперва занимается в registering - из двух одновременных регистраций с одним ключом
+     * пройдёт одна, а с разными ключами не ждут друг друга. Запись в журнал (с fsync) идёт
+     * без блокировок, а пользователь появляется в реестре только после неё - ни одно его
+     * изменение не попадёт в журнал раньше регистрации.
+     *
+     * @return false, если пользователь с таким ключом уже есть или регистрируется
+     */
+    public boolean addUser(String key, UserAccount user) {
+        if (users.containsKey(key) || !registering.add(key)) {
+            return false;
+        }
+        try {
+            // Регистрация, освободившая ключ между проверкой и резервом, уже опубликовала пользователя
+            if (users.containsKey(key)) {
+                return false;
+            }
+            Journal j = journal;
+            if (j != null) {
+                j.logRegister(key, user.getUsername(), user.getPassword());
+                user.attachJournal(j, key);
             }
+            user.setWalletCache(walletCache);
+            users.put(key, user);
+            return true;
+        } finally {
+            registering.remove(key);
         }
+    }
 
-        DataStore.save(data);
-        System.out.println("Данные сохранены. До свидания!");
+    public long getJournalSeq() {
+        return journalSeq;
     }
 
-    // ---------- CLI-помощники ----------
-
-    private static void printHelp(boolean loggedIn) {
-        System.out.println("=== Справка по командам ===");
-        System.out.println("Базовые команды:");
-        System.out.println("  help              - показать эту справку");
-        System.out.println("  register          - регистрация нового пользователя");
-        System.out.println("  login             - вход пользователя");
-        System.out.println("  logout            - выход из аккаунта");
-        System.out.println("  exit              - выход из программы и сохранение данных");
-
-        if (loggedIn) {
-            System.out.println();
-            System.out.println("Работа с деньгами:");
-            System.out.println("  add_income        - добавить доход (интерактивный ввод)");
-            System.out.println("  add_expense       - добавить расход (интерактивный ввод)");
-            System.out.println("  list_tx           - список операций (таблица)");
-
-            System.out.println();
-            System.out.println("Бюджеты и категории:");
-            System.out.println("  set_budget        - установить/изменить бюджет по категории");
-            System.out.println("  edit_budget       - изменить существующий бюджет");
-            System.out.println("  budgets           - показать таблицу всех бюджетов");
-            System.out.println("  rename_category   - переименовать категорию (во всех операциях и бюджетах)");
-
-            System.out.println();
-            System.out.println("Отчёты и статистика:");
-            System.out.println("  summary           - сводка по всем категориям и бюджетам (текущий месяц)");
-            System.out.println("  report            - отчёт по выборке (период + несколько категорий)");
-
-            System.out.println();
-            System.out.println("Экспорт / импорт:");
-            System.out.println("  export_csv        - экспорт операций в CSV");
-            System.out.println("  import_csv        - импорт операций из CSV");
-
-            System.out.println();
-            System.out.println("Примеры использования:");
-            System.out.println("  add_income        → введите сумму, категорию ('ЗП') и описание");
-            System.out.println("  set_budget        → 'Еда', затем месячный лимит (например, 20000)");
-            System.out.println("  report            → задайте диапазон дат и список категорий ('Еда, Транспорт')");
-            System.out.println("  export_csv        → укажите имя файла, например 'report.csv'");
-        }
-        System.out.println("============================");
-    }
-
-    private static UserAccount handleRegister(AuthService authService) {
-        System.out.print("Введите логин: ");
-        String username = scanner.nextLine().trim();
-        System.out.print("Введите пароль (минимум 4 символа): ");
-        String password = scanner.nextLine();
-        UserAccount user = authService.register(username, password);
-        System.out.println("Пользователь '" + user.getUsername() + "' успешно зарегистрирован и авторизован.");
-        return user;
+    public void setJournalSeq(long journalSeq) {
+        this.journalSeq = journalSeq;
     }
 
-    private static UserAccount handleLogin(AuthService authService) {
-        System.out.print("Логин: ");
-        String username = scanner.nextLine().trim();
-        System.out.print("Пароль: ");
-        String password = scanner.nextLine();
-        UserAccount user = authService.login(username, password);
-        System.out.println("Добро пожаловать, " + user.getUsername() + "!");
-        return user;
+    public Journal getJournal() {
+        return journal;
     }
 
-    private static void handleAddIncome(WalletService walletService, UserAccount user) {
-        double amount = readPositiveDouble("Введите сумму дохода: ");
-        String category = readNonEmptyString("Введите категорию дохода (например, ЗП, Премия): ");
-        String description = readNonEmptyString("Описание (например, зарплата за октябрь): ");
-        walletService.addIncome(user, amount, category, description);
-        System.out.println("Доход добавлен. Текущий баланс: " + String.format("%.2f", user.getWallet().getBalance()));
+    /**
+     * Таблица курсов валют; если не загружена - пустая.
+     */
+    FxRates getFxRates() {
+        FxRates rates = fxRates;
+        return rates == null ? FxRates.empty() : rates;
     }
 
-    private static void handleAddExpense(WalletService walletService, UserAccount user) {
-        double amount = readPositiveDouble("Введите сумму расхода: ");
-        String category = readNonEmptyString("Введите категорию расхода (например, Еда, Аренда): ");
-        String description = readNonEmptyString("Описание (например, продукты): ");
+    void setFxRates(FxRates fxRates) {
+        this.fxRates = fxRates;
+    }
 
-        List<String> notifications = walletService.addExpense(user, amount, category, description);
-        System.out.println("Расход добавлен. Текущий баланс: " + String.format("%.2f", user.getWallet().getBalance()));
-        for (String note : notifications) {
-            System.out.println(note);
-        }
+    /**
+     * Проверенные входы пользователей, общие для всех сеансов (см. {@link AuthService#login}).
+     */
+    SessionCache getSessions() {
+        return sessions;
     }
 
-    private static void handleSetBudget(WalletService walletService, UserAccount user) {
-        String category = readNonEmptyString("Категория (например, Еда, Аренда): ");
-        double limit = readPositiveDouble("Месячный лимит по этой категории: ");
-        walletService.setBudget(user, category, limit);
-        System.out.println("Бюджет по категории '" + category + "' установлен/обновлён: " + String.format("%.2f", limit));
+    /**
+     * Счётчики неудачных входов, общие для всех сеансов.
+     */
+    LoginThrottle getLoginThrottle() {
+        return loginThrottle;
     }
 
-    private static void handleEditBudget(WalletService walletService, UserAccount user) {
-        String category = readNonEmptyString("Категория бюджета, который хотите изменить: ");
-        Wallet wallet = user.getWallet();
-        CategoryBudget existing = wallet.getBudget(category);
-        if (existing == null) {
-            System.out.println("Бюджет по этой категории не найден. Используйте 'set_budget' для создания.");
-            return;
-        }
-        System.out.println("Текущий лимит: " + String.format("%.2f", existing.getLimit()));
-        double newLimit = readPositiveDouble("Новый месячный лимит: ");
-        walletService.setBudget(user, category, newLimit);
-        System.out.println("Бюджет обновлён.");
+    void setLoginThrottle(LoginThrottle loginThrottle) {
+        this.loginThrottle = loginThrottle;
     }
 
-    private static void handleListBudgets(UserAccount user) {
-        Wallet wallet = user.getWallet();
-        Map<String, CategoryBudget> budgets = wallet.getBudgets();
-        if (budgets.isEmpty()) {
-            System.out.println("Бюджеты пока не заданы.");
-            return;
-        }
-        System.out.println("=== Бюджеты по категориям ===");
-        System.out.printf("%-20s | %-12s%n", "Категория", "Лимит");
-        System.out.println("---------------------+--------------");
-        for (CategoryBudget b : budgets.values()) {
-            System.out.printf("%-20s | %-12.2f%n", b.getName(), b.getLimit());
-        }
+    /**
+     * Отмечает шард пользователя key изменённым: он будет записан при следующем сохранении.
+     */
+    void markDirty(String key) {
+        dirtyShards.add(DataStore.shardOf(key));
     }
 
-    private static void handleRenameCategory(WalletService walletService, UserAccount user) {
-        String oldCat = readNonEmptyString("Старая категория: ");
-        String newCat = readNonEmptyString("Новая категория: ");
-        walletService.renameCategory(user, oldCat, newCat);
-        System.out.println("Категория '" + oldCat + "' переименована в '" + newCat + "'.");
+    void markShardDirty(int shard) {
+        dirtyShards.add(shard);
     }
 
-    private static void handleSummary(WalletService walletService, UserAccount user) {
-        List<String> summaryLines = walletService.buildSummary(user);
-        System.out.println("===== Сводка =====");
-        for (String line : summaryLines) {
-            System.out.println(line);
-        }
-        System.out.println("==================");
+    void markAllShardsDirty() {
+        allShardsDirty = true;
     }
 
-    private static void handleReport(WalletService walletService, UserAccount user) {
-        System.out.println("Отчёт по выборке.");
-        LocalDate from = readDateOrEmpty("Дата начала (ГГГГ-ММ-ДД, пусто - без ограничения): ");
-        LocalDate to = readDateOrEmpty("Дата конца   (ГГГГ-ММ-ДД, пусто - без ограничения): ");
-        if (from != null && to != null && to.isBefore(from)) {
-            System.out.println("Неверный диапазон: дата конца раньше даты начала.");
-            return;
-        }
-        System.out.print("Категории через запятую (пусто - все): ");
-        String catsLine = scanner.nextLine().trim();
-        Set<String> cats = null;
-        if (!catsLine.isEmpty()) {
-            cats = new HashSet<>();
-            for (String c : catsLine.split(",")) {
-                String trimmed = c.trim();
-                if (!trimmed.isEmpty()) {
-                    cats.add(trimmed.toLowerCase());
-                }
-            }
-        }
+    boolean hasDirtyShards() {
+        return allShardsDirty || !dirtyShards.isEmpty();
+    }
 
-        List<String> lines = walletService.buildFilteredReport(user, from, to, cats);
-        System.out.println("===== Отчёт по выборке =====");
-        for (String l : lines) {
-            System.out.println(l);
-        }
-        System.out.println("============================");
+    /**
+     * Данные совпадают с шардами на диске.
+     */
+    void markClean() {
+        allShardsDirty = false;
+        dirtyShards.clear();
     }
 
-    private static void handleListTransactions(UserAccount user) {
-        Wallet wallet = user.getWallet();
-        List<Transaction> txs = wallet.getTransactions();
-        if (txs.isEmpty()) {
-            System.out.println("Операций пока нет.");
-            return;
-        }
-        System.out.println("=== Последние операции ===");
-        System.out.printf("%-10s | %-7s | %-15s | %-10s | %s%n",
-                "Дата", "Тип", "Категория", "Сумма", "Описание");
-        System.out.println("-----------+---------+-----------------+------------+------------------------");
-
-        txs.stream()
-                .sorted(Comparator.comparing(Transaction::getDate).reversed())
-                .limit(50)
-                .forEach(tx -> {
-                    String typeLabel = tx.getType() == TransactionType.INCOME ? "Доход" : "Расход";
-                    System.out.printf("%-10s | %-7s | %-15s | %-10.2f | %s%n",
-                            tx.getDate(),
-                            typeLabel,
-                            tx.getCategory(),
-                            tx.getAmount(),
-                            tx.getDescription());
-                });
-    }
-
-    private static void handleExportCsv(WalletService walletService, UserAccount user) {
-        String filename = readNonEmptyString("Имя файла для экспорта (например, report.csv): ");
-        try {
-            walletService.exportTransactionsToCsv(user, filename);
-            System.out.println("Операции экспортированы в файл: " + filename);
-        } catch (IOException e) {
-            System.out.println("Ошибка при экспорте: " + e.getMessage());
+    /**
+     * Забирает номера изменённых шардов (вызывается под {@link #snapshotLock()}).
+     *
+     * @return null, если записать нужно все шарды
+     */
+    Set<Integer> takeDirtyShards() {
+        if (allShardsDirty) {
+            markClean();
+            return null;
         }
+        Set<Integer> taken = new TreeSet<>(dirtyShards);
+        dirtyShards.removeAll(taken);
+        return taken;
     }
 
-    private static void handleImportCsv(WalletService walletService, UserAccount user) {
-        String filename = readNonEmptyString("Имя файла для импорта (CSV): ");
-        try {
-            int imported = walletService.importTransactionsFromCsv(user, filename);
-            System.out.println("Импорт завершён. Добавлено операций: " + imported);
-            System.out.println("Текущий баланс: " + String.format("%.2f", user.getWallet().getBalance()));
-        } catch (FileNotFoundException e) {
-            System.out.println("Файл не найден: " + filename);
-        } catch (IOException e) {
-            System.out.println("Ошибка при чтении файла: " + e.getMessage());
-        }
+    /**
+     * Блокировка, которую берут на время изменения данных из нескольких сеансов.
+     */
+    Lock changeLock() {
+        return snapshotLock.readLock();
     }
 
-    private static void requireUser(UserAccount user) {
-        if (user == null) {
-            throw new IllegalStateException("Сначала авторизуйтесь (команды 'register' или 'login').");
-        }
+    /**
+     * Блокировка на время записи снимка: ждёт завершения начатых изменений.
+     */
+    Lock snapshotLock() {
+        return snapshotLock.writeLock();
     }
 
-    private static double readPositiveDouble(String prompt) {
-        while (true) {
-            System.out.print(prompt);
-            String s = scanner.nextLine().trim().replace(",", ".");
-            if (s.isEmpty()) {
-                System.out.println("Значение не может быть пустым.");
-                continue;
-            }
-            try {
-                double v = Double.parseDouble(s);
-                if (v <= 0) {
-                    System.out.println("Сумма должна быть положительной.");
-                    continue;
-                }
-                return v;
-            } catch (NumberFormatException e) {
-                System.out.println("Введите корректное число, например 123.45");
-            }
-        }
+    /**
+     * Блокировка на всё сохранение, включая запись на диск: сохранения идут по одному.
+     */
+    Lock saveLock() {
+        return saveLock;
     }
 
-    private static String readNonEmptyString(String prompt) {
-        while (true) {
-            System.out.print(prompt);
-            String s = scanner.nextLine().trim();
-            if (s.isEmpty()) {
-                System.out.println("Значение не может быть пустым.");
-            } else {
-                return s;
-            }
-        }
+    /**
+     * Фоновое сохранение (см. {@link DataStore#startAutosave}); null - сохранение в потоке вызова.
+     */
+    AutoSaver getAutoSaver() {
+        return autoSaver;
     }
 
-    private static LocalDate readDateOrEmpty(String prompt) {
-        while (true) {
-            System.out.print(prompt);
-            String s = scanner.nextLine().trim();
-            if (s.isEmpty()) {
-                return null;
-            }
-            try {
-                return LocalDate.parse(s);
-            } catch (DateTimeParseException e) {
-                System.out.println("Неверный формат даты. Используйте ГГГГ-ММ-ДД, например 2025-01-15.");
-            }
+    void setAutoSaver(AutoSaver autoSaver) {
+        this.autoSaver = autoSaver;
+    }
+
+    // Без фонового сохранения кэш кошельков ужимается при очередном сохранении
+    private void requestSave() {
+        AutoSaver saver = autoSaver;
+        if (saver != null) {
+            saver.requestSave();
         }
     }
-}
 
-// ================== МОДЕЛЬ ==================
+    WalletCache getWalletCache() {
+        return walletCache;
+    }
 
-/**
- * Объект верхнего уровня для сериализации.
- */
-class AppData implements Serializable {
-    private static final long serialVersionUID = 1L;
+    /**
+     * Подключает кэш кошельков ко всем пользователям и учитывает уже загруженные
+     * кошельки (например, изменённые журналом при загрузке).
+     */
+    void attachWalletCache(WalletCache walletCache) {
+        this.walletCache = walletCache;
+        for (UserAccount user : users.values()) {
+            user.setWalletCache(walletCache);
+            Wallet wallet = user.getLoadedWallet();
+            if (wallet != null) {
+                walletCache.register(user, wallet);
+            }
+        }
+    }
 
-    private Map<String, UserAccount> users = new HashMap<>();
+    /**
+     * Подключает журнал ко всем кошелькам. null - отключить журналирование.
+     */
+    public void attachJournal(Journal journal) {
+        this.journal = journal;
+        for (Map.Entry<String, UserAccount> e : users.entrySet()) {
+            e.getValue().attachJournal(journal, e.getKey());
+        }
+    }
 
-    public Map<String, UserAccount> getUsers() {
-        return users;
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        snapshotLock = new ReentrantReadWriteLock();
+        saveLock = new ReentrantLock();
+        registering = ConcurrentHashMap.newKeySet();
+        walletCache = new WalletCache(this::requestSave);
+        sessions = new SessionCache();
+        loginThrottle = new LoginThrottle();
+        dirtyShards = ConcurrentHashMap.newKeySet();
+        allShardsDirty = true;
+        // В старых файлах реестр записан как HashMap
+        users = users == null ? new ConcurrentHashMap<>() : new ConcurrentHashMap<>(users);
     }
 }
 
@@ -411,619 +313,2455 @@ class UserAccount implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private final String username;
-    private final String password; // для простоты в открытом виде
-    private final Wallet wallet;
+    // Хэш пароля (см. PasswordHash); в файлах старых версий - пароль в открытом виде
+    private volatile String password;
+    private volatile Wallet wallet;
+
+    // Секция кошелька в файле данных: кошелёк читается из неё при первом обращении,
+    // а пока не изменён после чтения (savedModCount), может быть выгружен обратно (см. WalletCache)
+    private transient SnapshotFormat.WalletSection walletSection;
+    private transient long savedModCount;
+    private transient Journal journal;
+    private transient String journalKey;
+    private transient volatile WalletCache walletCache;
 
+    /**
+     * @param password хранимая строка пароля - хэш {@link PasswordHash#hash} (или пароль
+     *                 в открытом виде из старых данных)
+     */
     public UserAccount(String username, String password) {
         this.username = username;
         this.password = password;
         this.wallet = new Wallet();
     }
 
+    UserAccount(String username, String password, SnapshotFormat.WalletSection walletSection) {
+        this.username = username;
+        this.password = password;
+        this.walletSection = walletSection;
+    }
+
     public String getUsername() {
         return username;
     }
 
     public Wallet getWallet() {
+        Wallet loaded = wallet;
+        boolean miss = loaded == null;
+        if (miss) {
+            loaded = loadWallet();
+        }
+        // Вне монитора пользователя: при промахе кэш оценивает вес кошелька под его блокировкой чтения
+        WalletCache cache = walletCache;
+        if (cache != null) {
+            cache.access(this, loaded, miss);
+        }
+        return loaded;
+    }
+
+    // Кошелёк разбирается один раз, даже если к нему одновременно обратились несколько сессий
+    private synchronized Wallet loadWallet() {
+        if (wallet == null) {
+            Wallet loaded;
+            try {
+                loaded = SnapshotFormat.readWallet(walletSection);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось прочитать кошелёк пользователя " + username, e);
+            }
+            if (journal != null) {
+                loaded.attachJournal(journal, journalKey);
+            }
+            savedModCount = loaded.modCount();
+            wallet = loaded;
+        }
         return wallet;
     }
 
-    public boolean checkPassword(String raw) {
-        return password.equals(raw);
+    boolean isWalletLoaded() {
+        return wallet != null;
     }
-}
 
-/**
- * Кошелёк пользователя: баланс, операции, бюджеты.
- */
-class Wallet implements Serializable {
-    private static final long serialVersionUID = 1L;
+    /**
+     * Кошелёк, если он загружен, без учёта обращения в кэше; иначе null.
+     */
+    Wallet getLoadedWallet() {
+        return wallet;
+    }
 
-    private double balance = 0.0;
-    private final List<Transaction> transactions = new ArrayList<>();
-    private final Map<String, CategoryBudget> budgets = new HashMap<>(); // ключ - категория в нижнем регистре
+    // Кошелёк совпадает со своей секцией в файле данных
+    private boolean isClean() {
+        return walletSection != null && (wallet == null || wallet.modCount() == savedModCount);
+    }
 
-    public double getBalance() {
-        return balance;
+    /**
+     * Байты секции кошелька, если кошелёк не менялся после чтения из неё и секция
+     * записана в текущей версии формата, иначе null.
+     */
+    synchronized ByteBuffer getUnloadedWalletSection() {
+        return isClean() && walletSection.isCurrentVersion() ? walletSection.bytes : null;
     }
 
-    public List<Transaction> getTransactions() {
-        return transactions;
+    /**
+     * Выгружает кошелёк, если он совпадает со своей секцией: при следующем обращении
+     * он будет прочитан из неё заново. Вызывается под {@link AppData#snapshotLock()},
+     * чтобы ни одно изменение не успело взять ссылку на выгружаемый кошелёк.
+     *
+     * @return true, если кошелёк был загружен и выгружен
+     */
+    synchronized boolean unloadIfClean() {
+        if (wallet == null || !isClean()) {
+            return false;
+        }
+        wallet = null;
+        return true;
     }
 
-    public Map<String, CategoryBudget> getBudgets() {
-        return budgets;
+    /**
+     * Состояние кошелька на момент кодирования снимка - для {@link #rebindWalletSection}.
+     */
+    synchronized WalletMark markWallet() {
+        return new WalletMark(wallet, wallet == null ? savedModCount : wallet.modCount());
     }
 
-    public void addTransaction(Transaction tx) {
-        transactions.add(tx);
-        if (tx.getType() == TransactionType.INCOME) {
-            balance += tx.getAmount();
-        } else if (tx.getType() == TransactionType.EXPENSE) {
-            balance -= tx.getAmount();
+    /**
+     * Переводит кошелёк на его секцию в только что записанном файле данных, если кошелёк
+     * не менялся с момента mark. Тогда его снова можно выгрузить, а старый файл больше
+     * не нужен для чтения.
+     */
+    synchronized void rebindWalletSection(SnapshotFormat.WalletSection section, WalletMark mark) {
+        if (wallet == mark.wallet && (wallet == null || wallet.modCount() == mark.modCount)) {
+            walletSection = section;
+            savedModCount = mark.modCount;
         }
     }
 
-    public void setBudget(String category, double limit) {
-        String key = normalizeCategory(category);
-        budgets.put(key, new CategoryBudget(category, limit));
+    void setWalletCache(WalletCache walletCache) {
+        this.walletCache = walletCache;
     }
 
-    public CategoryBudget getBudget(String category) {
-        return budgets.get(normalizeCategory(category));
+    synchronized void attachJournal(Journal journal, String key) {
+        this.journal = journal;
+        this.journalKey = key;
+        if (wallet != null) {
+            wallet.attachJournal(journal, key);
+        }
     }
 
-    public double getTotalByType(TransactionType type) {
-        return transactions.stream()
-                .filter(t -> t.getType() == type)
-                .mapToDouble(Transaction::getAmount)
-                .sum();
+    String getPassword() {
+        return password;
     }
 
-    public double getSpentForCategoryInMonth(String category, YearMonth ym) {
-        String key = normalizeCategory(category);
-        return transactions.stream()
-                .filter(t -> t.getType() == TransactionType.EXPENSE)
-                .filter(t -> normalizeCategory(t.getCategory()).equals(key))
-                .filter(t -> YearMonth.from(t.getDate()).equals(ym))
-                .mapToDouble(Transaction::getAmount)
-                .sum();
+    public boolean checkPassword(String raw) {
+        return PasswordHash.verify(raw, password);
     }
 
-    public Map<String, Double> getExpensesByCategoryForMonth(YearMonth ym) {
-        Map<String, Double> result = new HashMap<>();
-        for (Transaction t : transactions) {
-            if (t.getType() == TransactionType.EXPENSE &&
-                    YearMonth.from(t.getDate()).equals(ym)) {
-                String key = normalizeCategory(t.getCategory());
-                result.put(key, result.getOrDefault(key, 0.0) + t.getAmount());
+    /**
+     * Заменяет хранимую строку пароля, если она всё ещё expected (иначе её уже сменил
+     * другой сеанс), и записывает замену в журнал.
+     *
+     * @return хранимая строка после вызова
+     */
+    synchronized String replacePassword(String expected, String replacement) {
+        if (password.equals(expected)) {
+            if (journal != null) {
+                journal.logPassword(journalKey, replacement);
             }
+            password = replacement;
         }
-        return result;
+        return password;
     }
 
-    public static String normalizeCategory(String category) {
-        return category.trim().toLowerCase();
+    /**
+     * Хранимая строка пароля из журнала (при восстановлении).
+     */
+    void setPassword(String stored) {
+        this.password = stored;
     }
-}
 
-/**
- * Тип операции.
- */
-enum TransactionType {
-    INCOME,
-    EXPENSE
+    static final class WalletMark {
+        final Wallet wallet; // null - кошелёк не был загружен
+        final long modCount;
+
+        WalletMark(Wallet wallet, long modCount) {
+            this.wallet = wallet;
+            this.modCount = modCount;
+        }
+    }
 }
 
 /**
- * Операция (доход/расход).
+ * Кошелёк пользователя: баланс, операции, бюджеты.
+ *
+ * Кошелёк может использоваться из нескольких сессий сразу. Чтения идут параллельно
+ * под общей блокировкой, изменения - под исключительной, поэтому читатель видит
+ * переименование категории или пачку импорта либо целиком, либо не видит совсем.
  */
-class Transaction implements Serializable {
+class Wallet implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private final TransactionType type;
-    private final double amount;
-    private String category;
-    private final String description;
-    private final LocalDate date;
+    // Сериализованная форма осталась прежней (баланс, список операций, бюджеты),
+    // чтобы старые файлы данных можно было прочитать и перевести в новый формат.
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("balance", double.class),
+            new ObjectStreamField("transactions", List.class),
+            new ObjectStreamField("budgets", Map.class)
+    };
+
+    private static final int WALLET_BYTES = 512;
+    private static final int BUDGET_BYTES = 160;
+    private static final int MONTH_BYTES = 96;
+
+    private TransactionColumns transactions = new TransactionColumns();
+    private Map<String, CategoryBudget> budgets = new HashMap<>(); // ключ - категория в нижнем регистре
+
+    // Словарь нормализованных категорий: имя -> постоянный id. Помесячные итоги - по типу и этому id,
+    // отдельно для каждой валюты (индекс - id валюты в словаре операций); из них же - балансы и общие суммы.
+    private TransactionColumns.StringPool categoryKeys = new TransactionColumns.StringPool();
+    private MonthlyRollup[] rollups = new MonthlyRollup[0];
+    // Для каждой категории из словаря операций - id её нормализованного имени в categoryKeys.
+    // Дополняется под блокировкой записи: каждая новая категория нормализуется один раз.
+    private int[] keyOfCategory = new int[0];
+
+    // Журнал изменений и ключ владельца кошелька в нём (если журналирование включено)
+    private transient Journal journal;
+    private transient String journalKey;
+
+    private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Число изменений: по нему UserAccount понимает, совпадает ли кошелёк с секцией в файле данных
+    private transient volatile long modCount;
 
-    public Transaction(TransactionType type, double amount, String category, String description, LocalDate date) {
-        this.type = type;
-        this.amount = amount;
-        this.category = category;
-        this.description = description;
-        this.date = date;
+    /**
+     * Баланс в копейках базовой валюты (без операций в других валютах, см. {@link #getBalances()}).
+     */
+    public long getBalance() {
+        return getBalance(Money.BASE_CURRENCY);
     }
 
-    public TransactionType getType() {
-        return type;
+    public long getBalance(String currency) {
+        lock.readLock().lock();
+        try {
+            MonthlyRollup rollup = rollup(currency);
+            return rollup == null ? 0 : rollup.all().get(TransactionType.INCOME) - rollup.all().get(TransactionType.EXPENSE);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    public double getAmount() {
-        return amount;
+    /**
+     * Баланс по каждой валюте операций: сначала базовая (есть всегда), затем остальные по алфавиту.
+     */
+    public Map<String, Long> getBalances() {
+        lock.readLock().lock();
+        try {
+            Map<String, Long> balances = new LinkedHashMap<>();
+            for (String currency : getCurrencies()) {
+                balances.put(currency, getBalance(currency));
+            }
+            return balances;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    public String getCategory() {
-        return category;
+    /**
+     * Валюты операций: базовая (есть всегда), затем остальные по алфавиту.
+     */
+    public List<String> getCurrencies() {
+        lock.readLock().lock();
+        try {
+            TransactionColumns.StringPool pool = transactions.currencyPool();
+            List<String> currencies = new ArrayList<>(pool.size() + 1);
+            for (int id = 0; id < pool.size(); id++) {
+                if (!pool.get(id).equals(Money.BASE_CURRENCY)) {
+                    currencies.add(pool.get(id));
+                }
+            }
+            Collections.sort(currencies);
+            currencies.add(0, Money.BASE_CURRENCY);
+            return currencies;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    public void setCategory(String newCategory) {
-        this.category = newCategory;
+    /**
+     * Есть ли операции не в базовой валюте. Вызывающий держит {@link #readLock()}.
+     */
+    boolean hasForeignCurrencies() {
+        TransactionColumns.StringPool pool = transactions.currencyPool();
+        return pool.size() > 1 || (pool.size() == 1 && !pool.get(0).equals(Money.BASE_CURRENCY));
     }
 
-    public String getDescription() {
-        return description;
+    // Итоги валюты или null, если операций в ней не было
+    private MonthlyRollup rollup(String currency) {
+        int id = transactions.currencyPool().find(currency);
+        return id < 0 || id >= rollups.length ? null : rollups[id];
     }
 
-    public LocalDate getDate() {
-        return date;
+    /**
+     * Копия операций кошелька на момент вызова, в порядке добавления.
+     */
+    public List<Transaction> getTransactions() {
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(transactions.asList()));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
-}
 
-/**
- * Бюджет по категории.
- */
-class CategoryBudget implements Serializable {
-    private static final long serialVersionUID = 1L;
+    public int getTransactionCount() {
+        lock.readLock().lock();
+        try {
+            return transactions.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-    private final String name; // отображаемое имя категории
-    private final double limit; // месячный лимит
+    /**
+     * Столбцы операций без копирования. Вызывающий держит {@link #readLock()}.
+     */
+    TransactionColumns getColumns() {
+        return transactions;
+    }
 
-    public CategoryBudget(String name, double limit) {
-        this.name = name;
-        this.limit = limit;
+    /**
+     * Общая блокировка для чтения нескольких значений кошелька как одного снимка
+     * (отчёт, экспорт, запись снимка на диск). Методы кошелька берут её повторно.
+     */
+    Lock readLock() {
+        return lock.readLock();
     }
 
-    public String getName() {
-        return name;
+    /**
+     * Блокировка записи для изменения и проверки результата одним шагом
+     * (добавление расхода и проверка порогов бюджета). Методы кошелька берут её повторно.
+     */
+    Lock writeLock() {
+        return lock.writeLock();
     }
 
-    public double getLimit() {
-        return limit;
+    /**
+     * Копия бюджетов (ключ - категория в нижнем регистре).
+     */
+    public Map<String, CategoryBudget> getBudgets() {
+        lock.readLock().lock();
+        try {
+            return Collections.unmodifiableMap(new HashMap<>(budgets));
+        } finally {
+            lock.readLock().unlock();
+        }
     }
-}
 
-// ================== СЕРВИСЫ ==================
+    long modCount() {
+        return modCount;
+    }
 
-/**
- * Сервис авторизации и регистрации.
- */
-class AuthService {
-
-    private final AppData data;
-
-    public AuthService(AppData data) {
-        this.data = data;
+    /**
+     * Грубая оценка занимаемой кошельком памяти - для ограничения {@link WalletCache}.
+     */
+    long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = WALLET_BYTES + transactions.estimatedBytes() + (long) budgets.size() * BUDGET_BYTES;
+            for (MonthlyRollup rollup : rollups) {
+                bytes += (rollup.monthCount() + 1L) * (MONTH_BYTES + 24L * categoryKeys.size());
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    public UserAccount register(String username, String password) {
-        validateUsername(username);
-        validatePassword(password);
-        String key = normalizeUsername(username);
-        if (data.getUsers().containsKey(key)) {
-            throw new IllegalArgumentException("Пользователь с таким логином уже существует.");
+    void attachJournal(Journal journal, String userKey) {
+        lock.writeLock().lock();
+        try {
+            this.journal = journal;
+            this.journalKey = userKey;
+        } finally {
+            lock.writeLock().unlock();
         }
-        UserAccount user = new UserAccount(username, password);
-        data.getUsers().put(key, user);
-        return user;
     }
 
-    public UserAccount login(String username, String password) {
-        validateUsername(username);
-        String key = normalizeUsername(username);
-        UserAccount user = data.getUsers().get(key);
-        if (user == null || !user.checkPassword(password)) {
-            throw new IllegalArgumentException("Неверный логин или пароль.");
+    public void addTransaction(Transaction tx) {
+        lock.writeLock().lock();
+        try {
+            // Запись в журнал под той же блокировкой: порядок в журнале совпадает с порядком применения
+            if (journal != null) {
+                journal.logTransaction(journalKey, tx);
+            }
+            append(tx.getType(), tx.getAmount(), tx.getCategory(), tx.getDescription(), (int) tx.getDate().toEpochDay(),
+                    tx.getCurrency());
+        } finally {
+            lock.writeLock().unlock();
         }
-        return user;
     }
 
-    private void validateUsername(String username) {
-        if (username == null || username.trim().isEmpty()) {
-            throw new IllegalArgumentException("Логин не может быть пустым.");
+    /**
+     * До limit самых поздних операций, от новых к старым, - без сортировки всего списка.
+     */
+    public List<Transaction> getLatestTransactions(int limit) {
+        lock.readLock().lock();
+        try {
+            int count = Math.min(limit, transactions.size());
+            List<Transaction> latest = new ArrayList<>(count);
+            for (int rank = transactions.size() - 1; latest.size() < count; rank--) {
+                latest.add(transactions.get(transactions.byDay(rank)));
+            }
+            return latest;
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
-    private void validatePassword(String password) {
-        if (password == null || password.length() < 4) {
-            throw new IllegalArgumentException("Слишком короткий пароль (минимум 4 символа).");
+    /**
+     * Добавляет пачку операций: одна запись в журнал для всей пачки,
+     * индекс расходов обновляется по id категорий, а не по строкам.
+     */
+    void addTransactions(TransactionColumns batch) {
+        if (batch.size() == 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.logTransactions(journalKey, batch);
+            }
+            appendAll(batch);
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
-    private String normalizeUsername(String username) {
-        return username.trim().toLowerCase();
+    /**
+     * Добавляет пачку операций без записи в журнал (используется при загрузке).
+     */
+    void appendAll(TransactionColumns batch) {
+        lock.writeLock().lock();
+        try {
+            appendBatch(batch);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
-}
-
-/**
- * Бизнес-логика кошелька/бюджетов.
- */
-class WalletService {
 
-    public void addIncome(UserAccount user, double amount, String category, String description) {
-        validateAmount(amount);
-        validateCategory(category);
-        Wallet wallet = user.getWallet();
-        Transaction tx = new Transaction(TransactionType.INCOME, amount, category, description, LocalDate.now());
-        wallet.addTransaction(tx);
+    private void appendBatch(TransactionColumns batch) {
+        modCount++;
+        int start = transactions.size();
+        transactions.addAll(batch);
+        int[] keyIds = syncCategoryKeys();
+        MonthlyRollup[] byCurrency = syncRollups();
+
+        int monthDay = Integer.MIN_VALUE;
+        int monthEnd = Integer.MIN_VALUE;
+        int monthCurrency = -1;
+        MonthlyRollup rollup = null;
+        MonthlyRollup.Totals month = null;
+        for (int i = start; i < transactions.size(); i++) {
+            int day = transactions.day(i);
+            int currency = transactions.currencyId(i);
+            if (day < monthDay || day >= monthEnd || currency != monthCurrency) {
+                // Операции обычно идут по датам и в одной валюте, месяц меняется редко
+                YearMonth ym = YearMonth.from(LocalDate.ofEpochDay(day));
+                monthDay = (int) ym.atDay(1).toEpochDay();
+                monthEnd = (int) ym.plusMonths(1).atDay(1).toEpochDay();
+                monthCurrency = currency;
+                rollup = byCurrency[currency];
+                month = rollup.monthForUpdate(ym);
+            }
+            rollup.add(month, transactions.type(i), keyIds[transactions.categoryId(i)], transactions.amountMinor(i));
+        }
     }
 
     /**
-     * Добавляет расход и возвращает список текстовых уведомлений.
+     * Догоняет rollups до размера словаря валют. Вызывается под блокировкой записи.
      */
-    public List<String> addExpense(UserAccount user, double amount, String category, String description) {
-        validateAmount(amount);
-        validateCategory(category);
-        Wallet wallet = user.getWallet();
-
-        Transaction tx = new Transaction(TransactionType.EXPENSE, amount, category, description, LocalDate.now());
-        wallet.addTransaction(tx);
-
-        List<String> notifications = new ArrayList<>();
-
-        YearMonth ym = YearMonth.from(tx.getDate());
-        CategoryBudget budget = wallet.getBudget(category);
-        double spent = wallet.getSpentForCategoryInMonth(category, ym);
-
-        if (budget == null) {
-            notifications.add("Предупреждение: по категории '" + category + "' ещё не установлен бюджет.");
-        } else {
-            double limit = budget.getLimit();
-            if (spent > limit) {
-                notifications.add(String.format(
-                        "ВНИМАНИЕ: бюджет по категории '%s' превышен. Потрачено %.2f из %.2f (перерасход %.2f).",
-                        budget.getName(), spent, limit, spent - limit
-                ));
-            } else if (spent >= 0.9 * limit) {
-                notifications.add(String.format(
-                        "Осторожно: вы превысили 90%% бюджета по категории '%s'. Потрачено %.2f из %.2f.",
-                        budget.getName(), spent, limit
-                ));
-            } else if (spent >= 0.8 * limit) {
-                notifications.add(String.format(
-                        "Предупреждение: израсходовано более 80%% бюджета по категории '%s'. Потрачено %.2f из %.2f.",
-                        budget.getName(), spent, limit
-                ));
+    private MonthlyRollup[] syncRollups() {
+        int known = rollups.length;
+        int count = transactions.currencyPool().size();
+        if (known < count) {
+            MonthlyRollup[] grown = Arrays.copyOf(rollups, count);
+            for (int id = known; id < count; id++) {
+                grown[id] = new MonthlyRollup(categoryKeys);
             }
+            rollups = grown;
         }
+        return rollups;
+    }
 
-        // Доп. уведомление: нулевой или отрицательный баланс
-        if (wallet.getBalance() <= 0) {
-            notifications.add(String.format(
-                    "ВНИМАНИЕ: ваш баланс нулевой или отрицательный (%.2f).",
-                    wallet.getBalance()
-            ));
+    /**
+     * Догоняет keyOfCategory до размера словаря операций. Вызывается под блокировкой записи.
+     */
+    private int[] syncCategoryKeys() {
+        TransactionColumns.StringPool pool = transactions.categoryPool();
+        int known = keyOfCategory.length;
+        if (known < pool.size()) {
+            int[] ids = Arrays.copyOf(keyOfCategory, pool.size());
+            for (int id = known; id < ids.length; id++) {
+                ids[id] = categoryKeys.intern(normalizeCategory(pool.get(id)));
+            }
+            keyOfCategory = ids;
         }
-
-        return notifications;
+        return keyOfCategory;
     }
 
-    public void setBudget(UserAccount user, String category, double limit) {
-        validateAmount(limit);
-        validateCategory(category);
-        user.getWallet().setBudget(category, limit);
+    /**
+     * Добавляет операцию без записи в журнал (используется при загрузке).
+     */
+    void append(TransactionType type, long amountMinor, String category, String description, int epochDay) {
+        append(type, amountMinor, category, description, epochDay, Money.BASE_CURRENCY);
     }
 
-    public void renameCategory(UserAccount user, String oldCategory, String newCategory) {
-        validateCategory(oldCategory);
-        validateCategory(newCategory);
+    void append(TransactionType type, long amountMinor, String category, String description, int epochDay,
+                String currency) {
+        lock.writeLock().lock();
+        try {
+            modCount++;
+            transactions.add(type, amountMinor, category, description, epochDay, currency);
+            int last = transactions.size() - 1;
+            int keyId = syncCategoryKeys()[transactions.categoryId(last)];
+            MonthlyRollup rollup = syncRollups()[transactions.currencyId(last)];
+            MonthlyRollup.Totals month = rollup.monthForUpdate(YearMonth.from(LocalDate.ofEpochDay(epochDay)));
+            rollup.add(month, type, keyId, amountMinor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-        Wallet wallet = user.getWallet();
-        String oldKey = Wallet.normalizeCategory(oldCategory);
-        String newKey = Wallet.normalizeCategory(newCategory);
+    public void setBudget(String category, long limit) {
+        setBudget(category, limit, CategoryBudget.DEFAULT_THRESHOLDS);
+    }
 
-        if (oldKey.equals(newKey)) {
-            throw new IllegalArgumentException("Старая и новая категории совпадают.");
-        }
+    /**
+     * @param thresholds пороги предупреждений в процентах от лимита
+     */
+    public void setBudget(String category, long limit, int[] thresholds) {
+        setBudget(category, limit, thresholds, Money.BASE_CURRENCY);
+    }
 
-        boolean foundInTx = false;
-        for (Transaction t : wallet.getTransactions()) {
-            String key = Wallet.normalizeCategory(t.getCategory());
-            if (key.equals(oldKey)) {
-                t.setCategory(newCategory);
-                foundInTx = true;
+    /**
+     * @param currency валюта лимита; null - базовая
+     */
+    public void setBudget(String category, long limit, int[] thresholds, String currency) {
+        String key = normalizeCategory(category);
+        CategoryBudget budget = new CategoryBudget(category, limit, thresholds, currency);
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.logBudget(journalKey, category, limit, budget.getThresholds(), budget.getCurrency());
             }
+            modCount++;
+            budgets.put(key, budget);
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        CategoryBudget oldBudget = wallet.getBudgets().remove(oldKey);
-        if (oldBudget != null) {
-            wallet.getBudgets().put(newKey, new CategoryBudget(newCategory, oldBudget.getLimit()));
-        }
-
-        if (!foundInTx && oldBudget == null) {
-            throw new IllegalArgumentException("Категория '" + oldCategory + "' не найдена ни в операциях, ни в бюджетах.");
+    public CategoryBudget getBudget(String category) {
+        lock.readLock().lock();
+        try {
+            return budgets.get(normalizeCategory(category));
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     /**
-     * Сводка по текущему месяцу и бюджетам.
+     * Переименовывает категорию в операциях и бюджетах. Операции не перебираются:
+     * меняются записи словарей, на которые они ссылаются. Если новое имя уже есть
+     * среди категорий, итоги старой категории переносятся в неё.
+     * Возвращает true, если категория встретилась хотя бы в одной операции.
      */
-    public List<String> buildSummary(UserAccount user) {
-        Wallet wallet = user.getWallet();
-        List<String> lines = new ArrayList<>();
-
-        double balance = wallet.getBalance();
-        double totalIncome = wallet.getTotalByType(TransactionType.INCOME);
-        double totalExpense = wallet.getTotalByType(TransactionType.EXPENSE);
-        YearMonth ym = YearMonth.now();
-
-        lines.add(String.format("Текущий баланс: %.2f", balance));
-        lines.add(String.format("Всего доходов: %.2f, всего расходов: %.2f", totalIncome, totalExpense));
-        lines.add("");
-        lines.add("Текущий месяц: " + ym.getMonthValue() + "." + ym.getYear());
-        lines.add("Бюджеты и расходы по категориям (текущий месяц):");
-        lines.add(String.format("%-20s | %-10s | %-10s | %-10s | %-12s",
-                "Категория", "Потрачено", "Лимит", "Остаток", "Статус"));
-        lines.add("---------------------+------------+------------+------------+-------------");
-
-        Map<String, Double> spentByCat = wallet.getExpensesByCategoryForMonth(ym);
-
-        if (wallet.getBudgets().isEmpty()) {
-            lines.add("Бюджеты пока не заданы.");
-        } else {
-            for (CategoryBudget budget : wallet.getBudgets().values()) {
-                String key = Wallet.normalizeCategory(budget.getName());
-                double spent = spentByCat.getOrDefault(key, 0.0);
-                double limit = budget.getLimit();
-                double remaining = limit - spent;
-                String status;
-                if (spent > limit) {
-                    status = "Перерасход";
-                } else if (spent >= 0.9 * limit) {
-                    status = "90%+";
-                } else if (spent >= 0.8 * limit) {
-                    status = "80%+";
-                } else if (spent == 0) {
-                    status = "Не тратилось";
-                } else {
-                    status = "OK";
+    public boolean renameCategory(String oldCategory, String newCategory) {
+        String oldKey = normalizeCategory(oldCategory);
+        String newKey = normalizeCategory(newCategory);
+        lock.writeLock().lock();
+        try {
+            if (journal != null) {
+                journal.logRename(journalKey, oldCategory, newCategory);
+            }
+            modCount++;
+
+            boolean foundInTx = false;
+            int oldId = categoryKeys.find(oldKey);
+            if (oldId >= 0) {
+                TransactionColumns.StringPool pool = transactions.categoryPool();
+                for (int id = 0; id < keyOfCategory.length; id++) {
+                    if (keyOfCategory[id] == oldId) {
+                        pool.rename(id, newCategory);
+                        foundInTx = true;
+                    }
+                }
+                int newId = categoryKeys.find(newKey);
+                if (newId < 0) {
+                    // id нормализованной категории сохраняется - итоги и keyOfCategory остаются как есть
+                    categoryKeys.rename(oldId, newKey);
+                } else if (newId != oldId) {
+                    for (MonthlyRollup rollup : rollups) {
+                        rollup.moveCategory(oldId, newId);
+                    }
+                    for (int id = 0; id < keyOfCategory.length; id++) {
+                        if (keyOfCategory[id] == oldId) {
+                            keyOfCategory[id] = newId;
+                        }
+                    }
                 }
-                lines.add(String.format("%-20s | %-10.2f | %-10.2f | %-10.2f | %-12s",
-                        budget.getName(), spent, limit, remaining, status));
             }
-        }
 
-        // Категории, где были расходы, но бюджета нет
-        boolean extraCatsHeader = false;
-        for (Map.Entry<String, Double> entry : spentByCat.entrySet()) {
-            String catKey = entry.getKey();
-            if (!wallet.getBudgets().containsKey(catKey)) {
-                if (!extraCatsHeader) {
-                    lines.add("");
-                    lines.add("Категории без бюджета:");
-                    lines.add(String.format("%-20s | %-10s", "Категория", "Потрачено"));
-                    lines.add("---------------------+------------");
-                    extraCatsHeader = true;
-                }
-                lines.add(String.format("%-20s | %-10.2f", catKey, entry.getValue()));
+            CategoryBudget oldBudget = budgets.remove(oldKey);
+            if (oldBudget != null) {
+                budgets.put(newKey, new CategoryBudget(newCategory, oldBudget.getLimit(), oldBudget.getThresholds(),
+                        oldBudget.getCurrency()));
             }
+            return foundInTx;
+        } finally {
+            lock.writeLock().unlock();
         }
-
-        return lines;
     }
 
     /**
-     * Отчёт по выборке: период + (опционально) несколько категорий.
+     * Сумма операций типа type в базовой валюте.
      */
-    public List<String> buildFilteredReport(UserAccount user, LocalDate from, LocalDate to, Set<String> categories) {
-        Wallet wallet = user.getWallet();
-        List<Transaction> txs = wallet.getTransactions();
+    public long getTotalByType(TransactionType type) {
+        return getTotalByType(type, Money.BASE_CURRENCY);
+    }
 
-        List<Transaction> filtered = new ArrayList<>();
-        for (Transaction t : txs) {
-            LocalDate d = t.getDate();
-            if (from != null && d.isBefore(from)) continue;
-            if (to != null && d.isAfter(to)) continue;
-            if (categories != null && !categories.isEmpty()) {
-                String key = Wallet.normalizeCategory(t.getCategory());
-                if (!categories.contains(key)) continue;
-            }
-            filtered.add(t);
+    public long getTotalByType(TransactionType type, String currency) {
+        lock.readLock().lock();
+        try {
+            MonthlyRollup rollup = rollup(currency);
+            return rollup == null ? 0 : rollup.all().get(type);
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        List<String> lines = new ArrayList<>();
-        String periodStr;
-        if (from == null && to == null) periodStr = "все даты";
-        else if (from != null && to == null) periodStr = "с " + from + " и позже";
-        else if (from == null) periodStr = "до " + to;
-        else periodStr = "c " + from + " по " + to;
-
-        String catsStr;
-        if (categories == null || categories.isEmpty()) catsStr = "все категории";
-        else catsStr = String.join(", ", categories);
-
-        lines.add("Период: " + periodStr);
-        lines.add("Категории: " + catsStr);
-        lines.add("");
+    /**
+     * Расходы категории за месяц в базовой валюте.
+     */
+    public long getSpentForCategoryInMonth(String category, YearMonth ym) {
+        return getSpentForCategoryInMonth(category, ym, Money.BASE_CURRENCY);
+    }
 
-        if (filtered.isEmpty()) {
-            lines.add("Нет данных для указанного периода/категорий.");
-            return lines;
+    public long getSpentForCategoryInMonth(String category, YearMonth ym, String currency) {
+        lock.readLock().lock();
+        try {
+            MonthlyRollup rollup = rollup(currency);
+            MonthlyRollup.Totals month = rollup == null ? null : rollup.month(ym);
+            return month == null ? 0 : month.byCategory(TransactionType.EXPENSE).get(normalizeCategory(category));
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        double totalIncome = 0.0;
-        double totalExpense = 0.0;
-        Map<String, Double> expenseByCat = new HashMap<>();
-
-        lines.add("Операции:");
-        lines.add(String.format("%-10s | %-7s | %-15s | %-10s | %s",
-                "Дата", "Тип", "Категория", "Сумма", "Описание"));
-        lines.add("-----------+---------+-----------------+------------+------------------------");
+    /**
+     * Расходы за месяц в базовой валюте по нормализованным категориям
+     * (копия, изменения не влияют на кошелёк).
+     */
+    public CategoryTotals getExpensesByCategoryForMonth(YearMonth ym) {
+        return getExpensesByCategoryForMonth(ym, Money.BASE_CURRENCY);
+    }
 
-        for (Transaction t : filtered) {
-            String typeLabel = t.getType() == TransactionType.INCOME ? "Доход" : "Расход";
-            if (t.getType() == TransactionType.INCOME) {
-                totalIncome += t.getAmount();
-            } else {
-                totalExpense += t.getAmount();
-                String key = Wallet.normalizeCategory(t.getCategory());
-                expenseByCat.put(key, expenseByCat.getOrDefault(key, 0.0) + t.getAmount());
-            }
-            lines.add(String.format("%-10s | %-7s | %-15s | %-10.2f | %s",
-                    t.getDate(),
-                    typeLabel,
-                    t.getCategory(),
-                    t.getAmount(),
-                    t.getDescription()));
+    public CategoryTotals getExpensesByCategoryForMonth(YearMonth ym, String currency) {
+        lock.readLock().lock();
+        try {
+            MonthlyRollup rollup = rollup(currency);
+            MonthlyRollup.Totals month = rollup == null ? null : rollup.month(ym);
+            return month == null ? new CategoryTotals(categoryKeys) : month.byCategory(TransactionType.EXPENSE).copy();
+        } finally {
+            lock.readLock().unlock();
         }
+    }
 
-        lines.add("");
-        lines.add(String.format("Всего доходов: %.2f", totalIncome));
-        lines.add(String.format("Всего расходов: %.2f", totalExpense));
+    /**
+     * Итоги операций в базовой валюте с датой в [from, to] (null - без ограничения)
+     * по категориям с нормализованными именами из categories (null или пусто - все).
+     * Целые месяцы берутся из помесячных итогов, перебираются только операции
+     * неполных крайних месяцев.
+     */
+    MonthlyRollup.Totals getPeriodTotals(LocalDate from, LocalDate to, Set<String> categories) {
+        return getPeriodTotals(from, to, categories, Money.BASE_CURRENCY);
+    }
 
-        if (!expenseByCat.isEmpty()) {
-            lines.add("");
-            lines.add("Расходы по категориям:");
-            lines.add(String.format("%-20s | %-10s", "Категория", "Потрачено"));
-            lines.add("---------------------+------------");
-            for (Map.Entry<String, Double> e : expenseByCat.entrySet()) {
-                lines.add(String.format("%-20s | %-10.2f", e.getKey(), e.getValue()));
+    MonthlyRollup.Totals getPeriodTotals(LocalDate from, LocalDate to, Set<String> categories, String currency) {
+        lock.readLock().lock();
+        try {
+            int currencyId = transactions.currencyPool().find(currency);
+            if (currencyId < 0) {
+                return new MonthlyRollup.Totals(categoryKeys);
             }
+            return periodTotalsByCurrency(from, to, categories, RowTotals.PARALLEL_THRESHOLD)[currencyId];
+        } finally {
+            lock.readLock().unlock();
         }
-
-        return lines;
     }
 
-    public void exportTransactionsToCsv(UserAccount user, String filename) throws IOException {
-        Wallet wallet = user.getWallet();
-        List<Transaction> txs = wallet.getTransactions();
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write("date,type,category,description,amount");
-            writer.newLine();
-            for (Transaction t : txs) {
-                String typeStr = t.getType() == TransactionType.INCOME ? "INCOME" : "EXPENSE";
-                // Экранируем запятые и кавычки в описании/категории
-                String categoryEsc = escapeCsv(t.getCategory());
-                String descEsc = escapeCsv(t.getDescription());
-                writer.write(t.getDate() + "," + typeStr + "," + categoryEsc + "," + descEsc + "," + t.getAmount());
-                writer.newLine();
+    /**
+     * Итоги периода (см. {@link #getPeriodTotals}) отдельно по каждой валюте, индекс - id
+     * в словаре валют операций. Операции неполных крайних месяцев перебираются один раз
+     * для всех валют; параллельно - только если их не меньше threshold.
+     * Вызывающий держит {@link #readLock()}.
+     */
+    MonthlyRollup.Totals[] periodTotalsByCurrency(LocalDate from, LocalDate to, Set<String> categories, int threshold) {
+        MonthlyRollup.Totals[] result = new MonthlyRollup.Totals[transactions.currencyPool().size()];
+        for (int c = 0; c < result.length; c++) {
+            result[c] = new MonthlyRollup.Totals(categoryKeys);
+        }
+        if (from != null && to != null && from.isAfter(to)) {
+            return result;
+        }
+        int fromDay = from == null ? Integer.MIN_VALUE : (int) from.toEpochDay();
+        int toDay = to == null ? Integer.MAX_VALUE : (int) to.toEpochDay();
+        boolean[] keyMask = keyMask(categories);
+        boolean[] categoryMask = categoryMask(keyMask);
+
+        // Целые месяцы периода; null - без ограничения с этой стороны
+        YearMonth fullFrom = from == null ? null
+                : from.getDayOfMonth() == 1 ? YearMonth.from(from) : YearMonth.from(from).plusMonths(1);
+        YearMonth fullTo = to == null ? null
+                : to.equals(YearMonth.from(to).atEndOfMonth()) ? YearMonth.from(to) : YearMonth.from(to).minusMonths(1);
+        if (fullFrom != null && fullTo != null && fullFrom.isAfter(fullTo)) {
+            addRows(result, fromDay, toDay, categoryMask, threshold);
+            return result;
+        }
+        for (int c = 0; c < result.length && c < rollups.length; c++) {
+            MonthlyRollup rollup = rollups[c];
+            YearMonth first = fullFrom != null ? fullFrom : rollup.firstMonth();
+            YearMonth last = fullTo != null ? fullTo : rollup.lastMonth();
+            if (first == null || last == null || first.isAfter(last)) {
+                continue;
+            }
+            for (MonthlyRollup.Totals month : rollup.range(first, last).values()) {
+                result[c].addAll(month, keyMask);
             }
         }
+        if (fullFrom != null) {
+            addRows(result, fromDay, (int) fullFrom.atDay(1).toEpochDay() - 1, categoryMask, threshold);
+        }
+        if (fullTo != null) {
+            addRows(result, (int) fullTo.atEndOfMonth().toEpochDay() + 1, toDay, categoryMask, threshold);
+        }
+        return result;
     }
 
-    public int importTransactionsFromCsv(UserAccount user, String filename) throws IOException {
-        Wallet wallet = user.getWallet();
-        int imported = 0;
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line = reader.readLine(); // предполагаем, что первая строка — заголовок
-            if (line == null) return 0;
-
-            while ((line = reader.readLine()) != null) {
-                if (line.trim().isEmpty()) continue;
-                String[] parts = parseCsvLine(line);
-                if (parts.length < 5) {
-                    System.out.println("Пропускаю строку (мало столбцов): " + line);
-                    continue;
-                }
-                try {
-                    LocalDate date = LocalDate.parse(parts[0].trim());
-                    String typeStr = parts[1].trim().toUpperCase();
-                    TransactionType type = "INCOME".equals(typeStr) ? TransactionType.INCOME : TransactionType.EXPENSE;
-                    String category = parts[2].trim();
-                    String description = parts[3].trim();
-                    double amount = Double.parseDouble(parts[4].trim().replace(",", "."));
-                    if (amount <= 0) {
-                        System.out.println("Пропускаю строку (неположительная сумма): " + line);
-                        continue;
-                    }
-                    Transaction tx = new Transaction(type, amount, category, description, date);
-                    wallet.addTransaction(tx);
-                    imported++;
-                } catch (Exception e) {
-                    System.out.println("Пропускаю строку (ошибка парсинга): " + line + " | " + e.getMessage());
-                }
-            }
+    private void addRows(MonthlyRollup.Totals[] result, int fromDay, int toDay, boolean[] categoryMask, int threshold) {
+        if (fromDay > toDay) {
+            return;
+        }
+        int end = transactions.upperBound(toDay);
+        int rank = transactions.lowerBound(fromDay);
+        if (rank >= end) {
+            return;
+        }
+        RowTotals rows = RowTotals.collect(transactions, rank, end, keyOfCategory, categoryKeys.size(), categoryMask,
+                threshold);
+        for (int c = 0; c < result.length; c++) {
+            rows.addTo(result[c], c);
         }
-        return imported;
     }
 
-    private static String escapeCsv(String value) {
-        if (value == null) return "";
-        boolean needQuotes = value.contains(",") || value.contains("\"") || value.contains("\n");
-        String v = value.replace("\"", "\"\"");
-        return needQuotes ? "\"" + v + "\"" : v;
+    /**
+     * Для каждой категории из словаря операций - id её нормализованного имени в categoryKeys.
+     * Массив общий, не копия: менять его нельзя. Вызывающий держит {@link #readLock()}.
+     */
+    int[] categoryKeyIds() {
+        return keyOfCategory;
     }
 
-    // Очень простой парсер CSV-строки (поддерживает кавычки)
-    private static String[] parseCsvLine(String line) {
-        List<String> result = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inQuotes = false;
+    /**
+     * Отметки категорий словаря операций, нормализованное имя которых входит в keys;
+     * null, если фильтра по категориям нет. Вызывающий держит {@link #readLock()}.
+     */
+    boolean[] categoryMask(Set<String> keys) {
+        return categoryMask(keyMask(keys));
+    }
 
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (inQuotes) {
-                if (c == '\"') {
-                    if (i + 1 < line.length() && line.charAt(i + 1) == '\"') {
-                        current.append('\"');
-                        i++;
-                    } else {
-                        inQuotes = false;
-                    }
-                } else {
-                    current.append(c);
-                }
-            } else {
-                if (c == '\"') {
-                    inQuotes = true;
-                } else if (c == ',') {
-                    result.add(current.toString());
-                    current.setLength(0);
-                } else {
-                    current.append(c);
-                }
-            }
+    private boolean[] categoryMask(boolean[] keyMask) {
+        if (keyMask == null) {
+            return null;
         }
-        result.add(current.toString());
-        return result.toArray(new String[0]);
+        boolean[] mask = new boolean[keyOfCategory.length];
+        for (int id = 0; id < mask.length; id++) {
+            mask[id] = keyMask[keyOfCategory[id]];
+        }
+        return mask;
     }
 
-    private void validateAmount(double amount) {
-        if (amount <= 0) {
-            throw new IllegalArgumentException("Сумма должна быть больше нуля.");
+    private boolean[] keyMask(Set<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return null;
+        }
+        boolean[] keyMask = new boolean[categoryKeys.size()];
+        for (String key : keys) {
+            int id = categoryKeys.find(key);
+            if (id >= 0) {
+                keyMask[id] = true;
+            }
         }
+        return keyMask;
     }
 
-    private void validateCategory(String category) {
-        if (category == null || category.trim().isEmpty()) {
-            throw new IllegalArgumentException("Категория не может быть пустой.");
+    /**
+     * Словарь нормализованных категорий кошелька (id - индексы в CategoryTotals).
+     */
+    TransactionColumns.StringPool getCategoryKeys() {
+        return categoryKeys;
+    }
+
+    /**
+     * Ключ категории: без крайних пробелов, в нижнем регистре без учёта локали системы.
+     */
+    public static String normalizeCategory(String category) {
+        return category.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        lock.readLock().lock();
+        try {
+            fields.put("balance", Money.toDouble(getBalance()));
+            fields.put("transactions", getTransactions());
+            fields.put("budgets", new HashMap<>(budgets));
+        } finally {
+            lock.readLock().unlock();
+        }
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        lock = new ReentrantReadWriteLock();
+        transactions = new TransactionColumns();
+        categoryKeys = new TransactionColumns.StringPool();
+        rollups = new MonthlyRollup[0];
+        keyOfCategory = new int[0];
+        Map<String, CategoryBudget> storedBudgets = (Map<String, CategoryBudget>) fields.get("budgets", null);
+        budgets = storedBudgets == null ? new HashMap<>() : new HashMap<>(storedBudgets);
+        List<Transaction> stored = (List<Transaction>) fields.get("transactions", null);
+        if (stored != null) {
+            TransactionColumns batch = new TransactionColumns();
+            for (Transaction t : stored) {
+                batch.add(t.getType(), t.getAmount(), t.getCategory(), t.getDescription(), (int) t.getDate().toEpochDay(),
+                        t.getCurrency());
+            }
+            appendAll(batch);
         }
     }
 }
 
-// ================== ХРАНЕНИЕ ДАННЫХ ==================
+/**
+ * Тип операции.
+ */
+enum TransactionType {
+    INCOME,
+    EXPENSE
+}
 
 /**
- * Класс для сохранения/загрузки состояния в файл.
+ * Операция (доход/расход). Сумма - в копейках валюты операции.
  */
-class DataStore {
-    private static final String DATA_FILE = "finance.dat";
+class Transaction implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-    public static AppData load() {
-        File file = new File(DATA_FILE);
-        if (!file.exists()) {
-            return new AppData();
-        }
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
-            Object obj = in.readObject();
-            if (obj instanceof AppData) {
-                return (AppData) obj;
-            } else {
-                System.out.println("Формат файла данных не распознан. Будет создан новый файл.");
-                return new AppData();
-            }
-        } catch (Exception e) {
-            System.out.println("Не удалось загрузить данные (" + e.getMessage() + "). Будет создан новый файл.");
-            return new AppData();
-        }
+    // Сериализованная форма прежняя: сумма как double; валюта - новое поле, в старых файлах его нет
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("type", TransactionType.class),
+            new ObjectStreamField("amount", double.class),
+            new ObjectStreamField("category", String.class),
+            new ObjectStreamField("description", String.class),
+            new ObjectStreamField("date", LocalDate.class),
+            new ObjectStreamField("currency", String.class)
+    };
+
+    private TransactionType type;
+    private long amount;
+    private String category;
+    private String description;
+    private LocalDate date;
+    private String currency;
+
+    public Transaction(TransactionType type, long amount, String category, String description, LocalDate date) {
+        this(type, amount, category, description, date, Money.BASE_CURRENCY);
     }
 
-    public static void save(AppData data) {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-            out.writeObject(data);
-        } catch (IOException e) {
-            System.out.println("Ошибка при сохранении данных: " + e.getMessage());
+    /**
+     * @param currency код валюты; null - базовая валюта
+     */
+    public Transaction(TransactionType type, long amount, String category, String description, LocalDate date,
+                       String currency) {
+        this.type = type;
+        this.amount = amount;
+        this.category = category;
+        this.description = description;
+        this.date = date;
+        this.currency = Money.normalizeCurrency(currency);
+    }
+
+    public TransactionType getType() {
+        return type;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("type", type);
+        fields.put("amount", Money.toDouble(amount));
+        fields.put("category", category);
+        fields.put("description", description);
+        fields.put("date", date);
+        fields.put("currency", currency);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        type = (TransactionType) fields.get("type", null);
+        amount = Money.fromDouble(fields.get("amount", 0.0));
+        category = (String) fields.get("category", null);
+        description = (String) fields.get("description", null);
+        date = (LocalDate) fields.get("date", null);
+        currency = Money.normalizeCurrency((String) fields.get("currency", null));
+    }
+}
+
+/**
+ * Бюджет по категории: месячный лимит в валюте бюджета и пороги предупреждений в процентах
+ * от лимита (по умолчанию 80 и 90; превышение самого лимита отслеживается всегда).
+ * Траты в других валютах переводятся в валюту бюджета (см. {@link FxRates}).
+ */
+class CategoryBudget implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final int[] DEFAULT_THRESHOLDS = {80, 90};
+
+    // Сериализованная форма прежняя: лимит как double; пороги - новое поле, в старых файлах его нет
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("limit", double.class),
+            new ObjectStreamField("thresholds", int[].class),
+            new ObjectStreamField("currency", String.class)
+    };
+
+    private String name; // отображаемое имя категории
+    private long limit; // месячный лимит в копейках
+    private int[] thresholds; // по возрастанию, без повторов
+    private String currency;
+
+    public CategoryBudget(String name, long limit) {
+        this(name, limit, DEFAULT_THRESHOLDS);
+    }
+
+    /**
+     * @param thresholds пороги в процентах от 1 до 100, в любом порядке
+     */
+    public CategoryBudget(String name, long limit, int[] thresholds) {
+        this(name, limit, thresholds, Money.BASE_CURRENCY);
+    }
+
+    /**
+     * @param currency валюта лимита; null - базовая
+     */
+    public CategoryBudget(String name, long limit, int[] thresholds, String currency) {
+        this.name = name;
+        this.limit = limit;
+        this.thresholds = normalizeThresholds(thresholds);
+        this.currency = Money.normalizeCurrency(currency);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Пороги по возрастанию (копия).
+     */
+    public int[] getThresholds() {
+        return thresholds.clone();
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    /**
+     * Наибольший порог, которого достигли траты spent; 0 - ни одного.
+     */
+    int highestReached(long spent) {
+        for (int i = thresholds.length - 1; i >= 0; i--) {
+            if (WalletService.reachedPercent(spent, limit, thresholds[i])) {
+                return thresholds[i];
+            }
+        }
+        return 0;
+    }
+
+    static int[] normalizeThresholds(int[] thresholds) {
+        int[] sorted = Arrays.stream(thresholds).distinct().sorted().toArray();
+        for (int t : sorted) {
+            if (t < 1 || t > 100) {
+                throw new IllegalArgumentException("Порог бюджета должен быть от 1 до 100%: " + t);
+            }
+        }
+        return sorted;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("limit", Money.toDouble(limit));
+        fields.put("thresholds", thresholds);
+        fields.put("currency", currency);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        name = (String) fields.get("name", null);
+        limit = Money.fromDouble(fields.get("limit", 0.0));
+        int[] stored = (int[]) fields.get("thresholds", null);
+        thresholds = stored == null ? DEFAULT_THRESHOLDS.clone() : normalizeThresholds(stored);
+        currency = Money.normalizeCurrency((String) fields.get("currency", null));
+    }
+}
+
+// ================== СЕРВИСЫ ==================
+
+/**
+ * Сервис авторизации и регистрации.
+ */
+class AuthService {
+
+    /**
+     * Источник входа, если вызывающий его не указал (консоль, пакетный режим).
+     * Лимит неудач по источнику к нему не применяется - только лимит логина.
+     */
+    static final String LOCAL_SOURCE = "local";
+
+    // Хэш, с которым сверяется пароль несуществующего пользователя: отказ занимает
+    // столько же времени, сколько при неверном пароле, и не выдаёт, есть ли такой логин
+    private static volatile String unknownUserHash;
+
+    private final AppData data;
+
+    public AuthService(AppData data) {
+        this.data = data;
+    }
+
+    public UserAccount register(String username, String password) {
+        validateUsername(username);
+        validatePassword(password);
+        String key = normalizeUsername(username);
+        String stored = PasswordHash.hash(password); // медленно - до блокировок реестра
+        UserAccount user = new UserAccount(username, stored);
+        if (!data.addUser(key, user)) {
+            throw new IllegalArgumentException("Пользователь с таким логином уже существует.");
+        }
+        data.getSessions().remember(key, stored, password);
+        return user;
+    }
+
+    public UserAccount login(String username, String password) {
+        return login(username, password, LOCAL_SOURCE);
+    }
+
+    /**
+     * Вход. Повторный вход с тем же паролем проверяется по кэшу сеансов без PBKDF2;
+     * пароль в открытом виде (старые данные) или хэш с устаревшим числом итераций
+     * при успешном входе заменяется новым хэшем.
+     *
+     * @param source откуда вход (адрес клиента сервера или {@link #LOCAL_SOURCE}) - для ограничения
+     *               неудачных попыток
+     * @throws IllegalStateException если для логина или источника исчерпан лимит неудач
+     *                               (пароль тогда не проверяется вовсе)
+     */
+    public UserAccount login(String username, String password, String source) {
+        validateUsername(username);
+        String key = normalizeUsername(username);
+        LoginThrottle throttle = data.getLoginThrottle();
+        if (LOCAL_SOURCE.equals(source)) {
+            source = null;
+        }
+        if (throttle.isBlocked(key, source)) {
+            throw new IllegalStateException("Слишком много неудачных попыток входа. Повторите попытку позже.");
+        }
+        UserAccount user = data.getUsers().get(key);
+        if (user == null) {
+            PasswordHash.verify(password == null ? "" : password, unknownUserHash());
+            throttle.recordFailure(key, source);
+            throw new IllegalArgumentException("Неверный логин или пароль.");
+        }
+        String stored = user.getPassword();
+        SessionCache sessions = data.getSessions();
+        if (password != null && sessions.matches(key, stored, password)) {
+            throttle.recordSuccess(key);
+            return user;
+        }
+        if (!PasswordHash.verify(password, stored)) {
+            throttle.recordFailure(key, source);
+            throw new IllegalArgumentException("Неверный логин или пароль.");
+        }
+        throttle.recordSuccess(key);
+        if (PasswordHash.needsRehash(stored)) {
+            String rehashed = PasswordHash.hash(password);
+            Lock lock = data.changeLock(); // замена пароля - изменение данных, как у команд
+            lock.lock();
+            try {
+                stored = user.replacePassword(stored, rehashed);
+            } finally {
+                lock.unlock();
+            }
+        }
+        sessions.remember(key, stored, password);
+        return user;
+    }
+
+    private static String unknownUserHash() {
+        String hash = unknownUserHash;
+        if (hash == null) {
+            hash = PasswordHash.hash("unknown-user");
+            unknownUserHash = hash;
+        }
+        return hash;
+    }
+
+    private void validateUsername(String username) {
+        if (username == null || username.trim().isEmpty()) {
+            throw new IllegalArgumentException("Логин не может быть пустым.");
+        }
+    }
+
+    private void validatePassword(String password) {
+        if (password == null || password.length() < 4) {
+            throw new IllegalArgumentException("Слишком короткий пароль (минимум 4 символа).");
+        }
+    }
+
+    // Ключ определяет шард и записан в снимке и журнале - не должен зависеть от локали системы
+    private String normalizeUsername(String username) {
+        return username.trim().toLowerCase(Locale.ROOT);
+    }
+}
+
+/**
+ * Бизнес-логика кошелька/бюджетов.
+ *
+ * После добавления расходов сервис проверяет пороги бюджетов и рассылает
+ * {@link BudgetEvent} подписанным слушателям; те же события возвращаются вызывающему
+ * как тексты, которые собираются только при чтении.
+ */
+class WalletService {
+
+    private final List<BudgetEvent.Listener> listeners = new CopyOnWriteArrayList<>();
+    private final FxRates fxRates;
+    // С какого числа операций в периоде итоги отчёта считаются параллельно (см. RowTotals)
+    private final int parallelThreshold;
+
+    WalletService() {
+        this(FxRates.empty());
+    }
+
+    WalletService(int parallelThreshold) {
+        this(FxRates.empty(), parallelThreshold);
+    }
+
+    /**
+     * @param fxRates курсы для перевода сумм в валюту бюджета и в базовую валюту отчётов
+     */
+    WalletService(FxRates fxRates) {
+        this(fxRates, RowTotals.PARALLEL_THRESHOLD);
+    }
+
+    WalletService(FxRates fxRates, int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("Порог параллельного подсчёта должен быть больше нуля.");
+        }
+        this.fxRates = fxRates;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    void addListener(BudgetEvent.Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(BudgetEvent.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Добавляет доход. Сумма - в копейках.
+     */
+    public void addIncome(UserAccount user, long amount, String category, String description) {
+        validateAmount(amount);
+        validateCategory(category);
+        Wallet wallet = user.getWallet();
+        Transaction tx = new Transaction(TransactionType.INCOME, amount, category, description, LocalDate.now());
+        wallet.addTransaction(tx);
+    }
+
+    /**
+     * Добавляет расход (сумма в копейках) и возвращает тексты уведомлений: порог бюджета
+     * впервые достигнут или лимит впервые превышен этим расходом, бюджета по категории нет,
+     * баланс нулевой или отрицательный.
+     */
+    public List<String> addExpense(UserAccount user, long amount, String category, String description) {
+        validateAmount(amount);
+        validateCategory(category);
+        Wallet wallet = user.getWallet();
+
+        Transaction tx = new Transaction(TransactionType.EXPENSE, amount, category, description, LocalDate.now());
+        List<BudgetEvent> events;
+        // Добавление и проверка под одной блокировкой: параллельный расход не может
+        // оказаться между ними, и пересечение порога замечается ровно один раз
+        wallet.writeLock().lock();
+        try {
+            wallet.addTransaction(tx);
+            YearMonth ym = YearMonth.from(tx.getDate());
+            CategoryBudget budget = wallet.getBudget(category);
+            if (budget == null) {
+                events = add(null, BudgetEvent.noBudget(category, ym));
+            } else {
+                long spent = spentInCurrency(wallet, category, ym, budget.getCurrency());
+                long added = convertOrZero(amount, tx.getCurrency(), budget.getCurrency(), rateDate(ym));
+                events = checkBudget(null, budget, ym, spent - added, spent);
+            }
+            events = checkBalance(events, wallet, tx.getCurrency());
+        } finally {
+            wallet.writeLock().unlock();
+        }
+        return publish(events);
+    }
+
+    /**
+     * Добавляет пачку операций одним шагом: все операции проверяются до изменения кошелька
+     * (ошибка в одной - ни одна не добавлена), пачка попадает в журнал одной записью,
+     * а бюджеты проверяются в конце - один раз на каждую затронутую пару (категория, месяц).
+     * Операция без даты получает сегодняшнюю; валюта операции - её собственная.
+     *
+     * @return тексты уведомлений, как у {@link #addExpense}; для месяца, отличного от текущего,
+     * перед уведомлением стоит месяц
+     */
+    public List<String> addTransactions(UserAccount user, Collection<Transaction> transactions) {
+        LocalDate today = LocalDate.now();
+        TransactionColumns batch = new TransactionColumns();
+        for (Transaction tx : transactions) {
+            if (tx.getType() == null) {
+                throw new IllegalArgumentException("Не указан тип операции.");
+            }
+            validateAmount(tx.getAmount());
+            validateCategory(tx.getCategory());
+            LocalDate date = tx.getDate() == null ? today : tx.getDate();
+            batch.add(tx.getType(), tx.getAmount(), tx.getCategory(), tx.getDescription(), (int) date.toEpochDay(),
+                    tx.getCurrency());
+        }
+        return addTransactions(user, batch);
+    }
+
+    /**
+     * То же для пачки в столбцах, суммы и категории которой уже проверены (импорт CSV).
+     */
+    List<String> addTransactions(UserAccount user, TransactionColumns batch) {
+        if (batch.size() == 0) {
+            return Collections.emptyList();
+        }
+        Wallet wallet = user.getWallet();
+        List<BudgetEvent> events;
+        wallet.writeLock().lock();
+        try {
+            wallet.addTransactions(batch);
+            events = batchEvents(wallet, batch);
+        } finally {
+            wallet.writeLock().unlock();
+        }
+        return publish(events);
+    }
+
+    private List<BudgetEvent> batchEvents(Wallet wallet, TransactionColumns batch) {
+        // Сумма расходов пачки по нормализованной категории, месяцу и валюте (id в словаре валют пачки);
+        // имя категории - как в первой операции пачки
+        TransactionColumns.StringPool pool = batch.categoryPool();
+        String[] keys = new String[pool.size()];
+        for (int id = 0; id < keys.length; id++) {
+            keys[id] = Wallet.normalizeCategory(pool.get(id));
+        }
+        TransactionColumns.StringPool currencies = batch.currencyPool();
+        Map<String, String> names = new LinkedHashMap<>();
+        Map<String, Map<YearMonth, long[]>> added = new HashMap<>();
+        int monthDay = Integer.MIN_VALUE;
+        int monthEnd = Integer.MIN_VALUE;
+        YearMonth ym = null;
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.type(i) != TransactionType.EXPENSE) {
+                continue;
+            }
+            int day = batch.day(i);
+            if (day < monthDay || day >= monthEnd) {
+                ym = YearMonth.from(LocalDate.ofEpochDay(day));
+                monthDay = (int) ym.atDay(1).toEpochDay();
+                monthEnd = (int) ym.plusMonths(1).atDay(1).toEpochDay();
+            }
+            int id = batch.categoryId(i);
+            names.putIfAbsent(keys[id], pool.get(id));
+            added.computeIfAbsent(keys[id], k -> new TreeMap<>())
+                    .computeIfAbsent(ym, m -> new long[currencies.size()])[batch.currencyId(i)] += batch.amountMinor(i);
+        }
+
+        List<BudgetEvent> events = null;
+        for (Map.Entry<String, String> category : names.entrySet()) {
+            Map<YearMonth, long[]> months = added.get(category.getKey());
+            CategoryBudget budget = wallet.getBudget(category.getKey());
+            if (budget == null) {
+                events = add(events, BudgetEvent.noBudget(category.getValue(), months.keySet().iterator().next()));
+                continue;
+            }
+            for (Map.Entry<YearMonth, long[]> entry : months.entrySet()) {
+                YearMonth month = entry.getKey();
+                long spent = spentInCurrency(wallet, category.getKey(), month, budget.getCurrency());
+                long addedInBudgetCurrency = 0;
+                long[] byCurrency = entry.getValue();
+                for (int c = 0; c < byCurrency.length; c++) {
+                    addedInBudgetCurrency += convertOrZero(byCurrency[c], currencies.get(c), budget.getCurrency(),
+                            rateDate(month));
+                }
+                events = checkBudget(events, budget, month, spent - addedInBudgetCurrency, spent);
+            }
+        }
+        for (int c = 0; c < currencies.size(); c++) {
+            events = checkBalance(events, wallet, currencies.get(c));
+        }
+        return events;
+    }
+
+    /**
+     * Расходы категории за месяц в валюте currency. Расходы в каждой другой валюте
+     * переводятся одной суммой по курсу на {@link #rateDate(YearMonth)}; валюты без курса
+     * не учитываются. Вызывающий держит блокировку кошелька.
+     */
+    private long spentInCurrency(Wallet wallet, String category, YearMonth ym, String currency) {
+        long spent = wallet.getSpentForCategoryInMonth(category, ym, currency);
+        if (!wallet.hasForeignCurrencies() && currency.equals(Money.BASE_CURRENCY)) {
+            return spent;
+        }
+        LocalDate date = rateDate(ym);
+        for (String other : wallet.getCurrencies()) {
+            if (!other.equals(currency)) {
+                spent += convertOrZero(wallet.getSpentForCategoryInMonth(category, ym, other), other, currency, date);
+            }
+        }
+        return spent;
+    }
+
+    private long convertOrZero(long amount, String from, String to, LocalDate date) {
+        if (amount == 0 || from.equals(to)) {
+            return amount;
+        }
+        BigDecimal rate = fxRates.rate(from, to, date);
+        return rate == null ? 0 : FxRates.convert(amount, rate);
+    }
+
+    /**
+     * Дата курса для трат месяца: конец месяца, для текущего - сегодня.
+     */
+    private static LocalDate rateDate(YearMonth ym) {
+        LocalDate end = ym.atEndOfMonth();
+        LocalDate today = LocalDate.now();
+        return end.isBefore(today) ? end : today;
+    }
+
+    /**
+     * Событие, если траты за месяц, выросшие с before до after, впервые превысили лимит
+     * или достигли нового порога (при нескольких - только наибольшего).
+     */
+    private static List<BudgetEvent> checkBudget(List<BudgetEvent> events, CategoryBudget budget, YearMonth month,
+                                                 long before, long after) {
+        long limit = budget.getLimit();
+        if (after > limit) {
+            return before > limit ? events : add(events, BudgetEvent.overLimit(budget, month, after));
+        }
+        int reached = budget.highestReached(after);
+        if (reached == 0 || budget.highestReached(before) == reached) {
+            return events;
+        }
+        return add(events, BudgetEvent.threshold(budget, month, after, reached));
+    }
+
+    private static List<BudgetEvent> checkBalance(List<BudgetEvent> events, Wallet wallet, String currency) {
+        long balance = wallet.getBalance(currency);
+        return balance > 0 ? events : add(events, BudgetEvent.lowBalance(balance, currency));
+    }
+
+    // Список событий создаётся только при первом событии: обычный расход без уведомлений ничего не выделяет
+    private static List<BudgetEvent> add(List<BudgetEvent> events, BudgetEvent event) {
+        List<BudgetEvent> list = events == null ? new ArrayList<>(2) : events;
+        list.add(event);
+        return list;
+    }
+
+    private List<String> publish(List<BudgetEvent> events) {
+        if (events == null) {
+            return Collections.emptyList();
+        }
+        for (BudgetEvent.Listener listener : listeners) {
+            for (BudgetEvent event : events) {
+                listener.onBudgetEvent(event);
+            }
+        }
+        return BudgetEvent.messages(events);
+    }
+
+    /**
+     * Устанавливает месячный лимит по категории (в копейках).
+     */
+    public void setBudget(UserAccount user, String category, long limit) {
+        setBudget(user, category, limit, CategoryBudget.DEFAULT_THRESHOLDS);
+    }
+
+    /**
+     * То же с порогами предупреждений в процентах от лимита (от 1 до 100).
+     */
+    public void setBudget(UserAccount user, String category, long limit, int[] thresholds) {
+        setBudget(user, category, limit, thresholds, Money.BASE_CURRENCY);
+    }
+
+    /**
+     * То же с валютой лимита (null - базовая).
+     */
+    public void setBudget(UserAccount user, String category, long limit, int[] thresholds, String currency) {
+        validateAmount(limit);
+        validateCategory(category);
+        user.getWallet().setBudget(category, limit, thresholds, currency);
+    }
+
+    public void renameCategory(UserAccount user, String oldCategory, String newCategory) {
+        validateCategory(oldCategory);
+        validateCategory(newCategory);
+
+        Wallet wallet = user.getWallet();
+        String oldKey = Wallet.normalizeCategory(oldCategory);
+        String newKey = Wallet.normalizeCategory(newCategory);
+
+        if (oldKey.equals(newKey)) {
+            throw new IllegalArgumentException("Старая и новая категории совпадают.");
+        }
+
+        boolean hadBudget = wallet.getBudgets().containsKey(oldKey);
+        boolean foundInTx = wallet.renameCategory(oldCategory, newCategory);
+
+        if (!foundInTx && !hadBudget) {
+            throw new IllegalArgumentException("Категория '" + oldCategory + "' не найдена ни в операциях, ни в бюджетах.");
+        }
+    }
+
+    /**
+     * Сводка по текущему месяцу и бюджетам списком строк (см. {@link #writeSummary}).
+     */
+    public List<String> buildSummary(UserAccount user) {
+        StringBuilder text = new StringBuilder();
+        writeSummary(user, text);
+        return ReportWriter.toLines(text);
+    }
+
+    /**
+     * Сводка по текущему месяцу и бюджетам - сразу в out.
+     */
+    public void writeSummary(UserAccount user, Appendable out) {
+        Wallet wallet = user.getWallet();
+        // Все цифры сводки - из одного состояния кошелька
+        wallet.readLock().lock();
+        try {
+            writeSummary(wallet, new ReportWriter(out));
+        } finally {
+            wallet.readLock().unlock();
+        }
+    }
+
+    private void writeSummary(Wallet wallet, ReportWriter report) {
+        YearMonth ym = YearMonth.now();
+        LocalDate today = LocalDate.now();
+        // Суммы каждой валюты переводятся в базовую одним курсом на сегодня
+        Set<String> noRate = new TreeSet<>();
+        long balance = 0;
+        long totalIncome = 0;
+        long totalExpense = 0;
+        StringBuilder byCurrency = new StringBuilder();
+        for (Map.Entry<String, Long> e : wallet.getBalances().entrySet()) {
+            String currency = e.getKey();
+            BigDecimal rate = rateToBase(currency, today, noRate);
+            if (byCurrency.length() > 0) {
+                byCurrency.append("; ");
+            }
+            byCurrency.append(Money.format(e.getValue(), currency));
+            if (rate != null) {
+                balance += FxRates.convert(e.getValue(), rate);
+                totalIncome += FxRates.convert(wallet.getTotalByType(TransactionType.INCOME, currency), rate);
+                totalExpense += FxRates.convert(wallet.getTotalByType(TransactionType.EXPENSE, currency), rate);
+            }
+        }
+
+        if (wallet.hasForeignCurrencies()) {
+            report.line("Текущий баланс: " + Money.format(balance) + " (в " + Money.BASE_CURRENCY
+                    + " по курсу на " + today + ")");
+            report.line("Баланс по валютам: " + byCurrency);
+        } else {
+            report.line("Текущий баланс: " + Money.format(balance));
+        }
+        report.line("Всего доходов: " + Money.format(totalIncome) + ", всего расходов: " + Money.format(totalExpense));
+        report.line("");
+        report.line("Текущий месяц: " + ym.getMonthValue() + "." + ym.getYear());
+        report.line("Бюджеты и расходы по категориям (текущий месяц):");
+        report.cell("Категория", 20).cell("Потрачено", 10).cell("Лимит", 10).cell("Остаток", 10).cell("Статус", 12).endRow();
+        report.line("---------------------+------------+------------+------------+-------------");
+
+        CategoryTotals spentByCat = expensesInBase(wallet, ym, noRate);
+        Map<String, CategoryBudget> budgets = wallet.getBudgets();
+
+        if (budgets.isEmpty()) {
+            report.line("Бюджеты пока не заданы.");
+        } else {
+            for (CategoryBudget budget : budgets.values()) {
+                String currency = budget.getCurrency();
+                long spent = currency.equals(Money.BASE_CURRENCY)
+                        ? spentByCat.get(Wallet.normalizeCategory(budget.getName()))
+                        : spentInCurrency(wallet, budget.getName(), ym, currency);
+                long limit = budget.getLimit();
+                int reached = budget.highestReached(spent);
+                String status;
+                if (spent > limit) {
+                    status = "Перерасход";
+                } else if (reached > 0) {
+                    status = reached + "%+";
+                } else if (spent == 0) {
+                    status = "Не тратилось";
+                } else {
+                    status = "OK";
+                }
+                String name = currency.equals(Money.BASE_CURRENCY) ? budget.getName()
+                        : budget.getName() + " (" + currency + ")";
+                report.cell(name, 20).moneyCell(spent, 10).moneyCell(limit, 10)
+                        .moneyCell(limit - spent, 10).cell(status, 12).endRow();
+            }
+        }
+
+        // Категории, где были расходы, но бюджета нет
+        boolean extraCatsHeader = false;
+        for (int id = 0; id < spentByCat.idLimit(); id++) {
+            long spent = spentByCat.get(id);
+            String catKey = spent == 0 ? null : spentByCat.name(id);
+            if (catKey != null && !budgets.containsKey(catKey)) {
+                if (!extraCatsHeader) {
+                    report.line("");
+                    report.line("Категории без бюджета:");
+                    report.cell("Категория", 20).cell("Потрачено", 10).endRow();
+                    report.line("---------------------+------------");
+                    extraCatsHeader = true;
+                }
+                report.cell(catKey, 20).moneyCell(spent, 10).endRow();
+            }
+        }
+        writeMissingRates(report, noRate, today);
+    }
+
+    /**
+     * Расходы за месяц по категориям в базовой валюте: расходы каждой валюты по каждой
+     * категории переводятся одной суммой, а не по операциям.
+     */
+    private CategoryTotals expensesInBase(Wallet wallet, YearMonth ym, Set<String> noRate) {
+        CategoryTotals base = wallet.getExpensesByCategoryForMonth(ym, Money.BASE_CURRENCY);
+        if (!wallet.hasForeignCurrencies()) {
+            return base;
+        }
+        LocalDate date = rateDate(ym);
+        for (String currency : wallet.getCurrencies()) {
+            if (currency.equals(Money.BASE_CURRENCY)) {
+                continue;
+            }
+            CategoryTotals spent = wallet.getExpensesByCategoryForMonth(ym, currency);
+            if (spent.isEmpty()) {
+                continue;
+            }
+            BigDecimal rate = rateToBase(currency, date, noRate);
+            if (rate == null) {
+                continue;
+            }
+            for (int id = 0; id < spent.idLimit(); id++) {
+                if (spent.get(id) != 0) {
+                    base.add(id, FxRates.convert(spent.get(id), rate));
+                }
+            }
+        }
+        return base;
+    }
+
+    // Курс currency -> базовая валюта; если курса нет - null, а валюта запоминается в noRate
+    private BigDecimal rateToBase(String currency, LocalDate date, Set<String> noRate) {
+        BigDecimal rate = fxRates.rate(currency, Money.BASE_CURRENCY, date);
+        if (rate == null) {
+            noRate.add(currency);
+        }
+        return rate;
+    }
+
+    private static void writeMissingRates(ReportWriter report, Set<String> noRate, LocalDate date) {
+        if (noRate.isEmpty()) {
+            return;
+        }
+        report.line("");
+        for (String currency : noRate) {
+            report.line("Нет курса " + currency + "/" + Money.BASE_CURRENCY + " на " + date
+                    + ": суммы в " + currency + " не вошли в итоги.");
+        }
+    }
+
+    /**
+     * Отчёт по выборке списком строк, все операции без ограничения (см. {@link #writeFilteredReport}).
+     */
+    public List<String> buildFilteredReport(UserAccount user, LocalDate from, LocalDate to, Set<String> categories) {
+        StringBuilder text = new StringBuilder();
+        writeFilteredReport(user, from, to, categories, 0, Integer.MAX_VALUE, text);
+        return ReportWriter.toLines(text);
+    }
+
+    /**
+     * Отчёт по выборке: период (границы включаются, null - без ограничения) и (опционально)
+     * несколько категорий. Строки операций пишутся в out по мере чтения, так что память
+     * не зависит от числа операций. Из подходящих операций (по дате) показываются не больше
+     * limit, начиная с offset, - итоги считаются по всем: целые месяцы из помесячных итогов,
+     * перебором - только операции крайних месяцев (см. {@link Wallet#getPeriodTotals}).
+     * Поэтому страница длинной выборки не перебирает операции дальше своего конца.
+     *
+     * Пока отчёт пишется, кошелёк открыт только для чтения: медленный приёмник задерживает
+     * изменения этого кошелька, но не других.
+     *
+     * @return сколько операций подошло под выборку
+     */
+    public int writeFilteredReport(UserAccount user, LocalDate from, LocalDate to, Set<String> categories,
+                                   int offset, int limit, Appendable out) {
+        if (offset < 0 || limit <= 0) {
+            throw new IllegalArgumentException("Неверная страница отчёта.");
+        }
+        Wallet wallet = user.getWallet();
+        // Операции и итоги отчёта - из одного состояния кошелька
+        wallet.readLock().lock();
+        try {
+            return writeFilteredReport(wallet, from, to, categories, offset, limit, new ReportWriter(out));
+        } finally {
+            wallet.readLock().unlock();
+        }
+    }
+
+    private int writeFilteredReport(Wallet wallet, LocalDate from, LocalDate to, Set<String> categories,
+                                    int offset, int limit, ReportWriter report) {
+        String periodStr;
+        if (from == null && to == null) periodStr = "все даты";
+        else if (from != null && to == null) periodStr = "с " + from + " и позже";
+        else if (from == null) periodStr = "до " + to;
+        else periodStr = "c " + from + " по " + to;
+
+        String catsStr;
+        if (categories == null || categories.isEmpty()) catsStr = "все категории";
+        else catsStr = String.join(", ", categories);
+
+        report.line("Период: " + periodStr);
+        report.line("Категории: " + catsStr);
+        report.line("");
+
+        // Фильтр по столбцам: даты сравниваются как числа, категории - по id из словаря
+        TransactionColumns columns = wallet.getColumns();
+        int fromDay = from == null ? Integer.MIN_VALUE : (int) from.toEpochDay();
+        int toDay = to == null ? Integer.MAX_VALUE : (int) to.toEpochDay();
+        boolean[] allowedCategories = wallet.categoryMask(categories);
+
+        // Итоги и число подходящих операций - из помесячных итогов и операций крайних месяцев;
+        // строки перебираются только до конца страницы
+        MonthlyRollup.Totals[] totals = wallet.periodTotalsByCurrency(from, to, categories, parallelThreshold);
+        long count = 0;
+        for (MonthlyRollup.Totals currencyTotals : totals) {
+            count += currencyTotals.count();
+        }
+        int matched = (int) count;
+
+        int start = columns.lowerBound(fromDay);
+        int end = columns.upperBound(toDay);
+        int rank = start;
+        int skipped = 0;
+        if (allowedCategories == null) {
+            // Без фильтра по категориям подходит каждая операция периода - начало страницы известно сразу
+            rank = (int) Math.min((long) start + offset, end);
+            skipped = offset;
+        }
+        int shown = 0;
+        for (; rank < end && shown < limit; rank++) {
+            int i = columns.byDay(rank);
+            if (allowedCategories != null && !allowedCategories[columns.categoryId(i)]) continue;
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            if (shown++ == 0) {
+                report.line("Операции:");
+                report.cell("Дата", 10).cell("Тип", 7).cell("Категория", 15).cell("Сумма", 10)
+                        .cell("Описание", 0).endRow();
+                report.line("-----------+---------+-----------------+------------+------------------------");
+            }
+            report.dateCell(columns.day(i), 10)
+                    .cell(columns.type(i) == TransactionType.INCOME ? "Доход" : "Расход", 7)
+                    .cell(columns.category(i), 15)
+                    .moneyCell(columns.amountMinor(i), columns.currency(i), 10)
+                    .cell(columns.description(i), 0)
+                    .endRow();
+        }
+
+        if (matched == 0) {
+            report.line("Нет данных для указанного периода/категорий.");
+            return 0;
+        }
+        if (shown < matched) {
+            report.line("");
+            report.line(shown == 0
+                    ? "На этой странице операций нет, всего подходит: " + matched + "."
+                    : "Показаны операции " + (offset + 1) + "-" + (offset + shown) + " из " + matched + ".");
+        }
+
+        // Итоги каждой валюты переводятся в базовую одной суммой по курсу на конец периода
+        LocalDate today = LocalDate.now();
+        LocalDate rateDate = to == null || to.isAfter(today) ? today : to;
+        TransactionColumns.StringPool currencies = columns.currencyPool();
+        MonthlyRollup.Totals sums = new MonthlyRollup.Totals(wallet.getCategoryKeys());
+        Set<String> noRate = new TreeSet<>();
+        List<String> foreign = new ArrayList<>();
+        for (int c = 0; c < currencies.size(); c++) {
+            MonthlyRollup.Totals currencyTotals = totals[c];
+            if (currencyTotals.count() == 0) {
+                continue;
+            }
+            String currency = currencies.get(c);
+            BigDecimal rate = rateToBase(currency, rateDate, noRate);
+            if (!currency.equals(Money.BASE_CURRENCY)) {
+                foreign.add("  " + currency + ": доходы " + Money.format(currencyTotals.get(TransactionType.INCOME))
+                        + ", расходы " + Money.format(currencyTotals.get(TransactionType.EXPENSE)));
+            }
+            if (rate == null) {
+                continue;
+            }
+            for (TransactionType type : TransactionType.values()) {
+                CategoryTotals byCat = currencyTotals.byCategory(type);
+                for (int id = 0; id < byCat.idLimit(); id++) {
+                    if (byCat.get(id) != 0) {
+                        sums.add(type, id, FxRates.convert(byCat.get(id), rate));
+                    }
+                }
+            }
+        }
+
+        report.line("");
+        report.line("Всего доходов: " + Money.format(sums.get(TransactionType.INCOME)));
+        report.line("Всего расходов: " + Money.format(sums.get(TransactionType.EXPENSE)));
+        if (!foreign.isEmpty()) {
+            report.line("Итоги - в " + Money.BASE_CURRENCY + " по курсу на " + rateDate + "; в других валютах:");
+            Collections.sort(foreign);
+            for (String line : foreign) {
+                report.line(line);
+            }
+        }
+
+        CategoryTotals expenseByCat = sums.byCategory(TransactionType.EXPENSE);
+        if (!expenseByCat.isEmpty()) {
+            report.line("");
+            report.line("Расходы по категориям:");
+            report.cell("Категория", 20).cell("Потрачено", 10).endRow();
+            report.line("---------------------+------------");
+            for (int id = 0; id < expenseByCat.idLimit(); id++) {
+                long spent = expenseByCat.get(id);
+                if (spent != 0) {
+                    report.cell(expenseByCat.name(id), 20).moneyCell(spent, 10).endRow();
+                }
+            }
+        }
+        writeMissingRates(report, noRate, rateDate);
+        return matched;
+    }
+
+    /**
+     * Экспорт всех операций. Если имя файла оканчивается на ".gz", файл сжимается gzip.
+     */
+    public void exportTransactionsToCsv(UserAccount user, String filename) throws IOException {
+        exportTransactionsToCsv(user, filename, null, null, null);
+    }
+
+    /**
+     * Экспорт операций за период (границы включаются, null - без ограничения)
+     * по выбранным категориям (null или пусто - все).
+     *
+     * @return количество выгруженных операций
+     */
+    public int exportTransactionsToCsv(UserAccount user, String filename, LocalDate from, LocalDate to,
+                                       Set<String> categories) throws IOException {
+        Wallet wallet = user.getWallet();
+        wallet.readLock().lock();
+        try {
+            TransactionColumns columns = wallet.getColumns();
+            return CsvExporter.export(columns, Paths.get(filename),
+                    from == null ? Integer.MIN_VALUE : (int) from.toEpochDay(),
+                    to == null ? Integer.MAX_VALUE : (int) to.toEpochDay(),
+                    wallet.categoryMask(categories),
+                    filename.endsWith(".gz"));
+        } finally {
+            wallet.readLock().unlock();
+        }
+    }
+
+    /**
+     * Импортирует операции из CSV одной пачкой через {@link #addTransactions(UserAccount, TransactionColumns)}.
+     * Ошибочные строки не прерывают импорт, а попадают в отчёт вместе с уведомлениями по бюджетам.
+     */
+    public CsvImporter.Report importTransactionsFromCsv(UserAccount user, String filename) throws IOException {
+        CsvImporter.Result result = new CsvImporter().parse(Paths.get(filename));
+        List<String> notifications = addTransactions(user, result.getTransactions());
+        return result.getReport().withNotifications(notifications);
+    }
+
+    /**
+     * spent >= percent% от limit, без округлений double.
+     */
+    static boolean reachedPercent(long spent, long limit, int percent) {
+        return spent * 100 >= limit * percent;
+    }
+
+    private void validateAmount(long amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Сумма должна быть больше нуля.");
+        }
+    }
+
+    private void validateCategory(String category) {
+        if (category == null || category.trim().isEmpty()) {
+            throw new IllegalArgumentException("Категория не может быть пустой.");
+        }
+    }
+}
+
+// ================== ХРАНЕНИЕ ДАННЫХ ==================
+
+/**
+ * Класс для сохранения/загрузки состояния в файл.
+ *
+ * Снимок данных разбит на шарды finance.dat.0 ... finance.dat.N-1 (двоичный формат
+ * {@link SnapshotFormat}), пользователь попадает в шард по хэшу своего ключа
+ * (нормализованного логина). Сохраняются только шарды, изменённые с прошлого сохранения,
+ * при старте шарды читаются параллельно, а повреждённый шард откладывается в сторону,
+ * не мешая загрузке остальных. Число шардов - свойство finance.store.shards; при его смене
+ * пользователи переезжают в новые шарды при следующем сохранении. Файл finance.dat
+ * без номера - данные до разбиения: он читается, пока существует, и удаляется после того,
+ * как все шарды записаны.
+ *
+ * Файл шарда заменяется атомарно и только после fsync, в заголовке хранит контрольную
+ * сумму, а предыдущая версия остаётся рядом (.prev) и читается, если новая повреждена.
+ *
+ * Снимок дополняется журналом изменений (finance.journal):
+ * при загрузке к снимку применяется хвост журнала, при сохранении снимка журнал очищается.
+ * Сохранение может идти в фоне ({@link AutoSaver}): по мере роста журнала и раз в интервал.
+ * Политика fsync журнала задаётся свойством finance.journal.fsync (always, batch, off),
+ * частота сжатия журнала в снимок - свойством finance.journal.compactEvery.
+ */
+class DataStore {
+    private static final String DATA_FILE = "finance.dat";
+    private static final String JOURNAL_FILE = "finance.journal";
+    private static final String FX_RATES_FILE = System.getProperty("finance.fx.rates", "fx_rates.csv");
+
+    static final int COMPACT_EVERY = Integer.getInteger("finance.journal.compactEvery", 10_000);
+    static final int SHARDS = Integer.getInteger("finance.store.shards", 16);
+
+    public static AppData load() {
+        return load(new File(DATA_FILE), new File(JOURNAL_FILE));
+    }
+
+    static AppData load(File dataFile, File journalFile) {
+        AppData data;
+        ToLongFunction<String> snapshotSeq;
+        if (dataFile.exists() || shardIndexes(dataFile).isEmpty()) {
+            data = loadSnapshot(dataFile);
+            long seq = data.getJournalSeq();
+            snapshotSeq = key -> seq;
+        } else {
+            data = new AppData();
+            snapshotSeq = loadShards(dataFile, data);
+        }
+        try {
+            // Отделённый сегмент (сохранение не успело завершиться) старше основного файла
+            int replayed = Journal.replay(sealedJournal(journalFile), data, snapshotSeq)
+                    + Journal.replay(journalFile.toPath(), data, snapshotSeq);
+            if (replayed > 0) {
+                System.out.println("Восстановлено изменений из журнала: " + replayed);
+            }
+        } catch (IOException e) {
+            System.out.println("Не удалось применить журнал (" + e.getMessage() + ").");
+        }
+        data.attachWalletCache(data.getWalletCache());
+        return data;
+    }
+
+    /**
+     * Загружает таблицу курсов (файл из свойства finance.fx.rates, по умолчанию fx_rates.csv).
+     * Нет файла или он с ошибкой - работаем без курсов: суммы в других валютах не переводятся.
+     */
+    public static void loadFxRates(AppData data) {
+        File file = new File(FX_RATES_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            data.setFxRates(FxRates.load(file.toPath()));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Не удалось загрузить курсы валют (" + e.getMessage() + ").");
+        }
+    }
+
+    private static AppData loadSnapshot(File file) {
+        if (!file.exists()) {
+            return new AppData();
+        }
+        try {
+            if (isLegacyFormat(file)) {
+                return migrateLegacy(file);
+            }
+            return readSnapshot(file);
+        } catch (Exception e) {
+            quarantine(file, e);
+            return new AppData();
+        }
+    }
+
+    private static AppData readSnapshot(File file) throws IOException {
+        // Файл отображается в память: при старте читается только каталог пользователей
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return SnapshotFormat.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Читает шарды в data.
+     *
+     * @return номера записей журнала, уже вошедших в снимок каждого пользователя
+     */
+    private static ShardSeqs loadShards(File dataFile, AppData data) {
+        List<Integer> indexes = shardIndexes(dataFile);
+        // Шарды независимы и читаются параллельно; повреждённый даёт null
+        List<AppData> parts = indexes.parallelStream()
+                .map(shard -> readShard(shardFile(dataFile, shard)))
+                .collect(Collectors.toList());
+        ShardSeqs seqs = new ShardSeqs();
+        data.markClean();
+        for (int i = 0; i < indexes.size(); i++) {
+            int index = indexes.get(i);
+            AppData part = parts.get(i);
+            if (part == null) {
+                // Пользователей повреждённого шарда нет, и записи журнала о них применить не к чему
+                if (index < SHARDS) {
+                    seqs.byShard[index] = Long.MAX_VALUE;
+                }
+                continue;
+            }
+            long seq = part.getJournalSeq();
+            data.setJournalSeq(Math.max(data.getJournalSeq(), seq));
+            if (!shardFile(dataFile, index).exists()) {
+                data.markShardDirty(index); // прочитана предыдущая версия - шард пишется заново
+            }
+            if (index < SHARDS) {
+                seqs.byShard[index] = seq;
+            } else {
+                data.markShardDirty(index); // шард сверх текущего числа удаляется при сохранении
+            }
+            for (Map.Entry<String, UserAccount> e : part.getUsers().entrySet()) {
+                String key = e.getKey();
+                data.getUsers().put(key, e.getValue());
+                int shard = shardOf(key);
+                if (shard != index) {
+                    // Число шардов сменилось: пользователь переедет при следующем сохранении
+                    seqs.moved.put(key, seq);
+                    data.markShardDirty(shard);
+                    data.markShardDirty(index);
+                }
+            }
+        }
+        return seqs;
+    }
+
+    /**
+     * Читает шард; повреждённый файл откладывается в сторону, а вместо него читается
+     * предыдущая версия (.prev). Если нет и её - загрузка идёт без этого шарда.
+     */
+    private static AppData readShard(File file) {
+        if (file.exists()) {
+            try {
+                return readSnapshot(file);
+            } catch (IOException | RuntimeException e) {
+                quarantine(file, e);
+            }
+        }
+        File previous = previousFile(file);
+        if (!previous.exists()) {
+            return null;
+        }
+        try {
+            AppData data = readSnapshot(previous);
+            System.out.println("Загружена предыдущая версия " + file.getName()
+                    + ": изменения последнего сохранения могут быть потеряны.");
+            return data;
+        } catch (IOException | RuntimeException e) {
+            quarantine(previous, e);
+            return null;
+        }
+    }
+
+    /**
+     * Переименовывает повреждённый файл данных (суффикс .corrupt-время), чтобы следующее
+     * сохранение его не затёрло и данные можно было восстановить вручную.
+     */
+    private static void quarantine(File file, Exception cause) {
+        File aside = new File(file.getPath() + ".corrupt-" + System.currentTimeMillis());
+        try {
+            Files.move(file.toPath(), aside.toPath());
+            System.out.println("Не удалось загрузить " + file.getName() + " (" + cause.getMessage()
+                    + "), файл перенесён в " + aside.getName() + ".");
+        } catch (IOException e) {
+            System.out.println("Не удалось загрузить " + file.getName() + " (" + cause.getMessage()
+                    + ") и перенести его в сторону: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Шард пользователя по его ключу (нормализованному логину).
+     */
+    static int shardOf(String key) {
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), SHARDS);
+    }
+
+    static File shardFile(File dataFile, int shard) {
+        return new File(dataFile.getPath() + "." + shard);
+    }
+
+    /**
+     * Номера шардов, файлы которых (или их предыдущие версии) есть рядом с dataFile,
+     * по возрастанию.
+     */
+    static List<Integer> shardIndexes(File dataFile) {
+        String prefix = dataFile.getName() + ".";
+        String[] names = dataFile.getAbsoluteFile().getParentFile().list();
+        Set<Integer> indexes = new TreeSet<>();
+        if (names == null) {
+            return new ArrayList<>(indexes);
+        }
+        for (String name : names) {
+            String suffix = name.startsWith(prefix) ? name.substring(prefix.length()) : "";
+            if (suffix.endsWith(".prev")) {
+                suffix = suffix.substring(0, suffix.length() - ".prev".length());
+            }
+            if (!suffix.isEmpty() && suffix.length() <= 6 && suffix.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                indexes.add(Integer.parseInt(suffix));
+            }
+        }
+        return new ArrayList<>(indexes);
+    }
+
+    /**
+     * Номер последней записи журнала, вошедшей в шард каждого пользователя.
+     */
+    private static final class ShardSeqs implements ToLongFunction<String> {
+        final long[] byShard = new long[SHARDS];
+        final Map<String, Long> moved = new HashMap<>(); // пользователи из шарда с другим номером
+
+        @Override
+        public long applyAsLong(String key) {
+            Long seq = moved.get(key);
+            return seq != null ? seq : byShard[shardOf(key)];
+        }
+    }
+
+    /**
+     * Файл в старом формате (Java-сериализация) начинается с STREAM_MAGIC.
+     */
+    static boolean isLegacyFormat(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return file.length() >= 2 && in.readShort() == ObjectStreamConstants.STREAM_MAGIC;
+        }
+    }
+
+    /**
+     * Однократный перевод файла из Java-сериализации в двоичный формат.
+     * Исходный файл сохраняется рядом с расширением .legacy.
+     */
+    static AppData migrateLegacy(File file) throws IOException, ClassNotFoundException {
+        AppData data;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            Object obj = in.readObject();
+            if (!(obj instanceof AppData)) {
+                throw new IOException("Формат файла данных не распознан");
+            }
+            data = (AppData) obj;
+        }
+        File backup = new File(file.getPath() + ".legacy");
+        Files.copy(file.toPath(), backup.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        writeSnapshot(data, file);
+        System.out.println("Файл данных переведён в новый формат (копия старого: " + backup.getName() + ").");
+        return data;
+    }
+
+    private static void writeSnapshot(AppData data, File file) throws IOException {
+        writeFile(SnapshotFormat.encode(data.getUsers(), data.getJournalSeq()), file);
+    }
+
+    /**
+     * Файл пишется во временный, сбрасывается на диск (fsync) и атомарно подменяет основной:
+     * падение посреди записи не оставит обрезанного файла. Перезапись на месте недопустима
+     * ещё и потому, что старый файл может быть отображён в память, и испортились бы
+     * не загруженные кошельки. Прежняя версия остаётся рядом (.prev) - на случай,
+     * если новую не удастся прочитать.
+     */
+    private static void writeFile(byte[] bytes, File file) throws IOException {
+        Path target = file.toPath();
+        Path tmp = Paths.get(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+        if (Files.exists(target)) {
+            keepPrevious(target);
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target);
+    }
+
+    static File previousFile(File file) {
+        return new File(file.getPath() + ".prev");
+    }
+
+    // Жёсткая ссылка на прежнюю версию - без копирования; где ссылок нет, файл копируется
+    private static void keepPrevious(Path file) throws IOException {
+        Path previous = previousFile(file.toFile()).toPath();
+        Files.deleteIfExists(previous);
+        try {
+            Files.createLink(previous, file);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(file, previous, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // fsync каталога, чтобы переименование пережило отключение питания
+    private static void syncDirectory(Path file) {
+        try (FileChannel dir = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Не везде каталог открывается как файл (Windows) - там остаётся атомарность переименования
+        }
+    }
+
+    static Path sealedJournal(File journalFile) {
+        return Paths.get(journalFile.getPath() + ".sealed");
+    }
+
+    public static void save(AppData data) {
+        save(data, new File(DATA_FILE), new File(JOURNAL_FILE));
+    }
+
+    /**
+     * Пишет изменённые шарды снимка и очищает журнал. Каждый шард хранит номер последней
+     * вошедшей в него записи, поэтому падение между этими шагами не приведёт
+     * к повторному применению записей.
+     *
+     * Изменения данных ждут только кодирования шардов в память (и отделения журнала,
+     * {@link Journal#seal}); запись на диск идёт уже без блокировки, и отделённый сегмент
+     * журнала удаляется, лишь когда все шарды на диске.
+     */
+    static void save(AppData data, File dataFile, File journalFile) {
+        Lock lock = data.saveLock();
+        lock.lock();
+        try {
+            saveSnapshot(data, dataFile, journalFile);
+            trimWalletCache(data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Выгружает давно не использованные кошельки, если их больше, чем позволяет кэш.
+     * Сохранение только что перевело их на секции нового файла, так что выгружаемые
+     * кошельки есть на диске. Изменения на это время ждут: ни одно не должно держать
+     * ссылку на выгружаемый кошелёк.
+     */
+    private static void trimWalletCache(AppData data) {
+        WalletCache cache = data.getWalletCache();
+        if (!cache.isOverflowing()) {
+            return;
+        }
+        Lock lock = data.snapshotLock();
+        lock.lock();
+        try {
+            cache.trim();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void saveSnapshot(AppData data, File dataFile, File journalFile) {
+        Journal journal = data.getJournal();
+        PendingSnapshot snapshot;
+        Lock lock = data.snapshotLock();
+        lock.lock();
+        try {
+            if (journal != null) {
+                data.setJournalSeq(journal.getLastSeq());
+            }
+            // Без журнала изменения не отслеживаются - записываются все шарды
+            Set<Integer> dirty = data.takeDirtyShards();
+            snapshot = new PendingSnapshot(dataFile, journal == null ? null : dirty);
+            try {
+                snapshot.encode(data);
+                if (journal != null) {
+                    journal.seal(sealedJournal(journalFile));
+                }
+            } catch (IOException | RuntimeException e) {
+                snapshot.restoreDirty(data);
+                System.out.println("Ошибка при сохранении данных: " + e.getMessage());
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            snapshot.write();
+        } catch (IOException e) {
+            // Отделённый журнал остаётся, а шарды - изменёнными до следующего сохранения
+            snapshot.restoreDirty(data);
+            System.out.println("Ошибка при сохранении данных: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.deleteIfExists(sealedJournal(journalFile));
+            if (journal == null) {
+                Files.deleteIfExists(journalFile.toPath());
+            }
+        } catch (IOException e) {
+            System.out.println("Ошибка при очистке журнала: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Шарды, закодированные под блокировкой и ждущие записи на диск.
+     */
+    private static final class PendingSnapshot {
+        private final File dataFile;
+        private final Set<Integer> dirty; // null - все шарды
+        private final Map<Integer, byte[]> encoded = new TreeMap<>();
+        private final Set<Integer> stale = new TreeSet<>(); // шарды сверх текущего числа
+        // Пользователи записываемых шардов и состояние их кошельков на момент кодирования
+        private final Map<Integer, Map<String, UserAccount>> users = new HashMap<>();
+        private final Map<String, UserAccount.WalletMark> marks = new HashMap<>();
+
+        PendingSnapshot(File dataFile, Set<Integer> dirty) {
+            this.dataFile = dataFile;
+            this.dirty = dirty;
+        }
+
+        /**
+         * Кодирует пользователей шардов dirty. Ключи перебираются все, но кодируются
+         * только пользователи этих шардов.
+         */
+        void encode(AppData data) throws IOException {
+            Set<Integer> shards = new TreeSet<>();
+            if (dirty == null) {
+                for (int shard = 0; shard < SHARDS; shard++) {
+                    shards.add(shard);
+                }
+                shards.addAll(shardIndexes(dataFile));
+            } else {
+                shards.addAll(dirty);
+            }
+            for (int shard : shards) {
+                if (shard < SHARDS) {
+                    users.put(shard, new HashMap<>());
+                } else {
+                    stale.add(shard);
+                }
+            }
+            for (Map.Entry<String, UserAccount> e : data.getUsers().entrySet()) {
+                Map<String, UserAccount> shardUsers = users.get(shardOf(e.getKey()));
+                if (shardUsers != null) {
+                    shardUsers.put(e.getKey(), e.getValue());
+                    // До кодирования: изменение, вошедшее в шард лишь частично, не даст перепривязать кошелёк
+                    marks.put(e.getKey(), e.getValue().markWallet());
+                }
+            }
+            for (Map.Entry<Integer, Map<String, UserAccount>> e : users.entrySet()) {
+                encoded.put(e.getKey(), SnapshotFormat.encode(e.getValue(), data.getJournalSeq()));
+            }
+        }
+
+        /**
+         * Пишет шарды (при записи всех - ещё и удаляет файл данных до разбиения на шарды).
+         */
+        void write() throws IOException {
+            for (Map.Entry<Integer, byte[]> e : encoded.entrySet()) {
+                File file = shardFile(dataFile, e.getKey());
+                writeFile(e.getValue(), file);
+                rebind(file, users.get(e.getKey()));
+            }
+            // Файлы, прочитанные иначе, чем теперь записаны: их пользователи уже в новых шардах
+            for (int shard : stale) {
+                Files.deleteIfExists(shardFile(dataFile, shard).toPath());
+                Files.deleteIfExists(previousFile(shardFile(dataFile, shard)).toPath());
+            }
+            if (dirty == null) {
+                Files.deleteIfExists(dataFile.toPath());
+                Files.deleteIfExists(previousFile(dataFile).toPath());
+            }
+        }
+
+        /**
+         * Переводит кошельки шарда на секции записанного файла: не изменённые с момента
+         * кодирования можно выгружать, а при следующем сохранении - копировать без разбора.
+         */
+        private void rebind(File file, Map<String, UserAccount> shardUsers) {
+            Map<String, SnapshotFormat.WalletSection> sections;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                sections = SnapshotFormat.readSections(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IOException e) {
+                return; // шард уже на диске; кошельки остаются на прежних секциях и в памяти
+            }
+            for (Map.Entry<String, UserAccount> e : shardUsers.entrySet()) {
+                SnapshotFormat.WalletSection section = sections.get(e.getKey());
+                if (section != null) {
+                    e.getValue().rebindWalletSection(section, marks.get(e.getKey()));
+                }
+            }
+        }
+
+        void restoreDirty(AppData data) {
+            if (dirty == null) {
+                data.markAllShardsDirty();
+            } else {
+                dirty.forEach(data::markShardDirty);
+            }
+        }
+    }
+
+    /**
+     * Включает журналирование изменений для data.
+     */
+    public static void openJournal(AppData data) throws IOException {
+        openJournal(data, new File(JOURNAL_FILE),
+                Journal.FsyncPolicy.parse(System.getProperty("finance.journal.fsync")));
+    }
+
+    static void openJournal(AppData data, File journalFile, Journal.FsyncPolicy policy) throws IOException {
+        data.attachJournal(Journal.open(journalFile.toPath(), policy, data.getJournalSeq(), data::markDirty));
+    }
+
+    /**
+     * Сжимает журнал в снимок, если в нём накопилось достаточно записей.
+     * При включённом автосохранении снимок пишется в его потоке, и вызов не ждёт диска.
+     */
+    public static void compactIfNeeded(AppData data) {
+        if (!needsCompaction(data)) {
+            return;
+        }
+        AutoSaver saver = data.getAutoSaver();
+        if (saver != null) {
+            saver.requestSave();
+            return;
+        }
+        Lock lock = data.saveLock();
+        lock.lock();
+        try {
+            // Пока ждали блокировку, журнал мог сжать другой сеанс
+            if (needsCompaction(data)) {
+                save(data);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Включает фоновое сохранение: по запросу {@link #compactIfNeeded} и раз в интервал
+     * (свойство finance.autosave.intervalSec), если есть несохранённые изменения.
+     */
+    public static void startAutosave(AppData data) {
+        startAutosave(data, new File(DATA_FILE), new File(JOURNAL_FILE), AutoSaver.INTERVAL_MILLIS);
+    }
+
+    static void startAutosave(AppData data, File dataFile, File journalFile, long intervalMillis) {
+        data.setAutoSaver(new AutoSaver(() -> save(data, dataFile, journalFile), () -> hasChanges(data), intervalMillis));
+    }
+
+    /**
+     * Останавливает фоновое сохранение, дождавшись уже начатого.
+     */
+    public static void stopAutosave(AppData data) {
+        AutoSaver saver = data.getAutoSaver();
+        if (saver != null) {
+            data.setAutoSaver(null);
+            saver.close();
+        }
+    }
+
+    /**
+     * Есть ли несохранённые изменения. Без журнала они не отслеживаются - считается, что есть.
+     */
+    static boolean hasChanges(AppData data) {
+        Journal journal = data.getJournal();
+        return journal == null || journal.getRecordsSinceSnapshot() > 0 || data.hasDirtyShards();
+    }
+
+    private static boolean needsCompaction(AppData data) {
+        Journal journal = data.getJournal();
+        return journal != null && journal.getRecordsSinceSnapshot() >= COMPACT_EVERY;
+    }
+
+    public static void closeJournal(AppData data) {
+        Journal journal = data.getJournal();
+        if (journal == null) {
+            return;
+        }
+        data.attachJournal(null);
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("Ошибка при закрытии журнала: " + e.getMessage());
         }
     }
 }
@@ -0,0 +1,248 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Локальная таблица курсов валют. Файл - строки "дата,из,в,курс", например
+ * "2025-01-15,USD,RUB,92.35" (1 USD = 92.35 RUB); строка заголовка, пустые строки
+ * и строки с '#' пропускаются.
+ *
+ * Курс пары действует с даты записи до следующей записи той же пары. Если прямой пары
+ * нет, берётся обратная (1 / курс), а если нет и её - пересчёт через базовую валюту.
+ * Найденный курс для (пара, дата) запоминается в LRU-кэше: отчёты переводят суммы
+ * по группам (валюта) и спрашивают одни и те же пары и даты много раз.
+ *
+ * Таблица после загрузки не меняется, кэш синхронизирован - объект можно делить между потоками.
+ */
+final class FxRates {
+
+    static final int DEFAULT_CACHE_SIZE = Integer.getInteger("finance.fx.cacheSize", 1024);
+
+    private static final MathContext PRECISION = MathContext.DECIMAL64;
+    private static final BigDecimal NO_RATE = BigDecimal.valueOf(-1); // в кэше: курса нет
+
+    private final Map<String, Series> series; // "USD/RUB" -> курсы по датам
+    private final Map<RateKey, BigDecimal> cache;
+
+    private FxRates(Map<String, Series> series, int cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Размер кэша курсов должен быть больше нуля.");
+        }
+        this.series = series;
+        this.cache = new LinkedHashMap<RateKey, BigDecimal>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RateKey, BigDecimal> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Таблица без курсов: переводить можно только валюту саму в себя.
+     */
+    static FxRates empty() {
+        return new FxRates(Collections.emptyMap(), 1);
+    }
+
+    static FxRates load(Path file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(in, DEFAULT_CACHE_SIZE);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException если строка таблицы не разбирается (с номером строки)
+     */
+    static FxRates parse(Reader reader, int cacheSize) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        Map<String, List<long[]>> days = new HashMap<>();
+        Map<String, List<BigDecimal>> rates = new HashMap<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#") || (lineNumber == 1 && line.toLowerCase(Locale.ROOT).startsWith("date"))) {
+                continue;
+            }
+            String[] parts = line.split(",");
+            try {
+                if (parts.length != 4) {
+                    throw new IllegalArgumentException("нужно 4 столбца: дата,из,в,курс");
+                }
+                int day = (int) LocalDate.parse(parts[0].trim()).toEpochDay();
+                String pair = pair(Money.normalizeCurrency(parts[1]), Money.normalizeCurrency(parts[2]));
+                BigDecimal rate = new BigDecimal(parts[3].trim());
+                if (rate.signum() <= 0) {
+                    throw new IllegalArgumentException("курс должен быть больше нуля");
+                }
+                List<long[]> pairDays = days.computeIfAbsent(pair, p -> new ArrayList<>());
+                pairDays.add(new long[]{day, pairDays.size()});
+                rates.computeIfAbsent(pair, p -> new ArrayList<>()).add(rate);
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new IllegalArgumentException("Таблица курсов, строка " + lineNumber + ": " + line, e);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Таблица курсов, строка " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        Map<String, Series> series = new HashMap<>();
+        for (Map.Entry<String, List<long[]>> e : days.entrySet()) {
+            series.put(e.getKey(), new Series(e.getValue(), rates.get(e.getKey())));
+        }
+        return new FxRates(series, cacheSize);
+    }
+
+    /**
+     * Сколько единиц to стоит единица from на дату date; null, если курса нет.
+     */
+    BigDecimal rate(String from, String to, LocalDate date) {
+        if (from.equals(to)) {
+            return BigDecimal.ONE;
+        }
+        RateKey key = new RateKey(from, to, (int) date.toEpochDay());
+        BigDecimal rate;
+        synchronized (cache) {
+            rate = cache.get(key);
+        }
+        if (rate == null) {
+            rate = resolve(from, to, key.day);
+            synchronized (cache) {
+                cache.put(key, rate == null ? NO_RATE : rate);
+            }
+        }
+        return rate == NO_RATE ? null : rate;
+    }
+
+    /**
+     * Сумма в копейках from, переведённая в to (с округлением до копейки, банковским).
+     *
+     * @throws IllegalArgumentException если курса нет
+     */
+    long convert(long minor, String from, String to, LocalDate date) {
+        BigDecimal rate = rate(from, to, date);
+        if (rate == null) {
+            throw new IllegalArgumentException("Нет курса " + from + "/" + to + " на " + date + ".");
+        }
+        return convert(minor, rate);
+    }
+
+    static long convert(long minor, BigDecimal rate) {
+        if (rate.compareTo(BigDecimal.ONE) == 0) {
+            return minor;
+        }
+        return BigDecimal.valueOf(minor).multiply(rate).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+    }
+
+    /**
+     * Сколько курсов сейчас в кэше.
+     */
+    int cachedRates() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private BigDecimal resolve(String from, String to, int day) {
+        BigDecimal rate = directOrInverse(from, to, day);
+        if (rate != null || from.equals(Money.BASE_CURRENCY) || to.equals(Money.BASE_CURRENCY)) {
+            return rate;
+        }
+        BigDecimal toBase = directOrInverse(from, Money.BASE_CURRENCY, day);
+        BigDecimal fromBase = directOrInverse(Money.BASE_CURRENCY, to, day);
+        return toBase == null || fromBase == null ? null : toBase.multiply(fromBase, PRECISION);
+    }
+
+    private BigDecimal directOrInverse(String from, String to, int day) {
+        Series direct = series.get(pair(from, to));
+        BigDecimal rate = direct == null ? null : direct.at(day);
+        if (rate != null) {
+            return rate;
+        }
+        Series inverse = series.get(pair(to, from));
+        rate = inverse == null ? null : inverse.at(day);
+        return rate == null ? null : BigDecimal.ONE.divide(rate, PRECISION);
+    }
+
+    private static String pair(String from, String to) {
+        return from + "/" + to;
+    }
+
+    /**
+     * Курсы одной пары по возрастанию даты; при повторе даты действует последняя запись файла.
+     */
+    private static final class Series {
+        private final int[] days;
+        private final BigDecimal[] rates;
+
+        Series(List<long[]> entries, List<BigDecimal> values) {
+            long[][] sorted = entries.toArray(new long[0][]);
+            // по дате, при равной дате - в порядке файла
+            Arrays.sort(sorted, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+            days = new int[sorted.length];
+            rates = new BigDecimal[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                days[i] = (int) sorted[i][0];
+                rates[i] = values.get((int) sorted[i][1]);
+            }
+        }
+
+        // Последняя запись с датой не позже day
+        BigDecimal at(int day) {
+            int lo = 0;
+            int hi = days.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (days[mid] <= day) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo == 0 ? null : rates[lo - 1];
+        }
+    }
+
+    private static final class RateKey {
+        final String from;
+        final String to;
+        final int day;
+
+        RateKey(String from, String to, int day) {
+            this.from = from;
+            this.to = to;
+            this.day = day;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RateKey)) {
+                return false;
+            }
+            RateKey other = (RateKey) o;
+            return day == other.day && from.equals(other.from) && to.equals(other.to);
+        }
+
+        @Override
+        public int hashCode() {
+            return (from.hashCode() * 31 + to.hashCode()) * 31 + day;
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package org.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал изменений (write-ahead log): каждое изменение данных дописывается
+ * в конец файла компактной записью до того, как применяется в памяти.
+ * При старте снимок данных дополняется хвостом журнала.
+ *
+ * Формат записи: длина полезной нагрузки (int), номер записи (long),
+ * полезная нагрузка, CRC32 от номера и нагрузки (int).
+ */
+class Journal implements Closeable {
+
+    /**
+     * Политика сброса журнала на диск.
+     */
+    enum FsyncPolicy {
+        /** fsync после каждой записи. */
+        ALWAYS,
+        /** fsync пачками: раз в BATCH_RECORDS записей или раз в BATCH_INTERVAL_MS. */
+        BATCH,
+        /** без fsync: данные переживут падение процесса, но не ОС. */
+        OFF;
+
+        static FsyncPolicy parse(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return BATCH;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Неизвестная политика fsync: " + value);
+            }
+        }
+    }
+
+    static final int BATCH_RECORDS = 64;
+    static final long BATCH_INTERVAL_MS = 200;
+
+    private static final byte OP_REGISTER = 1;
+    private static final byte OP_TRANSACTION_DOUBLE = 2; // старые записи: сумма как double
+    private static final byte OP_BUDGET_DOUBLE = 3;      // старые записи: лимит как double
+    private static final byte OP_RENAME = 4;
+    private static final byte OP_TRANSACTION = 5;
+    private static final byte OP_BUDGET = 6;             // старые записи: пороги по умолчанию
+    private static final byte OP_BUDGET_THRESHOLDS = 7;
+    private static final byte OP_TRANSACTION_CURRENCY = 8; // операция не в базовой валюте
+    private static final byte OP_BUDGET_CURRENCY = 9;      // бюджет не в базовой валюте
+    private static final byte OP_PASSWORD = 10;            // новая хранимая строка пароля
+
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final int BLOCK_SIZE = 1 << 20; // размер блока при записи пачки операций
+    private static final int TYPICAL_RECORD_SIZE = 96;
+
+    private final Path file;
+    private FileChannel channel;
+    private final FsyncPolicy policy;
+    private final Consumer<String> onChange;
+    private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+    private final CRC32 crc = new CRC32();
+
+    private long lastSeq;
+    private int recordsSinceSnapshot;
+    private int unsynced;
+    private long lastSyncMillis = System.currentTimeMillis();
+
+    private Journal(Path file, FileChannel channel, FsyncPolicy policy, long lastSeq, Consumer<String> onChange) {
+        this.file = file;
+        this.channel = channel;
+        this.policy = policy;
+        this.lastSeq = lastSeq;
+        this.onChange = onChange;
+    }
+
+    /**
+     * Открывает журнал на дозапись. Нумерация продолжается с lastSeq.
+     */
+    static Journal open(Path file, FsyncPolicy policy, long lastSeq) throws IOException {
+        return open(file, policy, lastSeq, key -> { });
+    }
+
+    /**
+     * @param onChange получает ключ пользователя каждой записи (по нему отмечаются
+     *                 изменённые шарды файла данных)
+     */
+    static Journal open(Path file, FsyncPolicy policy, long lastSeq, Consumer<String> onChange) throws IOException {
+        return new Journal(file, openChannel(file), policy, lastSeq, onChange);
+    }
+
+    private static FileChannel openChannel(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Количество записей с момента последнего снимка.
+     */
+    synchronized int getRecordsSinceSnapshot() {
+        return recordsSinceSnapshot;
+    }
+
+    synchronized void logRegister(String key, String username, String password) {
+        begin(OP_REGISTER, key);
+        try {
+            payload.writeUTF(username);
+            payload.writeUTF(password);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        commit();
+    }
+
+    synchronized void logTransaction(String key, Transaction tx) {
+        writeTransaction(key, tx.getType(), tx.getAmount(), tx.getCategory(), tx.getDescription(),
+                tx.getDate().toEpochDay(), tx.getCurrency());
+        commit();
+    }
+
+    /**
+     * Пачка операций: запись на каждую операцию (формат тот же, что у logTransaction),
+     * но на диск они уходят крупными блоками, а fsync решается один раз на блок.
+     */
+    synchronized void logTransactions(String key, TransactionColumns batch) {
+        // Малые пачки (пакетный режим) частые: буфер по размеру пачки, а не на целый блок
+        ByteArrayOutputStream block = new ByteArrayOutputStream(
+                (int) Math.min(BLOCK_SIZE, (long) batch.size() * TYPICAL_RECORD_SIZE));
+        long seq = lastSeq;
+        int pending = 0;
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                writeTransaction(key, batch.type(i), batch.amountMinor(i), batch.category(i), batch.description(i),
+                        batch.day(i), batch.currency(i));
+                ByteBuffer record = frame(++seq);
+                block.write(record.array(), 0, record.limit());
+                pending++;
+                if (block.size() >= BLOCK_SIZE) {
+                    writeBlock(block, pending);
+                    pending = 0;
+                }
+            }
+            writeBlock(block, pending);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать журнал: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Операции в базовой валюте пишутся прежним форматом OP_TRANSACTION, остальные -
+     * OP_TRANSACTION_CURRENCY с кодом валюты в конце.
+     */
+    private void writeTransaction(String key, TransactionType type, long amount, String category,
+                                  String description, long epochDay, String currency) {
+        boolean base = currency.equals(Money.BASE_CURRENCY);
+        begin(base ? OP_TRANSACTION : OP_TRANSACTION_CURRENCY, key);
+        try {
+            payload.writeByte(type.ordinal());
+            payload.writeLong(amount);
+            payload.writeUTF(category);
+            payload.writeUTF(description == null ? "" : description);
+            payload.writeLong(epochDay);
+            if (!base) {
+                payload.writeUTF(currency);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    synchronized void logBudget(String key, String category, long limit, int[] thresholds) {
+        logBudget(key, category, limit, thresholds, Money.BASE_CURRENCY);
+    }
+
+    synchronized void logBudget(String key, String category, long limit, int[] thresholds, String currency) {
+        boolean base = currency.equals(Money.BASE_CURRENCY);
+        begin(base ? OP_BUDGET_THRESHOLDS : OP_BUDGET_CURRENCY, key);
+        try {
+            payload.writeUTF(category);
+            payload.writeLong(limit);
+            payload.writeByte(thresholds.length);
+            for (int t : thresholds) {
+                payload.writeByte(t);
+            }
+            if (!base) {
+                payload.writeUTF(currency);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        commit();
+    }
+
+    synchronized void logPassword(String key, String stored) {
+        begin(OP_PASSWORD, key);
+        try {
+            payload.writeUTF(stored);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        commit();
+    }
+
+    synchronized void logRename(String key, String oldCategory, String newCategory) {
+        begin(OP_RENAME, key);
+        try {
+            payload.writeUTF(oldCategory);
+            payload.writeUTF(newCategory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        commit();
+    }
+
+    /**
+     * Отделяет уже записанное в сегмент sealed и продолжает с пустого файла; нумерация
+     * не сбрасывается. Сегмент удаляется, когда снимок с этими записями дойдёт до диска,
+     * а до тех пор применяется при загрузке раньше основного файла.
+     * Обычно это переименование файла; если сегмент остался от неудавшегося сохранения,
+     * записи дописываются к нему.
+     */
+    synchronized void seal(Path sealed) throws IOException {
+        if (policy != FsyncPolicy.OFF && unsynced > 0) {
+            channel.force(false);
+        }
+        if (Files.exists(sealed)) {
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(sealed, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                long size = in.size();
+                for (long done = 0; done < size; ) {
+                    done += in.transferTo(done, size - done, out);
+                }
+                out.force(false);
+            }
+            channel.truncate(0);
+            channel.force(true);
+        } else {
+            channel.close();
+            try {
+                Files.move(file, sealed, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                channel = openChannel(file); // если переименовать не удалось - снова тот же файл
+            }
+        }
+        recordsSinceSnapshot = 0;
+        unsynced = 0;
+        lastSyncMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            if (policy != FsyncPolicy.OFF && unsynced > 0) {
+                channel.force(false);
+            }
+            channel.close();
+        }
+    }
+
+    private void begin(byte op, String key) {
+        payloadBytes.reset();
+        payloadBytes.write(op);
+        try {
+            payload.writeUTF(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        onChange.accept(key);
+    }
+
+    private void commit() {
+        ByteBuffer record = frame(lastSeq + 1);
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            lastSeq++;
+            recordsSinceSnapshot++;
+            unsynced++;
+            syncIfNeeded();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать журнал: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Оформляет текущую полезную нагрузку в запись с номером seq.
+     */
+    private ByteBuffer frame(long seq) {
+        int size = payloadBytes.size();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + size + Integer.BYTES);
+        record.putInt(size);
+        record.putLong(seq);
+        record.put(payloadBytes.toByteArray(), 0, size);
+        crc.reset();
+        crc.update(record.array(), Integer.BYTES, Long.BYTES + size);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private void writeBlock(ByteArrayOutputStream block, int records) throws IOException {
+        if (records == 0) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(block.toByteArray());
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        block.reset();
+        lastSeq += records;
+        recordsSinceSnapshot += records;
+        unsynced += records;
+        syncIfNeeded();
+    }
+
+    private void syncIfNeeded() throws IOException {
+        switch (policy) {
+            case ALWAYS:
+                channel.force(false);
+                unsynced = 0;
+                break;
+            case BATCH:
+                long now = System.currentTimeMillis();
+                if (unsynced >= BATCH_RECORDS || now - lastSyncMillis >= BATCH_INTERVAL_MS) {
+                    channel.force(false);
+                    unsynced = 0;
+                    lastSyncMillis = now;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    // ---------- Восстановление ----------
+
+    /**
+     * Применяет к data записи журнала с номером больше data.getJournalSeq().
+     * Недописанный или повреждённый хвост (падение во время записи) отбрасывается.
+     *
+     * @return количество применённых записей
+     */
+    static int replay(Path file, AppData data) throws IOException {
+        long snapshotSeq = data.getJournalSeq();
+        return replay(file, data, key -> snapshotSeq);
+    }
+
+    /**
+     * То же для снимка из нескольких шардов: запись применяется, если её номер больше
+     * snapshotSeq(ключ) - номера, с которым записан шард этого пользователя (после падения
+     * посреди сохранения у шардов разные номера). Пользователи применённых записей
+     * отмечаются изменёнными, а data.getJournalSeq() доводится до последнего номера в журнале.
+     */
+    static int replay(Path file, AppData data, ToLongFunction<String> snapshotSeq) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        int applied = 0;
+        int orphaned = 0;
+        long validLength = 0;
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (true) {
+                header.clear();
+                if (!readFully(channel, header)) {
+                    break;
+                }
+                header.flip();
+                int size = header.getInt();
+                long seq = header.getLong();
+                if (size <= 0 || size > MAX_RECORD_SIZE || validLength + HEADER_SIZE + size + Integer.BYTES > fileSize) {
+                    break;
+                }
+                ByteBuffer body = ByteBuffer.allocate(size + Integer.BYTES);
+                if (!readFully(channel, body)) {
+                    break;
+                }
+                crc.reset();
+                crc.update(header.array(), Integer.BYTES, Long.BYTES);
+                crc.update(body.array(), 0, size);
+                if ((int) crc.getValue() != body.getInt(size)) {
+                    break;
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array(), 0, size));
+                byte op = in.readByte();
+                String key = in.readUTF();
+                if (seq > snapshotSeq.applyAsLong(key)) {
+                    if (op != OP_REGISTER && !data.getUsers().containsKey(key)) {
+                        // Шард пользователя повреждён или прочитан в предыдущей версии
+                        orphaned++;
+                    } else {
+                        apply(data, op, key, in);
+                        data.markDirty(key);
+                        applied++;
+                    }
+                }
+                data.setJournalSeq(Math.max(data.getJournalSeq(), seq));
+                validLength += HEADER_SIZE + size + Integer.BYTES;
+            }
+            if (validLength < fileSize) {
+                System.out.println("Журнал повреждён в конце, отброшено байт: " + (fileSize - validLength));
+                channel.truncate(validLength);
+            }
+        }
+        if (orphaned > 0) {
+            System.out.println("Пропущено записей журнала о пользователях, которых нет в снимке: " + orphaned);
+        }
+        return applied;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void apply(AppData data, byte op, String key, DataInputStream in) throws IOException {
+        try {
+            if (op == OP_REGISTER) {
+                String username = in.readUTF();
+                String password = in.readUTF();
+                data.getUsers().put(key, new UserAccount(username, password));
+                return;
+            }
+            UserAccount user = data.getUsers().get(key);
+            if (op == OP_PASSWORD) {
+                user.setPassword(in.readUTF());
+                return;
+            }
+            Wallet wallet = user.getWallet();
+            switch (op) {
+                case OP_TRANSACTION:
+                case OP_TRANSACTION_CURRENCY:
+                case OP_TRANSACTION_DOUBLE: {
+                    TransactionType type = TransactionType.values()[in.readByte()];
+                    long amount = op == OP_TRANSACTION_DOUBLE ? Money.fromDouble(in.readDouble()) : in.readLong();
+                    String category = in.readUTF();
+                    String description = in.readUTF();
+                    LocalDate date = LocalDate.ofEpochDay(in.readLong());
+                    String currency = op == OP_TRANSACTION_CURRENCY ? in.readUTF() : Money.BASE_CURRENCY;
+                    wallet.addTransaction(new Transaction(type, amount, category, description, date, currency));
+                    break;
+                }
+                case OP_BUDGET:
+                    wallet.setBudget(in.readUTF(), in.readLong());
+                    break;
+                case OP_BUDGET_THRESHOLDS:
+                case OP_BUDGET_CURRENCY: {
+                    String category = in.readUTF();
+                    long limit = in.readLong();
+                    int[] thresholds = new int[in.readUnsignedByte()];
+                    for (int i = 0; i < thresholds.length; i++) {
+                        thresholds[i] = in.readUnsignedByte();
+                    }
+                    String currency = op == OP_BUDGET_CURRENCY ? in.readUTF() : Money.BASE_CURRENCY;
+                    wallet.setBudget(category, limit, thresholds, currency);
+                    break;
+                }
+                case OP_BUDGET_DOUBLE:
+                    wallet.setBudget(in.readUTF(), Money.fromDouble(in.readDouble()));
+                    break;
+                case OP_RENAME:
+                    wallet.renameCategory(in.readUTF(), in.readUTF());
+                    break;
+                default:
+                    throw new IOException("Неизвестный тип записи журнала: " + op);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Запись журнала обрезана", e);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.example;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Ограничение неудачных входов: не больше maxFailures неудач на логин и maxSourceFailures
+ * на источник (адрес клиента сервера) за скользящее окно. Источник null не ограничивается:
+ * так входят из консоли, пакетного режима и с loopback, где адрес у всех клиентов один
+ * и его лимит запирал бы вход всем локальным клиентам. Перебор через соединение с loopback
+ * сдерживает лимит неудач на сеанс (MAX_SESSION_FAILURES, см. {@link CommandServer}).
+ * Проверка {@link #isBlocked} - поиск в ConcurrentHashMap и чтение одного long,
+ * поэтому перебор паролей отсекается до медленной проверки хэша.
+ *
+ * Окно - «скользящий счётчик»: число неудач в текущем окне плюс число в прошлом,
+ * взвешенное долей прошлого окна, ещё попадающей в последние windowMillis.
+ * Номер окна и оба счётчика упакованы в один AtomicLong и меняются CAS-циклом, без блокировок.
+ *
+ * Счётчик, в котором оба окна истекли, больше ничего не значит и удаляется при очистке
+ * (раз в CLEANUP_EVERY новых ключей, а при заполненной таблице - с каждым новым окном).
+ * Память ограничена maxEntries счётчиков на логины и столько же на источники. Если места
+ * нет, неудачи нового ключа не учесть, и ограничение закрывается: такой ключ считается
+ * заблокированным, пока очистка не освободит место. Иначе перебор множества разных
+ * логинов переполнил бы таблицу и дальше шёл бы без ограничений.
+ *
+ * Настройки - свойства finance.auth.maxFailures, finance.auth.maxSourceFailures,
+ * finance.auth.maxSessionFailures, finance.auth.failureWindowSec и finance.auth.throttleEntries.
+ */
+final class LoginThrottle {
+
+    static final int MAX_FAILURES = Integer.getInteger("finance.auth.maxFailures", 5);
+    static final int MAX_SOURCE_FAILURES = Integer.getInteger("finance.auth.maxSourceFailures", 50);
+    static final int MAX_SESSION_FAILURES = Integer.getInteger("finance.auth.maxSessionFailures", 5);
+    static final long WINDOW_MILLIS = Integer.getInteger("finance.auth.failureWindowSec", 60) * 1000L;
+    static final int MAX_ENTRIES = Integer.getInteger("finance.auth.throttleEntries", 100_000);
+
+    private static final int CLEANUP_EVERY = 1024;
+    private static final int MAX_COUNT = 0xFFFF;
+
+    private final int maxFailures;
+    private final int maxSourceFailures;
+    private final long windowMillis;
+    private final int maxEntries;
+    private final LongSupplier clock;
+    private final Map<String, Counter> users = new ConcurrentHashMap<>();
+    private final Map<String, Counter> sources = new ConcurrentHashMap<>();
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger cleanedWindow = new AtomicInteger(Integer.MIN_VALUE);
+
+    LoginThrottle() {
+        this(MAX_FAILURES, MAX_SOURCE_FAILURES, WINDOW_MILLIS, MAX_ENTRIES, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock текущее время в миллисекундах
+     */
+    LoginThrottle(int maxFailures, int maxSourceFailures, long windowMillis, int maxEntries, LongSupplier clock) {
+        if (maxFailures < 1 || maxSourceFailures < 1 || windowMillis < 1 || maxEntries < 1) {
+            throw new IllegalArgumentException("Параметры ограничения входов должны быть больше нуля.");
+        }
+        this.maxFailures = maxFailures;
+        this.maxSourceFailures = maxSourceFailures;
+        this.windowMillis = windowMillis;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    /**
+     * Исчерпан ли лимит неудач для логина key (уже нормализованного) или источника source.
+     */
+    boolean isBlocked(String key, String source) {
+        long now = clock.getAsLong();
+        return exceeded(users, key, maxFailures, now)
+                || source != null && exceeded(sources, source, maxSourceFailures, now);
+    }
+
+    /**
+     * Учитывает неудачный вход.
+     */
+    void recordFailure(String key, String source) {
+        long now = clock.getAsLong();
+        record(users, key, now);
+        if (source != null) {
+            record(sources, source, now);
+        }
+    }
+
+    /**
+     * Успешный вход: неудачи логина забываются (неудачи источника - нет).
+     */
+    void recordSuccess(String key) {
+        users.remove(key);
+    }
+
+    /**
+     * Сколько счётчиков сейчас хранится (логины и источники).
+     */
+    int size() {
+        return users.size() + sources.size();
+    }
+
+    private boolean exceeded(Map<String, Counter> counters, String key, int limit, long now) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            return counter.estimate(now) >= limit;
+        }
+        return isFull(counters, now);
+    }
+
+    /**
+     * Нет места под новый счётчик. Заполненная таблица чистится раз за окно:
+     * раньше ни один счётчик истечь не может.
+     */
+    private boolean isFull(Map<String, Counter> counters, long now) {
+        if (counters.size() < maxEntries) {
+            return false;
+        }
+        int window = window(now);
+        int cleaned = cleanedWindow.get();
+        if (cleaned != window && cleanedWindow.compareAndSet(cleaned, window)) {
+            cleanUp(now);
+        }
+        return counters.size() >= maxEntries;
+    }
+
+    private void record(Map<String, Counter> counters, String key, long now) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            if (created.incrementAndGet() % CLEANUP_EVERY == 0) {
+                cleanUp(now);
+            }
+            if (isFull(counters, now)) {
+                return; // ключ и так заблокирован, см. isBlocked
+            }
+            Counter fresh = new Counter();
+            counter = counters.putIfAbsent(key, fresh);
+            if (counter == null) {
+                counter = fresh;
+            }
+        }
+        counter.increment(now);
+        // Очистка могла удалить счётчик между get и increment - тогда неудача записывается заново
+        if (counters.get(key) != counter) {
+            counters.putIfAbsent(key, counter);
+        }
+    }
+
+    /**
+     * Удаляет счётчики, оба окна которых уже истекли.
+     */
+    void cleanUp(long now) {
+        cleanUp(users, now);
+        cleanUp(sources, now);
+    }
+
+    private void cleanUp(Map<String, Counter> counters, long now) {
+        for (Iterator<Map.Entry<String, Counter>> it = counters.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getValue().isIdle(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Номер окна (старшие 32 бита), неудачи прошлого окна (16 бит) и текущего (16 бит).
+     */
+    private final class Counter {
+        private final AtomicLong state = new AtomicLong();
+
+        void increment(long now) {
+            int window = window(now);
+            while (true) {
+                long current = state.get();
+                long advanced = advance(current, window);
+                int count = (int) (advanced & MAX_COUNT);
+                long next = count == MAX_COUNT ? advanced : advanced + 1;
+                if (next == current || state.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
+
+        double estimate(long now) {
+            long s = advance(state.get(), window(now));
+            int previous = (int) (s >>> 16) & MAX_COUNT;
+            int current = (int) s & MAX_COUNT;
+            double elapsed = (double) Math.floorMod(now, windowMillis) / windowMillis;
+            return previous * (1 - elapsed) + current;
+        }
+
+        boolean isIdle(long now) {
+            return (int) (state.get() >>> 32) < window(now) - 1;
+        }
+
+        private long advance(long s, int window) {
+            int stateWindow = (int) (s >>> 32);
+            if (stateWindow == window) {
+                return s;
+            }
+            long previous = stateWindow == window - 1 ? s & MAX_COUNT : 0;
+            return ((long) window << 32) | (previous << 16);
+        }
+    }
+
+    private int window(long now) {
+        return (int) Math.floorDiv(now, windowMillis);
+    }
+}
@@ -0,0 +1,173 @@
+package org.example;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+
+/**
+ * Денежные суммы хранятся как long - число копеек (сотых долей единицы валюты).
+ * Здесь собраны разбор и форматирование таких сумм без промежуточных double.
+ *
+ * Валюта - код ISO 4217 из трёх латинских букв; у всех валют считается по две цифры
+ * после запятой. Суммы без валюты - в {@link #BASE_CURRENCY}.
+ */
+final class Money {
+
+    static final int SCALE = 100;
+
+    /**
+     * Валюта операций и бюджетов, для которых валюта не указана, и валюта итогов отчётов.
+     */
+    static final String BASE_CURRENCY = "RUB";
+
+    private Money() {
+    }
+
+    /**
+     * Сумма из целого числа единиц (рублей).
+     */
+    static long ofMajor(long major) {
+        return Math.multiplyExact(major, SCALE);
+    }
+
+    /**
+     * Перевод из старого представления в double (только для чтения старых данных).
+     */
+    static long fromDouble(double amount) {
+        return Math.round(amount * SCALE);
+    }
+
+    static double toDouble(long minor) {
+        return (double) minor / SCALE;
+    }
+
+    /**
+     * Разбирает текст вида "123", "-5", "123.4", "123,45" сразу в копейки.
+     * Экспоненциальная запись ("1.0E7", как писал старый экспорт CSV) тоже принимается.
+     *
+     * @throws NumberFormatException если текст не является суммой или в нём больше двух знаков после запятой
+     */
+    static long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    static long parse(CharSequence text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            throw new NumberFormatException("Пустая сумма");
+        }
+
+        int i = start;
+        boolean negative = false;
+        char first = text.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+
+        long major = 0;
+        int digits = 0;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            major = Math.addExact(Math.multiplyExact(major, 10), c - '0');
+            digits++;
+        }
+
+        long minor = 0;
+        if (i < end && (text.charAt(i) == '.' || text.charAt(i) == ',')) {
+            i++;
+            int fraction = 0;
+            for (; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                if (fraction < 2) {
+                    minor = minor * 10 + (c - '0');
+                } else if (c != '0') {
+                    throw new NumberFormatException("Больше двух знаков после запятой: " + text.subSequence(start, end));
+                }
+                fraction++;
+                digits++;
+            }
+            if (fraction == 1) {
+                minor *= 10;
+            }
+        }
+
+        if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E') && digits > 0) {
+            return parseExponent(text.subSequence(start, end).toString());
+        }
+        if (i != end || digits == 0) {
+            throw new NumberFormatException("Некорректная сумма: " + text.subSequence(start, end));
+        }
+        long value = Math.addExact(Math.multiplyExact(major, SCALE), minor);
+        return negative ? -value : value;
+    }
+
+    private static long parseExponent(String text) {
+        try {
+            return new BigDecimal(text.replace(',', '.')).movePointRight(2).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Некорректная сумма: " + text);
+        }
+    }
+
+    /**
+     * Код валюты в верхнем регистре; null или пусто - базовая валюта.
+     *
+     * @throws IllegalArgumentException если это не три латинские буквы
+     */
+    static String normalizeCurrency(String code) {
+        if (code == null || code.trim().isEmpty()) {
+            return BASE_CURRENCY;
+        }
+        String upper = code.trim().toUpperCase(Locale.ROOT);
+        if (upper.length() != 3) {
+            throw new IllegalArgumentException("Неизвестный код валюты: " + code.trim());
+        }
+        for (int i = 0; i < 3; i++) {
+            char c = upper.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                throw new IllegalArgumentException("Неизвестный код валюты: " + code.trim());
+            }
+        }
+        return upper.equals(BASE_CURRENCY) ? BASE_CURRENCY : upper;
+    }
+
+    /**
+     * Как {@link #format(long)}, для валюты, отличной от базовой, - с её кодом: "1234.50 USD".
+     */
+    static String format(long minor, String currency) {
+        return BASE_CURRENCY.equals(currency) ? format(minor) : format(minor) + " " + currency;
+    }
+
+    /**
+     * Текст вида "1234.50" (всегда точка и два знака после неё).
+     */
+    static String format(long minor) {
+        StringBuilder sb = new StringBuilder(24);
+        appendTo(sb, minor);
+        return sb.toString();
+    }
+
+    static void appendTo(StringBuilder sb, long minor) {
+        if (minor < 0) {
+            sb.append('-');
+        }
+        long abs = Math.abs(minor);
+        long fraction = abs % SCALE;
+        sb.append(abs / SCALE).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+}
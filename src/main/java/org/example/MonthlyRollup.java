@@ -0,0 +1,173 @@
+package org.example;
+
+import java.time.YearMonth;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Помесячные итоги операций кошелька: (месяц, тип, категория) -> сумма в копейках.
+ * Обновляется при каждом добавлении операции и переименовании категории, поэтому
+ * сводка и отчёты по целым месяцам не перебирают операции.
+ * Категории - id нормализованных имён в словаре кошелька.
+ */
+final class MonthlyRollup {
+
+    private final TransactionColumns.StringPool keys;
+    private final NavigableMap<YearMonth, Totals> months = new TreeMap<>();
+    private final Totals all;
+
+    MonthlyRollup(TransactionColumns.StringPool keys) {
+        this.keys = keys;
+        this.all = new Totals(keys);
+    }
+
+    /**
+     * Итоги месяца для пополнения (создаются при первом обращении).
+     */
+    Totals monthForUpdate(YearMonth ym) {
+        return months.computeIfAbsent(ym, m -> new Totals(keys));
+    }
+
+    /**
+     * Учитывает операцию в итогах месяца month (полученного из monthForUpdate) и в общих итогах.
+     */
+    void add(Totals month, TransactionType type, int keyId, long amount) {
+        month.add(type, keyId, amount);
+        all.add(type, keyId, amount);
+    }
+
+    /**
+     * Итоги месяца или null, если операций в нём не было. Изменять нельзя.
+     */
+    Totals month(YearMonth ym) {
+        return months.get(ym);
+    }
+
+    /**
+     * Итоги за всё время. Изменять нельзя.
+     */
+    Totals all() {
+        return all;
+    }
+
+    /**
+     * Месяцы с from по to включительно, по возрастанию.
+     */
+    NavigableMap<YearMonth, Totals> range(YearMonth from, YearMonth to) {
+        return months.subMap(from, true, to, true);
+    }
+
+    int monthCount() {
+        return months.size();
+    }
+
+    YearMonth firstMonth() {
+        return months.isEmpty() ? null : months.firstKey();
+    }
+
+    YearMonth lastMonth() {
+        return months.isEmpty() ? null : months.lastKey();
+    }
+
+    /**
+     * Переносит суммы категории from в категорию to во всех месяцах.
+     */
+    void moveCategory(int from, int to) {
+        for (Totals totals : months.values()) {
+            totals.moveCategory(from, to);
+        }
+        all.moveCategory(from, to);
+    }
+
+    /**
+     * Суммы по типам и по категориям внутри каждого типа, плюс число операций
+     * по категориям (отчёт по выборке берёт его отсюда, не перебирая операции).
+     */
+    static final class Totals {
+        private final long[] sums = new long[TransactionType.values().length];
+        private final CategoryTotals[] byCategory = new CategoryTotals[sums.length];
+        private final CategoryTotals counts;
+        private long count;
+
+        Totals(TransactionColumns.StringPool keys) {
+            for (int t = 0; t < byCategory.length; t++) {
+                byCategory[t] = new CategoryTotals(keys);
+            }
+            counts = new CategoryTotals(keys);
+        }
+
+        void add(TransactionType type, int keyId, long amount) {
+            add(type, keyId, amount, 1);
+        }
+
+        /**
+         * Учитывает operations операций категории keyId на общую сумму amount.
+         */
+        void add(TransactionType type, int keyId, long amount, long operations) {
+            sums[type.ordinal()] += amount;
+            byCategory[type.ordinal()].add(keyId, amount);
+            counts.add(keyId, operations);
+            count += operations;
+        }
+
+        /**
+         * Прибавляет итоги other; если задан keyMask - только по отмеченным категориям.
+         */
+        void addAll(Totals other, boolean[] keyMask) {
+            for (int t = 0; t < sums.length; t++) {
+                CategoryTotals source = other.byCategory[t];
+                if (keyMask == null) {
+                    sums[t] += other.sums[t];
+                    for (int id = 0; id < source.idLimit(); id++) {
+                        long amount = source.get(id);
+                        if (amount != 0) {
+                            byCategory[t].add(id, amount);
+                        }
+                    }
+                } else {
+                    int limit = Math.min(keyMask.length, source.idLimit());
+                    for (int id = 0; id < limit; id++) {
+                        long amount = source.get(id);
+                        if (amount != 0 && keyMask[id]) {
+                            sums[t] += amount;
+                            byCategory[t].add(id, amount);
+                        }
+                    }
+                }
+            }
+            int limit = keyMask == null ? other.counts.idLimit() : Math.min(keyMask.length, other.counts.idLimit());
+            for (int id = 0; id < limit; id++) {
+                long operations = other.counts.get(id);
+                if (operations != 0 && (keyMask == null || keyMask[id])) {
+                    counts.add(id, operations);
+                    count += operations;
+                }
+            }
+        }
+
+        /**
+         * Сколько операций учтено.
+         */
+        long count() {
+            return count;
+        }
+
+        long get(TransactionType type) {
+            return sums[type.ordinal()];
+        }
+
+        /**
+         * Суммы по категориям для типа (без копирования).
+         */
+        CategoryTotals byCategory(TransactionType type) {
+            return byCategory[type.ordinal()];
+        }
+
+        private void moveCategory(int from, int to) {
+            for (CategoryTotals totals : byCategory) {
+                totals.move(from, to);
+            }
+            counts.move(from, to);
+        }
+    }
+}
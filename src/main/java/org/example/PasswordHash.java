@@ -0,0 +1,107 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Хэши паролей: PBKDF2-HMAC-SHA256 с солью на каждого пользователя.
+ * Хранимая строка - "pbkdf2$итерации$соль$хэш" (соль и хэш в Base64), так что число
+ * итераций можно поднять, не ломая старые хэши: они проверяются со своим числом
+ * и пересчитываются при следующем входе (см. {@link #needsRehash}).
+ *
+ * Строка без префикса - пароль старых файлов данных в открытом виде; она тоже
+ * проверяется (сравнение за постоянное время), а при входе заменяется хэшем.
+ *
+ * Число итераций для новых хэшей - свойство finance.auth.iterations: это цена одного
+ * входа (десятки миллисекунд на 120 000 итерациях), см. AuthBenchmark.
+ */
+final class PasswordHash {
+
+    static final int ITERATIONS = Integer.getInteger("finance.auth.iterations", 120_000);
+
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PasswordHash() {
+    }
+
+    static String hash(String password) {
+        return hash(password, ITERATIONS);
+    }
+
+    static String hash(String password, int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Число итераций должно быть больше нуля.");
+        }
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(pbkdf2(password, salt, iterations));
+    }
+
+    /**
+     * Подходит ли пароль к хранимой строке (хэшу или старому паролю в открытом виде).
+     * Время сравнения не зависит от того, в каком байте нашлось расхождение.
+     */
+    static boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[1]);
+            Base64.Decoder base64 = Base64.getDecoder();
+            byte[] expected = base64.decode(parts[3]);
+            return iterations > 0 && MessageDigest.isEqual(expected, pbkdf2(password, base64.decode(parts[2]), iterations));
+        } catch (IllegalArgumentException e) {
+            return false; // повреждённая строка хэша
+        }
+    }
+
+    static boolean isHashed(String stored) {
+        return stored.startsWith(PREFIX);
+    }
+
+    /**
+     * Нужно ли пересчитать хранимую строку: пароль в открытом виде или хэш
+     * с меньшим числом итераций, чем сейчас.
+     */
+    static boolean needsRehash(String stored) {
+        if (!isHashed(stored)) {
+            return true;
+        }
+        int end = stored.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 || Integer.parseInt(stored.substring(PREFIX.length(), end)) < ITERATIONS;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 недоступен: " + e.getMessage(), e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
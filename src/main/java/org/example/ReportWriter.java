@@ -0,0 +1,137 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Построчная запись текстового отчёта в {@link Appendable} (PrintWriter консоли или сокета,
+ * StringBuilder). Строка таблицы собирается в одном переиспользуемом буфере и сразу
+ * уходит в приёмник, поэтому память не растёт с длиной отчёта.
+ *
+ * Колонки выравниваются как у String.format("%-Ns"): пробелы справа до ширины, без обрезки;
+ * соседние колонки разделяются " | ".
+ */
+final class ReportWriter {
+
+    static final String NEWLINE = System.lineSeparator();
+    private static final String SEPARATOR = " | ";
+
+    private final Appendable out;
+    private final StringBuilder row = new StringBuilder(128);
+    private boolean rowStarted;
+
+    ReportWriter(Appendable out) {
+        this.out = out;
+    }
+
+    /**
+     * Строка текста целиком.
+     */
+    void line(CharSequence text) {
+        write(text);
+        write(NEWLINE);
+    }
+
+    ReportWriter cell(CharSequence text, int width) {
+        int start = startCell();
+        row.append(text);
+        return pad(start, width);
+    }
+
+    ReportWriter moneyCell(long minor, int width) {
+        int start = startCell();
+        Money.appendTo(row, minor);
+        return pad(start, width);
+    }
+
+    /**
+     * Сумма с кодом валюты; для базовой валюты - как {@link #moneyCell(long, int)}.
+     */
+    ReportWriter moneyCell(long minor, String currency, int width) {
+        int start = startCell();
+        Money.appendTo(row, minor);
+        if (!currency.equals(Money.BASE_CURRENCY)) {
+            row.append(' ').append(currency);
+        }
+        return pad(start, width);
+    }
+
+    /**
+     * Дата ГГГГ-ММ-ДД, как у LocalDate.toString().
+     */
+    ReportWriter dateCell(int epochDay, int width) {
+        int start = startCell();
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        int year = date.getYear();
+        if (year < 1000 || year > 9999) {
+            row.append(date);
+        } else {
+            row.append(year).append('-');
+            appendTwoDigits(date.getMonthValue());
+            row.append('-');
+            appendTwoDigits(date.getDayOfMonth());
+        }
+        return pad(start, width);
+    }
+
+    /**
+     * Записывает собранную строку таблицы.
+     */
+    void endRow() {
+        row.append(NEWLINE);
+        write(row);
+        row.setLength(0);
+        rowStarted = false;
+    }
+
+    /**
+     * Текст, разбитый на строки (для вызывающих, которым нужен список).
+     */
+    static List<String> toLines(CharSequence text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        int end;
+        String s = text.toString();
+        while ((end = s.indexOf(NEWLINE, start)) >= 0) {
+            lines.add(s.substring(start, end));
+            start = end + NEWLINE.length();
+        }
+        if (start < s.length()) {
+            lines.add(s.substring(start));
+        }
+        return lines;
+    }
+
+    private int startCell() {
+        if (rowStarted) {
+            row.append(SEPARATOR);
+        }
+        rowStarted = true;
+        return row.length();
+    }
+
+    private ReportWriter pad(int start, int width) {
+        for (int n = row.length() - start; n < width; n++) {
+            row.append(' ');
+        }
+        return this;
+    }
+
+    private void appendTwoDigits(int value) {
+        if (value < 10) {
+            row.append('0');
+        }
+        row.append(value);
+    }
+
+    private void write(CharSequence text) {
+        try {
+            out.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать отчёт: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.example;
+
+import java.util.stream.IntStream;
+
+/**
+ * Итоги по отрезку индекса byDay (операции в порядке дат): для каждой валюты - суммы
+ * и число операций по типам и по нормализованным категориям внутри типа; валюты
+ * не смешиваются. Кошелёк считает так неполные крайние месяцы периода, остальное
+ * берётся из помесячных итогов.
+ *
+ * Длинный отрезок (от {@link #PARALLEL_THRESHOLD} операций, свойство finance.parallel.threshold)
+ * считается параллельно: сплитератор IntStream.range делит отрезок между потоками
+ * ForkJoinPool.commonPool, у каждой части свои массивы, в конце они складываются.
+ * Суммы целые, а сложение long не зависит от порядка, поэтому результат совпадает
+ * с последовательным до копейки.
+ *
+ * Вызывающий держит {@link Wallet#readLock()} до возврата из {@link #collect}: потоки
+ * пула читают столбцы, пока он ждёт результата, и кошелёк в это время не меняется.
+ */
+final class RowTotals {
+
+    static final int PARALLEL_THRESHOLD = Integer.getInteger("finance.parallel.threshold", 200_000);
+
+    private static final int TYPES = TransactionType.values().length;
+
+    private final TransactionColumns columns;
+    private final int[] keyIds;
+    private final boolean[] categoryMask;
+    private final int keyCount;
+    private final long[] sums;      // [валюта * TYPES + тип]
+    private final long[][] byKey;   // [валюта * TYPES + тип][id нормализованной категории]; строки - при первой операции
+    private final int[][] countByKey; // число операций, индексы как у byKey
+    private int count;
+
+    private RowTotals(TransactionColumns columns, int[] keyIds, int keyCount, boolean[] categoryMask) {
+        this.columns = columns;
+        this.keyIds = keyIds;
+        this.categoryMask = categoryMask;
+        this.keyCount = keyCount;
+        int groups = columns.currencyPool().size() * TYPES;
+        this.sums = new long[groups];
+        this.byKey = new long[groups][];
+        this.countByKey = new int[groups][];
+    }
+
+    /**
+     * Итоги операций на позициях [fromRank, toRank) индекса по дате.
+     *
+     * @param keyIds       id нормализованной категории для каждой категории словаря операций
+     *                     ({@link Wallet#categoryKeyIds()})
+     * @param keyCount     размер словаря нормализованных категорий
+     * @param categoryMask учитываемые категории словаря операций; null - все
+     * @param threshold    с какой длины отрезка считать параллельно
+     */
+    static RowTotals collect(TransactionColumns columns, int fromRank, int toRank,
+                             int[] keyIds, int keyCount, boolean[] categoryMask, int threshold) {
+        if (toRank - fromRank < threshold) {
+            RowTotals totals = new RowTotals(columns, keyIds, keyCount, categoryMask);
+            for (int rank = fromRank; rank < toRank; rank++) {
+                totals.accept(rank);
+            }
+            return totals;
+        }
+        return IntStream.range(fromRank, toRank).parallel().collect(
+                () -> new RowTotals(columns, keyIds, keyCount, categoryMask),
+                RowTotals::accept,
+                RowTotals::merge);
+    }
+
+    private void accept(int rank) {
+        int i = columns.byDay(rank);
+        int categoryId = columns.categoryId(i);
+        if (categoryMask == null || categoryMask[categoryId]) {
+            add(i, categoryId);
+        }
+    }
+
+    private void add(int i, int categoryId) {
+        int group = columns.currencyId(i) * TYPES + columns.type(i).ordinal();
+        long amount = columns.amountMinor(i);
+        sums[group] += amount;
+        long[] keys = byKey[group];
+        if (keys == null) {
+            keys = byKey[group] = new long[keyCount];
+            countByKey[group] = new int[keyCount];
+        }
+        int keyId = keyIds[categoryId];
+        keys[keyId] += amount;
+        countByKey[group][keyId]++;
+        count++;
+    }
+
+    private void merge(RowTotals other) {
+        for (int g = 0; g < sums.length; g++) {
+            sums[g] += other.sums[g];
+            long[] source = other.byKey[g];
+            if (source == null) {
+                continue;
+            }
+            long[] target = byKey[g];
+            if (target == null) {
+                byKey[g] = source;
+                countByKey[g] = other.countByKey[g];
+                continue;
+            }
+            int[] targetCounts = countByKey[g];
+            int[] sourceCounts = other.countByKey[g];
+            for (int id = 0; id < target.length; id++) {
+                target[id] += source[id];
+                targetCounts[id] += sourceCounts[id];
+            }
+        }
+        count += other.count;
+    }
+
+    /**
+     * Сколько операций прошло фильтр по категориям.
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Сумма по типу в валюте currencyId (id в словаре валют операций).
+     */
+    long get(int currencyId, TransactionType type) {
+        return sums[currencyId * TYPES + type.ordinal()];
+    }
+
+    /**
+     * Прибавляет к result итоги валюты currencyId.
+     */
+    void addTo(MonthlyRollup.Totals result, int currencyId) {
+        for (TransactionType type : TransactionType.values()) {
+            int group = currencyId * TYPES + type.ordinal();
+            long[] amounts = byKey[group];
+            if (amounts == null) {
+                continue;
+            }
+            int[] counts = countByKey[group];
+            for (int id = 0; id < amounts.length; id++) {
+                if (counts[id] != 0) {
+                    result.add(type, id, amounts[id], counts[id]);
+                }
+            }
+        }
+    }
+}
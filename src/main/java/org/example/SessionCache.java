@@ -0,0 +1,111 @@
+package org.example;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Кэш уже проверенных входов: после успешной проверки PBKDF2 для пользователя
+ * запоминается токен сеанса - HMAC-SHA256 от (ключ пользователя, пароль) на случайном
+ * ключе процесса. Повторный вход того же пользователя с тем же паролем (сервер, пакетный
+ * режим) сверяет токен за микросекунды вместо повторного медленного хэша.
+ *
+ * Запись действительна, пока у пользователя та же хранимая строка пароля: после смены
+ * или пересчёта хэша она не совпадёт и проверка снова пойдёт через PBKDF2.
+ * Ключ HMAC живёт только в памяти процесса, поэтому токены бесполезны вне его.
+ *
+ * Размер ограничен (свойство finance.auth.sessionCache), вытесняются давно не входившие.
+ * Кэш синхронизирован - один объект на все сеансы.
+ */
+final class SessionCache {
+
+    static final int DEFAULT_SIZE = Integer.getInteger("finance.auth.sessionCache", 1024);
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final SecretKeySpec secret;
+    private final Map<String, Entry> entries;
+
+    SessionCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * @param size сколько пользователей помнить; 0 - кэш выключен
+     */
+    SessionCache(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Размер кэша сеансов не может быть отрицательным.");
+        }
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.secret = new SecretKeySpec(key, ALGORITHM);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Был ли уже проверен вход пользователя key с этим паролем при хранимой строке stored.
+     */
+    boolean matches(String key, String stored, String password) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        return entry != null && entry.stored.equals(stored)
+                && MessageDigest.isEqual(entry.token, token(key, password));
+    }
+
+    /**
+     * Запоминает успешно проверенный вход.
+     */
+    void remember(String key, String stored, String password) {
+        Entry entry = new Entry(stored, token(key, password));
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    void invalidate(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private byte[] token(String key, String password) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(secret);
+            mac.update(key.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC недоступен: " + e.getMessage(), e);
+        }
+    }
+
+    private static final class Entry {
+        final String stored;
+        final byte[] token;
+
+        Entry(String stored, byte[] token) {
+            this.stored = stored;
+            this.token = token;
+        }
+    }
+}
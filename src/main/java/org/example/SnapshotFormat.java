@@ -0,0 +1,392 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Двоичный формат снимка данных (замена Java-сериализации).
+ *
+ * Версия 6: заголовок (магическое число "FINB", версия (short), номер записи журнала (long),
+ * CRC32 всего файла с нулями на месте самой суммы (int)), затем секции кошельков, затем
+ * каталог пользователей (ключ, логин, пароль, смещение и длина секции) и концевик
+ * (смещение каталога (long), число пользователей (int), "FINB").
+ * При загрузке проверяется контрольная сумма и читается только каталог, секция кошелька
+ * разбирается при первом обращении.
+ *
+ * Секция кошелька: таблица строк, бюджеты и операции фиксированной ширины.
+ * Операция: дата в днях от эпохи (int), тип (byte), индексы категории и описания
+ * в таблице строк (int, int), сумма в копейках (long), номер валюты в словаре валют
+ * секции (short). Бюджет: индекс имени (int), лимит в копейках (long), число порогов (byte),
+ * пороги в процентах (byte каждый) и индекс кода валюты в таблице строк (int).
+ *
+ * Версия 5 отличается отсутствием контрольной суммы, версия 4 - ещё и тем, что все суммы
+ * в базовой валюте, версия 3 - ещё и бюджетами без порогов (пороги по умолчанию),
+ * версия 2 - ещё и суммами в double. Версия 1 (секции пользователей подряд, без каталога,
+ * суммы в double) читается целиком.
+ */
+final class SnapshotFormat {
+
+    static final int MAGIC = 0x46494E42; // "FINB"
+    static final short VERSION = 6;
+    // С этой версии формат секции кошелька не менялся: такие секции копируются без разбора
+    private static final short WALLET_VERSION = 5;
+
+    private static final int HEADER_SIZE_V5 = Integer.BYTES + Short.BYTES + Long.BYTES; // версии 1-5
+    private static final int CHECKSUM_OFFSET = HEADER_SIZE_V5;
+    private static final int HEADER_SIZE = CHECKSUM_OFFSET + Integer.BYTES;
+    private static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private SnapshotFormat() {
+    }
+
+    static void write(AppData data, DataOutputStream out) throws IOException {
+        out.write(encode(data.getUsers(), data.getJournalSeq()));
+        out.flush();
+    }
+
+    /**
+     * Снимок части пользователей (одного шарда файла данных) целиком в памяти:
+     * контрольная сумма в заголовке известна только после записи всего остального.
+     */
+    static byte[] encode(Map<String, UserAccount> users, long journalSeq) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(journalSeq);
+        out.writeInt(0); // контрольная сумма
+
+        List<String> keys = new ArrayList<>(users.keySet());
+        long[] offsets = new long[keys.size()];
+        int[] lengths = new int[keys.size()];
+        long position = HEADER_SIZE;
+
+        // Секция собирается в буфере, чтобы узнать её длину для каталога
+        ByteArrayOutputStream section = new ByteArrayOutputStream(4096);
+        DataOutputStream sectionOut = new DataOutputStream(section);
+        for (int i = 0; i < keys.size(); i++) {
+            UserAccount user = users.get(keys.get(i));
+            ByteBuffer raw = user.getUnloadedWalletSection();
+            offsets[i] = position;
+            if (raw != null) {
+                // Кошелёк не загружался - копируем байты секции без разбора
+                lengths[i] = raw.remaining();
+                byte[] copy = new byte[raw.remaining()];
+                raw.duplicate().get(copy);
+                out.write(copy);
+            } else {
+                // Запись снимка - не обращение пользователя: очерёдность в кэше кошельков не меняется
+                Wallet wallet = user.getLoadedWallet();
+                section.reset();
+                writeWallet(wallet != null ? wallet : user.getWallet(), sectionOut);
+                lengths[i] = section.size();
+                section.writeTo(out);
+            }
+            position += lengths[i];
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            UserAccount user = users.get(keys.get(i));
+            writeString(out, keys.get(i));
+            writeString(out, user.getUsername());
+            writeString(out, user.getPassword());
+            out.writeLong(offsets[i]);
+            out.writeInt(lengths[i]);
+        }
+        out.writeLong(position);
+        out.writeInt(keys.size());
+        out.writeInt(MAGIC);
+        out.flush();
+        byte[] result = bytes.toByteArray();
+        ByteBuffer.wrap(result).putInt(CHECKSUM_OFFSET, checksum(ByteBuffer.wrap(result)));
+        return result;
+    }
+
+    /**
+     * CRC32 файла версии 6 и выше; поле самой суммы считается нулевым.
+     */
+    private static int checksum(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        ByteBuffer part = buf.duplicate();
+        part.position(0).limit(CHECKSUM_OFFSET);
+        crc.update(part);
+        crc.update(new byte[Integer.BYTES]);
+        part.limit(buf.limit()).position(HEADER_SIZE);
+        crc.update(part);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Читает снимок из буфера (обычно - отображённого в память файла).
+     * Начиная с версии 2 кошельки остаются неразобранными до первого обращения.
+     */
+    static AppData read(ByteBuffer buf) throws IOException {
+        try {
+            if (buf.getInt(0) != MAGIC) {
+                throw new IOException("Неизвестный формат файла данных");
+            }
+            short version = buf.getShort(Integer.BYTES);
+            long journalSeq = buf.getLong(Integer.BYTES + Short.BYTES);
+            if (version >= 6 && version <= VERSION && buf.getInt(CHECKSUM_OFFSET) != checksum(buf)) {
+                throw new IOException("Контрольная сумма файла данных не совпадает");
+            }
+            AppData data;
+            if (version == 1) {
+                data = readVersion1(buf);
+            } else if (version >= 2 && version <= VERSION) {
+                data = readDirectory(buf, version);
+            } else {
+                throw new IOException("Неподдерживаемая версия файла данных: " + version);
+            }
+            data.setJournalSeq(journalSeq);
+            return data;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Файл данных повреждён", e);
+        }
+    }
+
+    private static AppData readDirectory(ByteBuffer buf, short version) throws IOException {
+        AppData data = new AppData();
+        readDirectory(buf, version, (key, username, password, section) ->
+                data.getUsers().put(key, new UserAccount(username, password, section)));
+        return data;
+    }
+
+    /**
+     * Секции кошельков только что записанного файла по ключам пользователей: загруженные
+     * кошельки переводятся на них после сохранения (см. {@link UserAccount#rebindWalletSection}).
+     */
+    static Map<String, WalletSection> readSections(ByteBuffer buf) throws IOException {
+        Map<String, WalletSection> sections = new HashMap<>();
+        try {
+            readDirectory(buf, VERSION, (key, username, password, section) -> sections.put(key, section));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Файл данных повреждён", e);
+        }
+        return sections;
+    }
+
+    private static void readDirectory(ByteBuffer buf, short version, DirectoryEntry entry) throws IOException {
+        int footer = buf.limit() - FOOTER_SIZE;
+        if (buf.getInt(footer + Long.BYTES + Integer.BYTES) != MAGIC) {
+            throw new IOException("Файл данных обрезан");
+        }
+        long directoryOffset = buf.getLong(footer);
+        int userCount = buf.getInt(footer + Long.BYTES);
+
+        ByteBuffer dir = buf.duplicate();
+        dir.position((int) directoryOffset);
+        dir.limit(footer);
+        for (int i = 0; i < userCount; i++) {
+            String key = readString(dir);
+            String username = readString(dir);
+            String password = readString(dir);
+            int offset = (int) dir.getLong();
+            int length = dir.getInt();
+            ByteBuffer section = buf.duplicate();
+            section.position(offset);
+            section.limit(offset + length);
+            entry.accept(key, username, password, new WalletSection(section.slice(), version));
+        }
+    }
+
+    private interface DirectoryEntry {
+        void accept(String key, String username, String password, WalletSection section);
+    }
+
+    private static AppData readVersion1(ByteBuffer buf) throws IOException {
+        ByteBuffer in = buf.duplicate();
+        in.position(HEADER_SIZE_V5);
+        AppData data = new AppData();
+        int userCount = in.getInt();
+        for (int i = 0; i < userCount; i++) {
+            in.getInt(); // длина секции
+            String key = readString(in);
+            UserAccount user = new UserAccount(readString(in), readString(in));
+            readWallet(in, user.getWallet(), (short) 1);
+            data.getUsers().put(key, user);
+        }
+        return data;
+    }
+
+    private static void writeWallet(Wallet wallet, DataOutputStream out) throws IOException {
+        wallet.readLock().lock();
+        try {
+            writeColumns(wallet, out);
+        } finally {
+            wallet.readLock().unlock();
+        }
+    }
+
+    private static void writeColumns(Wallet wallet, DataOutputStream out) throws IOException {
+        TransactionColumns columns = wallet.getColumns();
+        TransactionColumns.StringPool categories = columns.categoryPool();
+        TransactionColumns.StringPool descriptions = columns.descriptionPool();
+        TransactionColumns.StringPool currencies = columns.currencyPool();
+
+        // Валюты бюджетов, которых нет в операциях, дописываются к словарю валют
+        Collection<CategoryBudget> budgets = wallet.getBudgets().values();
+        Map<String, Integer> currencyIndex = new HashMap<>();
+        List<String> currencyStrings = new ArrayList<>();
+        for (int id = 0; id < currencies.size(); id++) {
+            currencyIndex.put(currencies.get(id), id);
+            currencyStrings.add(currencies.get(id));
+        }
+        for (CategoryBudget b : budgets) {
+            if (currencyIndex.putIfAbsent(b.getCurrency(), currencyStrings.size()) == null) {
+                currencyStrings.add(b.getCurrency());
+            }
+        }
+
+        // Таблица строк: словарь категорий, словарь описаний, валюты, затем имена бюджетов
+        int descriptionBase = categories.size();
+        int currencyBase = descriptionBase + descriptions.size();
+        int budgetBase = currencyBase + currencyStrings.size();
+        out.writeInt(budgetBase + budgets.size());
+        for (int id = 0; id < categories.size(); id++) {
+            writeString(out, categories.get(id));
+        }
+        for (int id = 0; id < descriptions.size(); id++) {
+            writeString(out, descriptions.get(id));
+        }
+        for (String currency : currencyStrings) {
+            writeString(out, currency);
+        }
+        for (CategoryBudget b : budgets) {
+            writeString(out, b.getName());
+        }
+
+        out.writeInt(budgets.size());
+        int budgetIndex = budgetBase;
+        for (CategoryBudget b : budgets) {
+            out.writeInt(budgetIndex++);
+            out.writeLong(b.getLimit());
+            int[] thresholds = b.getThresholds();
+            out.writeByte(thresholds.length);
+            for (int t : thresholds) {
+                out.writeByte(t);
+            }
+            out.writeInt(currencyBase + currencyIndex.get(b.getCurrency()));
+        }
+
+        // Номера валют операций - в таблице строк начиная с currencyBase
+        out.writeInt(currencyBase);
+        out.writeShort(currencies.size());
+
+        out.writeInt(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            out.writeInt(columns.day(i));
+            out.writeByte(columns.type(i).ordinal());
+            out.writeInt(columns.categoryId(i));
+            out.writeInt(descriptionBase + columns.descriptionId(i));
+            out.writeLong(columns.amountMinor(i));
+            out.writeShort(columns.currencyId(i));
+        }
+    }
+
+    /**
+     * Разбирает секцию кошелька, записанную {@link #writeWallet}.
+     */
+    static Wallet readWallet(WalletSection section) throws IOException {
+        Wallet wallet = new Wallet();
+        try {
+            readWallet(section.bytes.duplicate(), wallet, section.version);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Секция кошелька повреждена", e);
+        }
+        return wallet;
+    }
+
+    private static void readWallet(ByteBuffer in, Wallet wallet, short version) throws IOException {
+        boolean doubleAmounts = version < 3;
+        String[] strings = new String[in.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(in);
+        }
+
+        int budgetCount = in.getInt();
+        for (int i = 0; i < budgetCount; i++) {
+            String name = strings[in.getInt()];
+            long limit = doubleAmounts ? Money.fromDouble(in.getDouble()) : in.getLong();
+            int[] thresholds = CategoryBudget.DEFAULT_THRESHOLDS;
+            if (version >= 4) {
+                thresholds = new int[Byte.toUnsignedInt(in.get())];
+                for (int t = 0; t < thresholds.length; t++) {
+                    thresholds[t] = Byte.toUnsignedInt(in.get());
+                }
+            }
+            String currency = version >= 5 ? Money.normalizeCurrency(strings[in.getInt()]) : Money.BASE_CURRENCY;
+            wallet.setBudget(name, limit, thresholds, currency);
+        }
+
+        TransactionType[] types = TransactionType.values();
+        TransactionColumns batch = new TransactionColumns();
+        String[] currencies = {Money.BASE_CURRENCY};
+        if (version >= 5) {
+            int currencyBase = in.getInt();
+            currencies = new String[Short.toUnsignedInt(in.getShort())];
+            for (int c = 0; c < currencies.length; c++) {
+                currencies[c] = Money.normalizeCurrency(strings[currencyBase + c]);
+            }
+        }
+        int txCount = in.getInt();
+        for (int i = 0; i < txCount; i++) {
+            int day = in.getInt();
+            TransactionType type = types[in.get()];
+            String category = strings[in.getInt()];
+            String description = strings[in.getInt()];
+            long amount = doubleAmounts ? Money.fromDouble(in.getDouble()) : in.getLong();
+            String currency = version >= 5 ? currencies[in.getShort()] : Money.BASE_CURRENCY;
+            batch.add(type, amount, category, description, day, currency);
+        }
+        wallet.appendAll(batch);
+    }
+
+    // Длина + UTF-8: в отличие от writeUTF, нет ограничения в 64 КБ
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Повреждённая строка в файле данных");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Неразобранная секция кошелька и версия формата, в которой она записана.
+     */
+    static final class WalletSection {
+        final ByteBuffer bytes;
+        final short version;
+
+        WalletSection(ByteBuffer bytes, short version) {
+            this.bytes = bytes;
+            this.version = version;
+        }
+
+        /**
+         * Секцию можно скопировать в новый файл без разбора, только если её формат
+         * совпадает с текущим.
+         */
+        boolean isCurrentVersion() {
+            return version >= WALLET_VERSION;
+        }
+    }
+}
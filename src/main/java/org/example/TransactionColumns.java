@@ -0,0 +1,396 @@
+package org.example;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Хранилище операций кошелька по столбцам: вместо объекта на каждую операцию -
+ * параллельные массивы примитивов. Категории, описания и валюты хранятся в словарях строк,
+ * суммы - в копейках. Объекты {@link Transaction} создаются только при чтении.
+ *
+ * Операции лежат в порядке добавления; дополнительно поддерживается индекс byDay -
+ * номера операций, упорядоченные по дате (при равных датах - по порядку добавления).
+ * Выборки по периоду находят границы двоичным поиском. Индекс догоняет добавленные
+ * операции при первом запросе к нему, так что загрузка и импорт его не касаются.
+ *
+ * Изменять хранилище можно только исключительно (см. блокировку в {@link Wallet}),
+ * читать - из нескольких потоков сразу: достройка индекса при чтении синхронизирована.
+ */
+final class TransactionColumns {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final TransactionType[] TYPES = TransactionType.values();
+    private static final int SHIFT_INSERT_LIMIT = 16;
+    private static final int ROW_BYTES = 4 + 1 + 4 + 4 + 8 + 2 + 4; // все столбцы и индекс по дате
+    private static final int POOL_ENTRY_BYTES = 112;                // строка, запись HashMap и ссылка в списке
+
+    private int[] days = new int[INITIAL_CAPACITY];           // дата в днях от эпохи
+    private byte[] types = new byte[INITIAL_CAPACITY];        // TransactionType.ordinal()
+    private int[] categories = new int[INITIAL_CAPACITY];     // id в categoryPool
+    private int[] descriptions = new int[INITIAL_CAPACITY];   // id в descriptionPool
+    private long[] amounts = new long[INITIAL_CAPACITY];      // сумма в копейках
+    private short[] currencies = new short[INITIAL_CAPACITY]; // id в currencyPool
+    private int[] byDay = new int[INITIAL_CAPACITY];          // номера операций по возрастанию даты
+    private volatile int indexed;                             // сколько операций учтено в byDay
+    private int size;
+
+    private final StringPool categoryPool = new StringPool();
+    private final StringPool descriptionPool = new StringPool();
+    private final StringPool currencyPool = new StringPool();
+
+    void add(TransactionType type, long amountMinor, String category, String description, int epochDay) {
+        add(type, amountMinor, category, description, epochDay, Money.BASE_CURRENCY);
+    }
+
+    /**
+     * @param currency код валюты, уже приведённый {@link Money#normalizeCurrency}
+     */
+    void add(TransactionType type, long amountMinor, String category, String description, int epochDay,
+             String currency) {
+        addIds(type, amountMinor, categoryPool.intern(category),
+                descriptionPool.intern(description == null ? "" : description), epochDay, currencyId(currency));
+    }
+
+    /**
+     * Добавляет операцию в базовой валюте, категория и описание которой уже есть в словарях этого хранилища.
+     */
+    void addIds(TransactionType type, long amountMinor, int categoryId, int descriptionId, int epochDay) {
+        addIds(type, amountMinor, categoryId, descriptionId, epochDay, currencyId(Money.BASE_CURRENCY));
+    }
+
+    /**
+     * То же с валютой - id в {@link #currencyPool()}.
+     */
+    void addIds(TransactionType type, long amountMinor, int categoryId, int descriptionId, int epochDay,
+                int currencyId) {
+        ensureCapacity(size + 1);
+        days[size] = epochDay;
+        types[size] = (byte) type.ordinal();
+        categories[size] = categoryId;
+        descriptions[size] = descriptionId;
+        amounts[size] = amountMinor;
+        currencies[size] = (short) currencyId;
+        size++;
+    }
+
+    /**
+     * id валюты в словаре валют (добавляется при первой встрече).
+     */
+    int currencyId(String currency) {
+        int id = currencyPool.intern(currency);
+        if (id > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Слишком много разных валют.");
+        }
+        return id;
+    }
+
+    /**
+     * Дописывает все операции other. Строки переводятся в свои словари
+     * один раз на каждую различную строку, а не на каждую операцию.
+     */
+    void addAll(TransactionColumns other) {
+        int count = other.size;
+        ensureCapacity(size + count);
+        int[] categoryIds = remap(other.categoryPool, categoryPool);
+        int[] descriptionIds = remap(other.descriptionPool, descriptionPool);
+        int[] currencyIds = new int[other.currencyPool.size()];
+        for (int id = 0; id < currencyIds.length; id++) {
+            currencyIds[id] = currencyId(other.currencyPool.get(id));
+        }
+        System.arraycopy(other.days, 0, days, size, count);
+        System.arraycopy(other.types, 0, types, size, count);
+        System.arraycopy(other.amounts, 0, amounts, size, count);
+        for (int i = 0; i < count; i++) {
+            categories[size + i] = categoryIds[other.categories[i]];
+            descriptions[size + i] = descriptionIds[other.descriptions[i]];
+            currencies[size + i] = (short) currencyIds[other.currencies[i]];
+        }
+        size += count;
+    }
+
+    private void ensureIndexed() {
+        if (indexed < size) {
+            synchronized (this) {
+                // Индекс мог достроить другой читатель; запись indexed публикует новый byDay
+                if (indexed < size) {
+                    indexRange(indexed, size);
+                    indexed = size;
+                }
+            }
+        }
+    }
+
+    /**
+     * Добавляет в индекс операции [from, to): их порядок по дате сливается с уже
+     * упорядоченными [0, from) за один проход.
+     */
+    private void indexRange(int from, int to) {
+        int count = to - from;
+        boolean ordered = true;
+        int last = from == 0 ? Integer.MIN_VALUE : days[byDay[from - 1]];
+        for (int i = from; i < to && ordered; i++) {
+            ordered = days[i] >= last;
+            last = days[i];
+        }
+        if (ordered) {
+            for (int i = from; i < to; i++) {
+                byDay[i] = i;
+            }
+            return;
+        }
+        if (count <= SHIFT_INSERT_LIMIT) {
+            // Несколько операций задним числом: вставка со сдвигом хвоста индекса
+            for (int i = from; i < to; i++) {
+                int pos = upperBound(days[i], i);
+                System.arraycopy(byDay, pos, byDay, pos + 1, i - pos);
+                byDay[pos] = i;
+            }
+            return;
+        }
+
+        // Ключ "дата, номер": сортировка по нему устойчива по порядку добавления
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) days[from + i] << 32) | (from + i);
+        }
+        Arrays.sort(keys);
+
+        int[] merged = new int[byDay.length];
+        int a = 0;
+        int b = 0;
+        int out = 0;
+        while (a < from && b < count) {
+            int row = (int) keys[b];
+            // при равной дате раньше идут старые операции
+            if (days[byDay[a]] <= days[row]) {
+                merged[out++] = byDay[a++];
+            } else {
+                merged[out++] = row;
+                b++;
+            }
+        }
+        while (a < from) {
+            merged[out++] = byDay[a++];
+        }
+        while (b < count) {
+            merged[out++] = (int) keys[b++];
+        }
+        byDay = merged;
+    }
+
+    /**
+     * Позиция в индексе по дате первой операции с датой не раньше day.
+     */
+    int lowerBound(int day) {
+        ensureIndexed();
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (days[byDay[mid]] < day) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Позиция в индексе по дате первой операции с датой позже day.
+     */
+    int upperBound(int day) {
+        ensureIndexed();
+        return upperBound(day, size);
+    }
+
+    // Двоичный поиск по первым count позициям индекса
+    private int upperBound(int day, int count) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (days[byDay[mid]] <= day) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Номер операции, стоящей на позиции rank в индексе по дате.
+     */
+    int byDay(int rank) {
+        ensureIndexed();
+        return byDay[rank];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Примерный объём памяти: столбцы по их ёмкости и строки словарей (без учёта длины строк).
+     */
+    long estimatedBytes() {
+        long strings = (long) categoryPool.size() + descriptionPool.size() + currencyPool.size();
+        return (long) days.length * ROW_BYTES + strings * POOL_ENTRY_BYTES;
+    }
+
+    int day(int i) {
+        return days[i];
+    }
+
+    TransactionType type(int i) {
+        return TYPES[types[i]];
+    }
+
+    int categoryId(int i) {
+        return categories[i];
+    }
+
+    long amountMinor(int i) {
+        return amounts[i];
+    }
+
+    int currencyId(int i) {
+        return currencies[i];
+    }
+
+    String currency(int i) {
+        return currencyPool.get(currencies[i]);
+    }
+
+    String category(int i) {
+        return categoryPool.get(categories[i]);
+    }
+
+    String description(int i) {
+        return descriptionPool.get(descriptions[i]);
+    }
+
+    StringPool categoryPool() {
+        return categoryPool;
+    }
+
+    StringPool descriptionPool() {
+        return descriptionPool;
+    }
+
+    /**
+     * Словарь валют операций; номера только добавляются.
+     */
+    StringPool currencyPool() {
+        return currencyPool;
+    }
+
+    int descriptionId(int i) {
+        return descriptions[i];
+    }
+
+    Transaction get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        }
+        return new Transaction(type(i), amounts[i], category(i), description(i),
+                LocalDate.ofEpochDay(days[i]), currency(i));
+    }
+
+    /**
+     * Список-представление: элементы создаются при обращении и не хранятся.
+     */
+    List<Transaction> asList() {
+        return new View();
+    }
+
+    private static int[] remap(StringPool from, StringPool to) {
+        int[] ids = new int[from.size()];
+        for (int id = 0; id < ids.length; id++) {
+            ids[id] = to.intern(from.get(id));
+        }
+        return ids;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= days.length) {
+            return;
+        }
+        int capacity = Math.max(required, days.length + (days.length >> 1));
+        days = Arrays.copyOf(days, capacity);
+        types = Arrays.copyOf(types, capacity);
+        categories = Arrays.copyOf(categories, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        currencies = Arrays.copyOf(currencies, capacity);
+        byDay = Arrays.copyOf(byDay, capacity);
+    }
+
+    private final class View extends AbstractList<Transaction> implements RandomAccess {
+        @Override
+        public Transaction get(int index) {
+            return TransactionColumns.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Словарь строк: каждой различной строке - постоянный номер.
+     */
+    static final class StringPool {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int intern(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        /**
+         * Номер строки или -1, если её нет в словаре.
+         */
+        int find(String value) {
+            Integer id = ids.get(value);
+            return id == null ? -1 : id;
+        }
+
+        String get(int id) {
+            return values.get(id);
+        }
+
+        /**
+         * Меняет строку под номером id; номер сохраняется, так что всё, что ссылается на него,
+         * видит новую строку. Если такая строка уже есть под другим номером, intern
+         * и find продолжают возвращать прежний номер.
+         */
+        void rename(int id, String value) {
+            String old = values.get(id);
+            Integer mapped = ids.get(old);
+            if (mapped != null && mapped == id) {
+                ids.remove(old);
+            }
+            values.set(id, value);
+            ids.putIfAbsent(value, id);
+        }
+
+        int size() {
+            return values.size();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Учёт загруженных кошельков: в памяти держатся недавно использованные, остальные
+ * выгружаются обратно в свои секции файла данных и при следующем обращении
+ * разбираются заново (см. {@link UserAccount#getWallet}).
+ *
+ * Размер ограничен числом кошельков (свойство finance.cache.wallets) и их примерным
+ * объёмом в памяти (finance.cache.walletMb, оценка - {@link Wallet#estimatedBytes}).
+ * Выгрузить можно только кошелёк, совпадающий со своей секцией на диске; изменённый
+ * остаётся в памяти до сохранения, которое перепривязывает его к новой секции. Поэтому
+ * при переполнении кэш лишь просит сохранения (onOverflow), а вытесняет {@link #trim}
+ * под блокировкой снимка - когда ни одно изменение не держит ссылку на кошелёк.
+ *
+ * Обращение не берёт блокировок: попадание лишь ставит записи отметку времени и
+ * увеличивает счётчик. Порядок давности нужен только {@link #trim} - он сортирует
+ * записи по отметкам, и вызывается только под блокировкой снимка.
+ */
+final class WalletCache {
+
+    static final int MAX_WALLETS = Integer.getInteger("finance.cache.wallets", 10_000);
+    static final long MAX_BYTES = Integer.getInteger("finance.cache.walletMb", 256) * 1024L * 1024L;
+
+    private final int maxWallets;
+    private final long maxBytes;
+    private final Runnable onOverflow;
+    private final Map<UserAccount, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final AtomicBoolean overflowReported = new AtomicBoolean();
+
+    WalletCache(Runnable onOverflow) {
+        this(MAX_WALLETS, MAX_BYTES, onOverflow);
+    }
+
+    /**
+     * @param onOverflow вызывается (один раз до следующего {@link #trim}), когда кэш
+     *                   превысил ограничения
+     */
+    WalletCache(int maxWallets, long maxBytes, Runnable onOverflow) {
+        if (maxWallets < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Ограничения кэша кошельков должны быть больше нуля.");
+        }
+        this.maxWallets = maxWallets;
+        this.maxBytes = maxBytes;
+        this.onOverflow = onOverflow;
+    }
+
+    /**
+     * Обращение к кошельку пользователя.
+     *
+     * @param loaded кошелёк только что разобран из секции (промах)
+     */
+    void access(UserAccount user, Wallet wallet, boolean loaded) {
+        if (!loaded) {
+            hits.increment();
+            Entry entry = entries.get(user);
+            if (entry != null) {
+                entry.stamp = System.nanoTime();
+                return;
+            }
+            // кошелёк был в памяти до подключения кэша
+            Entry fresh = new Entry(wallet.estimatedBytes());
+            if (entries.putIfAbsent(user, fresh) != null) {
+                return;
+            }
+            weight.addAndGet(fresh.bytes);
+        } else {
+            misses.increment();
+            put(user, wallet);
+        }
+        if (isOverflowing() && overflowReported.compareAndSet(false, true)) {
+            onOverflow.run();
+        }
+    }
+
+    /**
+     * Учитывает кошелёк, загруженный до подключения кэша, не считая это обращением.
+     */
+    void register(UserAccount user, Wallet wallet) {
+        put(user, wallet);
+    }
+
+    // Новая запись на каждую загрузку: trim не удалит запись кошелька, загруженного заново
+    private void put(UserAccount user, Wallet wallet) {
+        long bytes = wallet.estimatedBytes();
+        Entry previous = entries.put(user, new Entry(bytes));
+        weight.addAndGet(bytes - (previous == null ? 0 : previous.bytes));
+    }
+
+    /**
+     * Пересчитывает вес кошельков и выгружает давно не использованные, пока кэш
+     * превышает ограничения. Вызывается под {@link AppData#snapshotLock()}.
+     */
+    void trim() {
+        List<Map.Entry<UserAccount, Entry>> byAge = new ArrayList<>(entries.entrySet());
+        long total = 0;
+        for (Map.Entry<UserAccount, Entry> e : byAge) {
+            Wallet wallet = e.getKey().getLoadedWallet();
+            Entry entry = e.getValue();
+            entry.bytes = wallet == null ? 0 : wallet.estimatedBytes();
+            total += entry.bytes;
+        }
+        weight.set(total);
+        byAge.sort(Comparator.comparingLong(e -> e.getValue().stamp));
+        for (Map.Entry<UserAccount, Entry> e : byAge) {
+            if (!isOverflowing()) {
+                break;
+            }
+            UserAccount user = e.getKey();
+            // Несохранённый кошелёк выгружать некуда - он остаётся до следующего сохранения
+            boolean unloaded = user.unloadIfClean();
+            if ((unloaded || !user.isWalletLoaded()) && entries.remove(user, e.getValue())) {
+                weight.addAndGet(-e.getValue().bytes);
+                if (unloaded) {
+                    evictions.increment();
+                }
+            }
+        }
+        overflowReported.set(false);
+    }
+
+    boolean isOverflowing() {
+        return entries.size() > maxWallets || weight.get() > maxBytes;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long weight() {
+        return weight.get();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    // Вес кошелька и время последнего обращения (System.nanoTime)
+    private static final class Entry {
+        volatile long stamp = System.nanoTime();
+        volatile long bytes;
+
+        Entry(long bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
@@ -3,6 +3,11 @@ package org.example;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class AuthServiceTest {
@@ -35,6 +40,161 @@ public class AuthServiceTest {
         });
     }
 
+    @Test
+    void passwordIsStoredAsSaltedHash() {
+        UserAccount first = authService.register("user1", "pass1");
+        UserAccount second = authService.register("user2", "pass1");
+        assertTrue(first.getPassword().startsWith("pbkdf2$"));
+        assertFalse(first.getPassword().contains("pass1"));
+        assertNotEquals(first.getPassword(), second.getPassword()); // разная соль
+        assertTrue(first.checkPassword("pass1"));
+        assertFalse(first.checkPassword("pass2"));
+    }
+
+    @Test
+    void legacyPlaintextIsRehashedOnLogin() {
+        UserAccount legacy = new UserAccount("old", "secret");
+        data.getUsers().put("old", legacy);
+
+        assertThrows(IllegalArgumentException.class, () -> authService.login("old", "wrong"));
+        assertEquals("secret", legacy.getPassword());
+        assertSame(legacy, authService.login("OLD", "secret"));
+        assertTrue(PasswordHash.isHashed(legacy.getPassword()));
+        assertFalse(PasswordHash.needsRehash(legacy.getPassword()));
+        assertTrue(legacy.checkPassword("secret"));
+    }
+
+    @Test
+    void repeatedLoginUsesSessionCache() {
+        authService.register("user1", "pass1");
+        data.getSessions().invalidate("user1");
+        assertEquals(0, data.getSessions().size());
+
+        authService.login("user1", "pass1");
+        assertEquals(1, data.getSessions().size());
+        assertTrue(data.getSessions().matches("user1", data.getUsers().get("user1").getPassword(), "pass1"));
+        // Другой сеанс (свой AuthService) пользуется тем же кэшем, неверный пароль кэш не пропускает
+        AuthService other = new AuthService(data);
+        assertNotNull(other.login("user1", "pass1"));
+        assertThrows(IllegalArgumentException.class, () -> other.login("user1", "pass2"));
+        assertThrows(IllegalArgumentException.class, () -> other.login("nobody", "pass1"));
+    }
+
+    @Test
+    void sessionCacheIsBounded() {
+        SessionCache cache = new SessionCache(2);
+        cache.remember("a", "h", "p");
+        cache.remember("b", "h", "p");
+        assertTrue(cache.matches("a", "h", "p")); // "a" становится самым свежим
+        cache.remember("c", "h", "p");
+        assertEquals(2, cache.size());
+        assertFalse(cache.matches("b", "h", "p"));
+        assertTrue(cache.matches("a", "h", "p"));
+        assertFalse(cache.matches("a", "h2", "p")); // хранимая строка сменилась
+    }
+
+    @Test
+    void usernameKeyDoesNotDependOnDefaultLocale() {
+        Locale saved = Locale.getDefault();
+        try {
+            // В турецкой локали "I" в нижнем регистре - "ı" без точки
+            Locale.setDefault(new Locale("tr", "TR"));
+            authService.register("IVAN", "pass1");
+        } finally {
+            Locale.setDefault(saved);
+        }
+        assertTrue(data.getUsers().containsKey("ivan"));
+        assertNotNull(authService.login("Ivan", "pass1"));
+    }
+
+    @Test
+    void failedLoginsAreThrottledPerUserAndSource() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        data.setLoginThrottle(new LoginThrottle(3, 5, 60_000, 1000, now::get));
+        authService.register("user1", "pass1");
+        authService.register("user2", "pass2");
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IllegalArgumentException.class, () -> authService.login("user1", "wrong", "10.0.0.1"));
+        }
+        // Лимит логина исчерпан: даже верный пароль не проверяется, и с другого адреса тоже
+        assertThrows(IllegalStateException.class, () -> authService.login("User1", "pass1", "10.0.0.2"));
+        assertNotNull(authService.login("user2", "pass2", "10.0.0.1"));
+
+        // Ещё две неудачи с того же адреса по другому логину - исчерпан лимит источника
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IllegalArgumentException.class, () -> authService.login("nobody", "x", "10.0.0.1"));
+        }
+        assertThrows(IllegalStateException.class, () -> authService.login("user2", "pass2", "10.0.0.1"));
+
+        // Прошлое окно учитывается с весом: через полтора окна неудачи забыты
+        now.addAndGet(90_000);
+        assertNotNull(authService.login("user1", "pass1", "10.0.0.1"));
+    }
+
+    @Test
+    void reconnectingDoesNotResetSourceLimit() {
+        AtomicLong now = new AtomicLong(1_000_000);
+        data.setLoginThrottle(new LoginThrottle(3, 5, 60_000, 1000, now::get));
+        authService.register("alice", "secret");
+
+        // Каждое соединение - новый сеанс со своим лимитом, но с того же адреса
+        for (int i = 0; i < 5; i++) {
+            CommandContext connection = new CommandContext(data, "10.0.0.1", 2);
+            assertFalse(connection.execute(new Command.Login("guess" + i, "x")).isOk());
+            assertFalse(connection.loginAttemptsExhausted());
+        }
+        CommandContext reconnected = new CommandContext(data, "10.0.0.1", 2);
+        CommandResult blocked = reconnected.execute(new Command.Login("alice", "secret"));
+        assertFalse(blocked.isOk());
+        assertTrue(blocked.getMessage().contains("Слишком много"), blocked.getMessage());
+        assertFalse(reconnected.execute(new Command.Login("alice", "secret")).isOk());
+        assertTrue(reconnected.loginAttemptsExhausted());
+
+        // Другой адрес и консоль лимитом чужого источника не задеты
+        assertNotNull(authService.login("alice", "secret", "10.0.0.2"));
+        assertNotNull(authService.login("alice", "secret"));
+    }
+
+    @Test
+    void throttleCountersAreLockFreeAndBounded() throws InterruptedException {
+        AtomicLong now = new AtomicLong(0);
+        LoginThrottle throttle = new LoginThrottle(8000, Integer.MAX_VALUE, 60_000, 100, now::get);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 999; i++) {
+                    throttle.recordFailure("victim", "src");
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // 7992 неудачи: ни одна не потеряна, до лимита ровно 8
+        for (int i = 0; i < 7; i++) {
+            throttle.recordFailure("victim", "src");
+        }
+        assertFalse(throttle.isBlocked("victim", "other"));
+        throttle.recordFailure("victim", "src");
+        assertTrue(throttle.isBlocked("victim", "other"));
+
+        // Перебор миллионов логинов не раздувает память сверх лимита
+        for (int i = 0; i < 10_000; i++) {
+            throttle.recordFailure("user" + i, "src");
+        }
+        assertTrue(throttle.size() <= 200);
+        // Таблица заполнена: неотслеживаемый логин закрыт, а не пропущен без учёта
+        assertTrue(throttle.isBlocked("user9999", null));
+        assertTrue(throttle.isBlocked("victim", null));
+        // Через два окна счётчики истекли, и заполненная таблица очищается при проверке
+        now.addAndGet(120_000);
+        assertFalse(throttle.isBlocked("user9999", null));
+        assertEquals(0, throttle.size());
+    }
+
     @Test
     void loginWrongPasswordThrows() {
         authService.register("user1", "pass1");
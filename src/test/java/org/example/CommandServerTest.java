@@ -0,0 +1,118 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandServerTest {
+
+    private AppData data;
+    private CommandServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        data = new AppData();
+        server = new CommandServer(data, 0);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void sessionRunsScriptWithoutConsole() {
+        StringWriter output = new StringWriter();
+        String script = "register\nivan\npass\nadd_income\n1000\nЗП\nаванс\nadd_expense\n250.50\nЕда\nобед\nsummary\n";
+        new CommandSession(data, new BufferedReader(new StringReader(script)), new PrintWriter(output)).run();
+
+        assertEquals(Money.parse("749.50"), data.getUsers().get("ivan").getWallet().getBalance());
+        assertTrue(output.toString().contains("Текущий баланс: " + Money.format(Money.parse("749.50"))));
+    }
+
+    @Test
+    void connectionsHaveOwnSessionsOverSharedData() throws Exception {
+        int clients = 20;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int n = c;
+                results.add(pool.submit(() -> {
+                    StringBuilder commands = new StringBuilder("register\nuser" + n + "\npass\n");
+                    for (int i = 0; i < 10; i++) {
+                        commands.append("add_expense\n10\nЕда\nобед\n");
+                    }
+                    commands.append("summary\nexit\n");
+                    return talk(commands.toString());
+                }));
+            }
+            for (int c = 0; c < clients; c++) {
+                String response = results.get(c).get(30, TimeUnit.SECONDS);
+                assertTrue(response.contains("[user" + c + "] > "), response);
+                assertTrue(response.contains("Текущий баланс: " + Money.format(Money.ofMajor(-100))), response);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(clients, data.getUsers().size());
+        for (UserAccount user : data.getUsers().values()) {
+            assertEquals(10, user.getWallet().getTransactionCount());
+        }
+    }
+
+    @Test
+    void duplicateLoginOverNetworkIsRejected() throws Exception {
+        talk("register\npetya\npass\nexit\n");
+        String second = talk("register\nPetya\nqwerty\nexit\n");
+        assertTrue(second.contains("уже существует"), second);
+        assertEquals(1, data.getUsers().size());
+    }
+
+    @Test
+    void connectionIsClosedAfterTooManyFailedLogins() throws Exception {
+        talk("register\nivan\npass\nexit\n");
+        StringBuilder commands = new StringBuilder();
+        for (int i = 0; i < LoginThrottle.MAX_SESSION_FAILURES; i++) {
+            commands.append("login\nguess").append(i).append("\nx\n");
+        }
+        commands.append("login\nivan\npass\nexit\n");
+        String response = talk(commands.toString());
+        assertTrue(response.contains("сеанс завершён"), response);
+        assertFalse(response.contains("Добро пожаловать"), response);
+        // Для loopback лимит только у сеанса: новое соединение входит как обычно
+        assertTrue(talk("login\nivan\npass\nexit\n").contains("Добро пожаловать, ivan!"));
+    }
+
+    // Отправляет команды одним куском и читает ответ до закрытия соединения сервером
+    private String talk(String commands) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(commands.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandTest {
+
+    @Test
+    void tokenizerKeepsQuotedSpaces() {
+        assertEquals(Arrays.asList("add_expense", "250", "Еда", "обед в \"кафе\""),
+                CommandParser.tokenize("add_expense  250 Еда \"обед в \"\"кафе\"\"\""));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.tokenize("add_expense 1 \"Еда"));
+    }
+
+    @Test
+    void commandsRunWithoutConsole() {
+        AppData data = new AppData();
+        CommandContext context = new CommandContext(data);
+
+        assertFalse(context.execute(CommandParser.parse("summary")).isOk());
+        assertTrue(context.execute(new Command.Register("ivan", "pass")).isOk());
+        assertSame(data.getUsers().get("ivan"), context.getUser());
+
+        context.execute(new Command.AddIncome(Money.ofMajor(1000), "ЗП", "аванс"));
+        context.execute(new Command.SetBudget("Еда", Money.ofMajor(100), false));
+        CommandResult expense = context.execute(CommandParser.parse("add_expense 95 Еда \"обед в кафе\""));
+        assertTrue(expense.isOk());
+        assertTrue(expense.getLines().get(0).startsWith("Осторожно: вы превысили 90%"), expense.getLines().toString());
+        assertEquals(Money.ofMajor(905), context.getUser().getWallet().getBalance());
+
+        CommandResult badAmount = context.execute(new Command.AddExpense(0, "Еда", ""));
+        assertFalse(badAmount.isOk());
+        assertEquals("Неверные данные: Сумма должна быть больше нуля.", badAmount.getMessage());
+
+        CommandResult report = context.execute(new Command.Report(LocalDate.now(), LocalDate.now().minusDays(1), null));
+        assertFalse(report.isOk());
+
+        assertFalse(context.execute(new Command.SetBudget("Транспорт", Money.ofMajor(10), true)).isOk());
+        context.execute(new Command.Logout());
+        assertNull(context.getUser());
+    }
+
+    @Test
+    void parserRejectsBadArguments() {
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse("add_expense сто Еда"));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse("add_expense 100"));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse("report 2025-13-01"));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse("list_tx 0"));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse("fly"));
+        assertInstanceOf(Command.Report.class, CommandParser.parse("report - 2025-01-31 \"Еда, Транспорт\""));
+        assertInstanceOf(Command.Report.class, CommandParser.parse("report - - - 50 3"));
+        assertThrows(IllegalArgumentException.class, () -> CommandParser.parse("report - - - 50 0"));
+    }
+
+    @Test
+    void batchRunsThousandsOfCommandsAndReportsErrors() throws Exception {
+        AppData data = new AppData();
+        StringBuilder script = new StringBuilder("# пакет\nregister anna pass\nset_budget Еда 100000\n\n");
+        int expenses = 5_000;
+        for (int i = 0; i < expenses; i++) {
+            script.append("add_expense 10.5 Еда \"обед ").append(i).append("\"\n");
+        }
+        script.append("add_expense -1 Еда\n");
+        script.append("add_income 500 ЗП - 2025-01-15\n");
+        script.append("add_income 7 \"\"\n");
+        script.append("summary\n");
+        script.append("exit\n");
+        script.append("add_income 100 ЗП\n");
+
+        StringWriter output = new StringWriter();
+        BatchRunner.Summary summary = new BatchRunner(data, new PrintWriter(output), true)
+                .run(new BufferedReader(new StringReader(script.toString())));
+
+        assertEquals(expenses + 6, summary.getExecuted());
+        assertEquals(2, summary.getFailed());
+        assertTrue(output.toString().startsWith("Строка " + (expenses + 5) + ": add_expense -1 Еда"), output.toString());
+        Wallet wallet = data.getUsers().get("anna").getWallet();
+        assertTrue(output.toString().contains("Строка " + (expenses + 7) + ": add_income 7 \"\""), output.toString());
+        assertEquals(expenses + 1, wallet.getTransactionCount());
+        assertEquals(Money.ofMajor(500) - Money.parse("10.5") * expenses, wallet.getBalance());
+        assertEquals(LocalDate.of(2025, 1, 15), wallet.getLatestTransactions(expenses + 1).get(expenses).getDate());
+    }
+}
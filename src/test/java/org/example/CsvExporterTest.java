@@ -0,0 +1,68 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты экспорта CSV.
+ */
+public class CsvExporterTest {
+
+    private final WalletService walletService = new WalletService();
+
+    private static Path tempFile(String suffix) throws IOException {
+        Path file = Files.createTempFile("export_test", suffix);
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    private static UserAccount sampleUser() {
+        UserAccount user = new UserAccount("ivan", "1234");
+        Wallet wallet = user.getWallet();
+        wallet.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("1500.05"), "ЗП", "аванс, март",
+                LocalDate.of(2024, 3, 1)));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 7, "Еда", "ужин \"у мамы\"",
+                LocalDate.of(2024, 3, 2)));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, Money.ofMajor(120), "Транспорт", "такси",
+                LocalDate.of(2024, 4, 10)));
+        return user;
+    }
+
+    @Test
+    void exportWritesEscapedUtf8Rows() throws IOException {
+        Path file = tempFile(".csv");
+        walletService.exportTransactionsToCsv(sampleUser(), file.toString());
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals("date,type,category,description,amount", lines.get(0));
+        assertEquals("2024-03-01,INCOME,ЗП,\"аванс, март\",1500.05", lines.get(1));
+        assertEquals("2024-03-02,EXPENSE,Еда,\"ужин \"\"у мамы\"\"\",0.07", lines.get(2));
+        assertEquals("2024-04-10,EXPENSE,Транспорт,такси,120.00", lines.get(3));
+        assertEquals(4, lines.size());
+    }
+
+    @Test
+    void filteredGzipExportContainsOnlySelectedRows() throws IOException {
+        Path file = tempFile(".csv.gz");
+        int exported = walletService.exportTransactionsToCsv(sampleUser(), file.toString(),
+                LocalDate.of(2024, 3, 2), null, Collections.singleton("еда"));
+        assertEquals(1, exported);
+
+        String content;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertEquals(CsvExporter.HEADER + "2024-03-02,EXPENSE,Еда,\"ужин \"\"у мамы\"\"\",0.07\n", content);
+    }
+}
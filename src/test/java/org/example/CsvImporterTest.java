@@ -0,0 +1,141 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты параллельного импорта CSV.
+ */
+public class CsvImporterTest {
+
+    private static Path write(String content) throws IOException {
+        Path file = Files.createTempFile("import_test", ".csv");
+        file.toFile().deleteOnExit();
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    void parsesQuotedFieldsAndReportsBadLines() throws IOException {
+        Path file = write("date,type,category,description,amount\r\n"
+                + "2024-03-01,income,ЗП,\"аванс, март\",1500.50\r\n"
+                + "2024-03-02,EXPENSE, Еда ,\"ужин \"\"у мамы\"\"\",200\n"
+                + "\n"
+                + "2024-03-03,EXPENSE,Еда,\"две\n строки\",10,лишний столбец\n"
+                + "2024-02-30,EXPENSE,Еда,x,10\n"
+                + "2024-03-04,EXPENSE,Еда,x,abc\n"
+                + "2024-03-05,EXPENSE,Еда,x,-5\n"
+                + "2024-03-06,EXPENSE,Еда\n");
+
+        CsvImporter.Result result = new CsvImporter().parse(file);
+        List<Transaction> rows = result.getTransactions().asList();
+        assertEquals(3, rows.size());
+        assertEquals(TransactionType.INCOME, rows.get(0).getType());
+        assertEquals("аванс, март", rows.get(0).getDescription());
+        assertEquals(150050, rows.get(0).getAmount());
+        assertEquals("Еда", rows.get(1).getCategory());
+        assertEquals("ужин \"у мамы\"", rows.get(1).getDescription());
+        assertEquals("две\n строки", rows.get(2).getDescription());
+        assertEquals(LocalDate.of(2024, 3, 3), rows.get(2).getDate());
+
+        CsvImporter.Report report = result.getReport();
+        assertEquals(3, report.getImported());
+        assertEquals(4, report.getErrorCount());
+        List<CsvImporter.LineError> errors = report.getErrors();
+        assertEquals(7, errors.get(0).getLine());
+        assertEquals(CsvImporter.Reason.BAD_DATE, errors.get(0).getReason());
+        assertEquals(CsvImporter.Reason.BAD_AMOUNT, errors.get(1).getReason());
+        assertEquals(CsvImporter.Reason.NON_POSITIVE_AMOUNT, errors.get(2).getReason());
+        assertEquals(10, errors.get(3).getLine());
+        assertEquals(CsvImporter.Reason.TOO_FEW_COLUMNS, errors.get(3).getReason());
+        assertEquals("2024-03-06,EXPENSE,Еда", errors.get(3).getText());
+    }
+
+    @Test
+    void currencyColumnIsReadWhenDeclared() throws IOException {
+        StringBuilder csv = new StringBuilder("date,type,category,description,amount,currency\n");
+        for (int i = 0; i < 200; i++) {
+            csv.append("2024-03-01,EXPENSE,Еда,x,1.00,").append(i % 3 == 0 ? "usd" : i % 3 == 1 ? "" : "RUB").append('\n');
+        }
+        csv.append("2024-03-02,EXPENSE,Еда,x,1.00,доллар\n");
+        // маленькие куски: заголовок видит только первый, но столбец валюты читают все
+        CsvImporter.Result result = new CsvImporter(256, ForkJoinPool.commonPool()).parse(write(csv.toString()));
+
+        List<Transaction> rows = result.getTransactions().asList();
+        assertEquals(200, rows.size());
+        assertEquals(67, rows.stream().filter(tx -> tx.getCurrency().equals("USD")).count());
+        assertEquals(133, rows.stream().filter(tx -> tx.getCurrency().equals(Money.BASE_CURRENCY)).count());
+        assertEquals(CsvImporter.Reason.BAD_CURRENCY, result.getReport().getErrors().get(0).getReason());
+    }
+
+    @Test
+    void chunkedParseMatchesSingleChunk() throws IOException {
+        Random rnd = new Random(11);
+        StringBuilder csv = new StringBuilder("date,type,category,description,amount\n");
+        String[] descriptions = {"обед", "\"с запятой, внутри\"", "\"кавычки \"\"тут\"\"\"", "\"перенос\nстроки\""};
+        for (int i = 0; i < 5000; i++) {
+            if (i % 97 == 0) {
+                csv.append("плохая строка\n");
+                continue;
+            }
+            csv.append(LocalDate.of(2024, 1, 1).plusDays(rnd.nextInt(300))).append(',')
+                    .append(rnd.nextBoolean() ? "INCOME" : "EXPENSE").append(',')
+                    .append("кат").append(rnd.nextInt(30)).append(',')
+                    .append(descriptions[rnd.nextInt(descriptions.length)]).append(',')
+                    .append(Money.format(1 + rnd.nextInt(1_000_000))).append('\n');
+        }
+        Path file = write(csv.toString());
+
+        CsvImporter.Result single = new CsvImporter(Integer.MAX_VALUE, ForkJoinPool.commonPool()).parse(file);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        CsvImporter.Result chunked;
+        try {
+            chunked = new CsvImporter(4096, pool).parse(file);
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Transaction> expected = single.getTransactions().asList();
+        List<Transaction> actual = chunked.getTransactions().asList();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getDate(), actual.get(i).getDate());
+            assertEquals(expected.get(i).getType(), actual.get(i).getType());
+            assertEquals(expected.get(i).getCategory(), actual.get(i).getCategory());
+            assertEquals(expected.get(i).getDescription(), actual.get(i).getDescription());
+            assertEquals(expected.get(i).getAmount(), actual.get(i).getAmount());
+        }
+        assertEquals(single.getReport().getErrorCount(), chunked.getReport().getErrorCount());
+        for (int i = 0; i < single.getReport().getErrors().size(); i++) {
+            assertEquals(single.getReport().getErrors().get(i).getLine(), chunked.getReport().getErrors().get(i).getLine());
+        }
+    }
+
+    @Test
+    void importedBatchUpdatesWalletIndex() throws IOException {
+        Path file = write("date,type,category,description,amount\n"
+                + "2024-03-01,INCOME,ЗП,зарплата,1000\n"
+                + "2024-03-02,EXPENSE,Еда,обед,150.25\n"
+                + "2024-04-02,EXPENSE,еда,ужин,50\n");
+        UserAccount user = new UserAccount("ivan", "1234");
+
+        CsvImporter.Report report = new WalletService().importTransactionsFromCsv(user, file.toString());
+
+        assertEquals(3, report.getImported());
+        Wallet wallet = user.getWallet();
+        assertEquals(Money.parse("799.75"), wallet.getBalance());
+        assertEquals(Money.parse("150.25"), wallet.getSpentForCategoryInMonth("Еда", YearMonth.of(2024, 3)));
+        assertEquals(Money.ofMajor(50), wallet.getSpentForCategoryInMonth("ЕДА", YearMonth.of(2024, 4)));
+    }
+}
@@ -31,15 +31,15 @@ public class FinanceIntegrationTest {
         assertEquals(user, logged);
 
         // Доход
-        walletService.addIncome(logged, 5000.0, "ЗП", "зарплата");
+        walletService.addIncome(logged, Money.ofMajor(5000), "ЗП", "зарплата");
         // Бюджет по Еда
-        walletService.setBudget(logged, "Еда", 2000.0);
+        walletService.setBudget(logged, "Еда", Money.ofMajor(2000));
         // Расход
-        walletService.addExpense(logged, 1000.0, "Еда", "продукты");
+        walletService.addExpense(logged, Money.ofMajor(1000), "Еда", "продукты");
 
         Wallet wallet = logged.getWallet();
         assertEquals(2, wallet.getTransactions().size());
-        assertEquals(4000.0, wallet.getBalance(), 0.0001);
+        assertEquals(Money.ofMajor(4000), wallet.getBalance());
 
         // Сводка
         List<String> summary = walletService.buildSummary(logged);
@@ -51,7 +51,7 @@ public class FinanceIntegrationTest {
     void dataStoreSaveAndLoadKeepsUsers() {
         // создаём пользователя
         UserAccount user = authService.register("masha", "abcd");
-        walletService.addIncome(user, 1000.0, "ЗП", "зарплата");
+        walletService.addIncome(user, Money.ofMajor(1000), "ЗП", "зарплата");
 
         // сохраняем
         DataStore.save(data);
@@ -63,6 +63,6 @@ public class FinanceIntegrationTest {
         AuthService authService2 = new AuthService(loaded);
         UserAccount logged = authService2.login("masha", "abcd");
         assertNotNull(logged);
-        assertEquals(1000.0, logged.getWallet().getBalance(), 0.0001);
+        assertEquals(Money.ofMajor(1000), logged.getWallet().getBalance());
     }
 }
@@ -0,0 +1,70 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты таблицы курсов: поиск по дате, обратные и кросс-курсы, кэш.
+ */
+public class FxRatesTest {
+
+    private static final String TABLE = "date,from,to,rate\n"
+            + "# курсы ЦБ\n"
+            + "2025-01-01,USD,RUB,100\n"
+            + "2025-02-01,USD,RUB,90\n"
+            + "2025-01-01,RUB,EUR,0.01\n"
+            + "\n"
+            + "2025-02-01,usd,rub,95\n"; // повтор даты - действует последняя запись
+
+    private static FxRates rates(int cacheSize) throws IOException {
+        return FxRates.parse(new StringReader(TABLE), cacheSize);
+    }
+
+    @Test
+    void rateIsTakenFromLatestEntryNotAfterDate() throws IOException {
+        FxRates rates = rates(16);
+        assertNull(rates.rate("USD", "RUB", LocalDate.of(2024, 12, 31)));
+        assertEquals(0, new BigDecimal("100").compareTo(rates.rate("USD", "RUB", LocalDate.of(2025, 1, 31))));
+        assertEquals(0, new BigDecimal("95").compareTo(rates.rate("USD", "RUB", LocalDate.of(2025, 3, 1))));
+        assertEquals(BigDecimal.ONE, rates.rate("GBP", "GBP", LocalDate.of(2020, 1, 1)));
+    }
+
+    @Test
+    void inverseAndCrossRates() throws IOException {
+        FxRates rates = rates(16);
+        LocalDate day = LocalDate.of(2025, 1, 15);
+        assertEquals(Money.ofMajor(1), rates.convert(Money.ofMajor(100), "RUB", "USD", day));
+        assertEquals(Money.ofMajor(100), rates.convert(Money.ofMajor(1), "EUR", "RUB", day));
+        // USD -> RUB -> EUR: 1 USD = 100 RUB = 1 EUR
+        assertEquals(Money.ofMajor(5), rates.convert(Money.ofMajor(5), "USD", "EUR", day));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> rates.convert(100, "GBP", "RUB", day));
+        assertTrue(e.getMessage().contains("GBP/RUB"));
+    }
+
+    @Test
+    void cacheKeepsMostRecentPairs() throws IOException {
+        FxRates rates = rates(2);
+        LocalDate day = LocalDate.of(2025, 1, 15);
+        rates.rate("USD", "RUB", day);
+        rates.rate("USD", "RUB", day);
+        assertEquals(1, rates.cachedRates());
+        rates.rate("EUR", "RUB", day);
+        rates.rate("GBP", "RUB", day); // курса нет - промах тоже запоминается
+        assertEquals(2, rates.cachedRates());
+        assertNull(rates.rate("GBP", "RUB", day));
+    }
+
+    @Test
+    void badLineIsReportedWithNumber() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> FxRates.parse(new StringReader("2025-01-01,USD,RUB,100\n2025-01-02,USD,RUB,-1\n"), 16));
+        assertTrue(e.getMessage().contains("строка 2"));
+    }
+}
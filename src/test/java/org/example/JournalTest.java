@@ -0,0 +1,194 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты журнала изменений: восстановление снимка + хвоста журнала.
+ */
+public class JournalTest {
+
+    private File dataFile;
+    private File journalFile;
+    private WalletService walletService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File dir = Files.createTempDirectory("journal_test").toFile();
+        dir.deleteOnExit();
+        dataFile = new File(dir, "finance.dat");
+        journalFile = new File(dir, "finance.journal");
+        dataFile.deleteOnExit();
+        journalFile.deleteOnExit();
+        walletService = new WalletService();
+    }
+
+    @Test
+    void changesSurviveWithoutSnapshot() throws IOException {
+        AppData data = DataStore.load(dataFile, journalFile);
+        DataStore.openJournal(data, journalFile, Journal.FsyncPolicy.ALWAYS);
+        AuthService auth = new AuthService(data);
+
+        UserAccount user = auth.register("ivan", "1234");
+        walletService.addIncome(user, Money.ofMajor(1000), "ЗП", "зарплата");
+        walletService.setBudget(user, "Еда", Money.ofMajor(500), new int[]{60, 95});
+        walletService.addExpense(user, Money.ofMajor(200), "Еда", "обед");
+        walletService.renameCategory(user, "Еда", "Продукты");
+        DataStore.closeJournal(data); // «падение»: снимок так и не записан
+
+        assertFalse(dataFile.exists());
+        AppData restored = DataStore.load(dataFile, journalFile);
+        UserAccount logged = new AuthService(restored).login("ivan", "1234");
+        Wallet wallet = logged.getWallet();
+        assertEquals(2, wallet.getTransactions().size());
+        assertEquals(Money.ofMajor(800), wallet.getBalance());
+        assertNull(wallet.getBudget("Еда"));
+        assertEquals(Money.ofMajor(500), wallet.getBudget("Продукты").getLimit());
+        assertArrayEquals(new int[]{60, 95}, wallet.getBudget("Продукты").getThresholds());
+        assertEquals(Money.ofMajor(200), wallet.getSpentForCategoryInMonth("продукты", YearMonth.now()));
+    }
+
+    @Test
+    void rehashedPasswordIsJournaled() throws IOException {
+        AppData data = DataStore.load(dataFile, journalFile);
+        data.getUsers().put("petr", new UserAccount("petr", "qwerty")); // как из старого файла
+        DataStore.save(data, dataFile, journalFile);
+        DataStore.openJournal(data, journalFile, Journal.FsyncPolicy.ALWAYS);
+        new AuthService(data).login("petr", "qwerty");
+        DataStore.closeJournal(data);
+
+        UserAccount restored = DataStore.load(dataFile, journalFile).getUsers().get("petr");
+        assertTrue(PasswordHash.isHashed(restored.getPassword()));
+        assertTrue(restored.checkPassword("qwerty"));
+    }
+
+    @Test
+    void tornTailIsDiscarded() throws IOException {
+        AppData data = DataStore.load(dataFile, journalFile);
+        DataStore.openJournal(data, journalFile, Journal.FsyncPolicy.OFF);
+        UserAccount user = new AuthService(data).register("masha", "abcd");
+        walletService.addIncome(user, Money.ofMajor(100), "ЗП", "аванс");
+        DataStore.closeJournal(data);
+
+        // Имитируем недописанную запись
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(new byte[]{0, 0, 0, 40, 0, 0, 0});
+        }
+        long validLength = journalFile.length() - 7;
+
+        AppData restored = DataStore.load(dataFile, journalFile);
+        UserAccount logged = new AuthService(restored).login("masha", "abcd");
+        assertEquals(Money.ofMajor(100), logged.getWallet().getBalance());
+        assertEquals(validLength, journalFile.length());
+    }
+
+    @Test
+    void snapshotCompactsJournalWithoutDoubleApply() throws IOException {
+        AppData data = DataStore.load(dataFile, journalFile);
+        DataStore.openJournal(data, journalFile, Journal.FsyncPolicy.BATCH);
+        UserAccount user = new AuthService(data).register("petya", "qwerty");
+        walletService.addIncome(user, Money.ofMajor(300), "ЗП", "аванс");
+
+        File stale = new File(journalFile.getPath() + ".copy");
+        stale.deleteOnExit();
+        Files.copy(journalFile.toPath(), stale.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        DataStore.save(data, dataFile, journalFile);
+        assertEquals(0, journalFile.length());
+        walletService.addIncome(user, Money.ofMajor(50), "ЗП", "премия");
+        DataStore.closeJournal(data);
+
+        // Падение между записью снимка и очисткой журнала: старые записи должны быть пропущены
+        byte[] tail = Files.readAllBytes(journalFile.toPath());
+        Files.copy(stale.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.write(journalFile.toPath(), tail, StandardOpenOption.APPEND);
+
+        AppData restored = DataStore.load(dataFile, journalFile);
+        Wallet wallet = restored.getUsers().get("petya").getWallet();
+        assertEquals(2, wallet.getTransactions().size());
+        assertEquals(Money.ofMajor(350), wallet.getBalance());
+    }
+
+    @Test
+    void failedSaveKeepsSealedJournal() throws IOException {
+        AppData data = DataStore.load(dataFile, journalFile);
+        DataStore.openJournal(data, journalFile, Journal.FsyncPolicy.ALWAYS);
+        UserAccount user = new AuthService(data).register("olga", "secret");
+        walletService.addIncome(user, Money.ofMajor(100), "ЗП", "аванс");
+
+        // Временный файл шарда не создать - снимок не записывается
+        File blocker = new File(DataStore.shardFile(dataFile, DataStore.shardOf("olga")).getPath() + ".tmp");
+        assertTrue(blocker.mkdir());
+        DataStore.save(data, dataFile, journalFile);
+        assertTrue(Files.exists(DataStore.sealedJournal(journalFile)));
+        walletService.addIncome(user, Money.ofMajor(50), "ЗП", "премия");
+        DataStore.closeJournal(data); // «падение»
+
+        AppData restored = DataStore.load(dataFile, journalFile);
+        assertEquals(Money.ofMajor(150), restored.getUsers().get("olga").getWallet().getBalance());
+
+        assertTrue(blocker.delete());
+        DataStore.openJournal(restored, journalFile, Journal.FsyncPolicy.ALWAYS);
+        DataStore.save(restored, dataFile, journalFile);
+        DataStore.closeJournal(restored);
+        assertFalse(Files.exists(DataStore.sealedJournal(journalFile)));
+        assertEquals(0, journalFile.length());
+        assertEquals(Money.ofMajor(150),
+                DataStore.load(dataFile, journalFile).getUsers().get("olga").getWallet().getBalance());
+    }
+
+    @Test
+    void autosaveWritesSnapshotInBackground() throws IOException {
+        AppData data = DataStore.load(dataFile, journalFile);
+        DataStore.openJournal(data, journalFile, Journal.FsyncPolicy.ALWAYS);
+        DataStore.startAutosave(data, dataFile, journalFile, 0);
+        UserAccount user = new AuthService(data).register("vera", "secret");
+        walletService.addIncome(user, Money.ofMajor(70), "ЗП", "аванс");
+        assertTrue(DataStore.hasChanges(data));
+
+        data.getAutoSaver().requestSave();
+        DataStore.stopAutosave(data); // дожидается начатого сохранения
+        assertFalse(DataStore.hasChanges(data));
+        assertEquals(0, journalFile.length());
+        DataStore.closeJournal(data);
+
+        Files.delete(journalFile.toPath());
+        assertEquals(Money.ofMajor(70),
+                DataStore.load(dataFile, journalFile).getUsers().get("vera").getWallet().getBalance());
+    }
+
+    @Test
+    void batchImportIsReplayed() throws IOException {
+        AppData data = DataStore.load(dataFile, journalFile);
+        DataStore.openJournal(data, journalFile, Journal.FsyncPolicy.BATCH);
+        UserAccount user = new AuthService(data).register("petr", "1234");
+        File csv = File.createTempFile("journal_import", ".csv");
+        csv.deleteOnExit();
+        StringBuilder sb = new StringBuilder("date,type,category,description,amount\n");
+        for (int i = 0; i < 20_000; i++) {
+            sb.append("2024-05-01,EXPENSE,Еда,обед ").append(i).append(",1.50\n");
+        }
+        Files.write(csv.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        walletService.importTransactionsFromCsv(user, csv.getPath());
+        DataStore.closeJournal(data);
+
+        AppData restored = DataStore.load(dataFile, journalFile);
+        Wallet wallet = new AuthService(restored).login("petr", "1234").getWallet();
+        assertEquals(20_000, wallet.getTransactions().size());
+        assertEquals(-Money.ofMajor(30_000), wallet.getBalance());
+        assertEquals(Money.ofMajor(30_000), wallet.getSpentForCategoryInMonth("еда", YearMonth.of(2024, 5)));
+        assertEquals("обед 19999", wallet.getTransactions().get(19_999).getDescription());
+    }
+}
@@ -0,0 +1,50 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MoneyTest {
+
+    @Test
+    void parseAcceptsCommonFormats() {
+        assertEquals(150000, Money.parse("1500"));
+        assertEquals(150050, Money.parse("1500.5"));
+        assertEquals(150055, Money.parse("1500,55"));
+        assertEquals(150055, Money.parse(" 1500.550 "));
+        assertEquals(-2500, Money.parse("-25"));
+        assertEquals(10, Money.parse(".1"));
+        // так старый экспорт CSV записывал большие double
+        assertEquals(Money.ofMajor(10_000_000), Money.parse("1.0E7"));
+    }
+
+    @Test
+    void parseRejectsInvalidInput() {
+        assertThrows(NumberFormatException.class, () -> Money.parse(""));
+        assertThrows(NumberFormatException.class, () -> Money.parse("abc"));
+        assertThrows(NumberFormatException.class, () -> Money.parse("12.3.4"));
+        assertThrows(NumberFormatException.class, () -> Money.parse("1.005"));
+        assertThrows(NumberFormatException.class, () -> Money.parse("-"));
+    }
+
+    @Test
+    void formatAlwaysHasTwoFractionDigits() {
+        assertEquals("0.00", Money.format(0));
+        assertEquals("0.05", Money.format(5));
+        assertEquals("1234.50", Money.format(123450));
+        assertEquals("-0.10", Money.format(-10));
+        assertEquals(123450, Money.parse(Money.format(123450)));
+    }
+
+    @Test
+    void sumsAreExact() {
+        Wallet wallet = new Wallet();
+        for (int i = 0; i < 1000; i++) {
+            wallet.addTransaction(new Transaction(TransactionType.INCOME, Money.parse("0.10"), "ЗП", "", LocalDate.now()));
+        }
+        assertEquals(Money.ofMajor(100), wallet.getBalance());
+        assertEquals("100.00", Money.format(wallet.getTotalByType(TransactionType.INCOME)));
+    }
+}
@@ -0,0 +1,306 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Тесты двоичного формата снимка и перевода старых файлов.
+ */
+public class SnapshotFormatTest {
+
+    private File dataFile;
+    private File journalFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File dir = Files.createTempDirectory("snapshot_test").toFile();
+        dir.deleteOnExit();
+        dataFile = new File(dir, "finance.dat");
+        journalFile = new File(dir, "finance.journal");
+        dataFile.deleteOnExit();
+        journalFile.deleteOnExit();
+        new File(dir, "finance.dat.legacy").deleteOnExit();
+    }
+
+    private static AppData sampleData(int txPerUser) {
+        AppData data = new AppData();
+        AuthService auth = new AuthService(data);
+        String[] cats = {"Еда", "Транспорт", "Аренда", "Кино"};
+        for (int u = 0; u < 3; u++) {
+            UserAccount user = auth.register("user" + u, "pass" + u);
+            Wallet wallet = user.getWallet();
+            wallet.setBudget("Еда", Money.ofMajor(15000 + u));
+            wallet.setBudget("Транспорт", Money.ofMajor(3000), new int[]{75, 50});
+            LocalDate day = LocalDate.of(2024, 1, 1);
+            for (int i = 0; i < txPerUser; i++) {
+                TransactionType type = i % 5 == 0 ? TransactionType.INCOME : TransactionType.EXPENSE;
+                wallet.addTransaction(new Transaction(type, 1050 + i * 100L, cats[i % cats.length], "покупка", day.plusDays(i % 90)));
+            }
+        }
+        return data;
+    }
+
+    @Test
+    void saveAndLoadRoundTrip() {
+        AppData data = sampleData(200);
+        DataStore.save(data, dataFile, journalFile);
+
+        AppData loaded = DataStore.load(dataFile, journalFile);
+        assertEquals(3, loaded.getUsers().size());
+        for (String key : data.getUsers().keySet()) {
+            Wallet expected = data.getUsers().get(key).getWallet();
+            Wallet actual = loaded.getUsers().get(key).getWallet();
+            assertEquals(expected.getTransactions().size(), actual.getTransactions().size());
+            assertEquals(expected.getBalance(), actual.getBalance());
+            assertEquals(expected.getBudget("еда").getLimit(), actual.getBudget("Еда").getLimit());
+            assertArrayEquals(new int[]{80, 90}, actual.getBudget("Еда").getThresholds());
+            assertArrayEquals(new int[]{50, 75}, actual.getBudget("Транспорт").getThresholds());
+            for (int i = 0; i < expected.getTransactions().size(); i++) {
+                Transaction e = expected.getTransactions().get(i);
+                Transaction a = actual.getTransactions().get(i);
+                assertEquals(e.getDate(), a.getDate());
+                assertEquals(e.getType(), a.getType());
+                assertEquals(e.getCategory(), a.getCategory());
+                assertEquals(e.getDescription(), a.getDescription());
+                assertEquals(e.getAmount(), a.getAmount());
+            }
+        }
+        assertTrue(loaded.getUsers().get("user1").checkPassword("pass1"));
+    }
+
+    @Test
+    void currenciesSurviveSnapshotAndJournal() throws IOException {
+        AppData data = sampleData(20);
+        Wallet wallet = data.getUsers().get("user0").getWallet();
+        wallet.setBudget("Кафе", Money.ofMajor(50), CategoryBudget.DEFAULT_THRESHOLDS, "EUR");
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 1999, "Кафе", "кофе",
+                LocalDate.of(2024, 2, 1), "USD"));
+        DataStore.save(data, dataFile, journalFile);
+
+        // После снимка - изменения только в журнале
+        AppData loaded = DataStore.load(dataFile, journalFile);
+        DataStore.openJournal(loaded, journalFile, Journal.FsyncPolicy.ALWAYS);
+        Wallet journaled = loaded.getUsers().get("user0").getWallet();
+        journaled.addTransaction(new Transaction(TransactionType.INCOME, 500, "Возврат", "", LocalDate.of(2024, 2, 2), "USD"));
+        journaled.setBudget("Такси", Money.ofMajor(20), new int[]{50}, "GBP");
+        DataStore.closeJournal(loaded);
+
+        Wallet restored = DataStore.load(dataFile, journalFile).getUsers().get("user0").getWallet();
+        assertEquals(wallet.getBalance(), restored.getBalance());
+        assertEquals(-1499, restored.getBalance("USD"));
+        assertEquals("EUR", restored.getBudget("Кафе").getCurrency());
+        assertEquals("GBP", restored.getBudget("Такси").getCurrency());
+        assertEquals("RUB", restored.getBudget("Еда").getCurrency());
+        assertTrue(restored.getTransactions().stream()
+                .filter(tx -> tx.getCategory().equals("Возврат"))
+                .allMatch(tx -> tx.getCurrency().equals("USD")));
+    }
+
+    @Test
+    void binaryFormatIsSmallerThanSerialization() throws IOException {
+        AppData data = sampleData(1000);
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(data);
+        }
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        SnapshotFormat.write(data, new DataOutputStream(binary));
+
+        assertTrue(binary.size() * 2 < serialized.size(),
+                "binary=" + binary.size() + ", serialized=" + serialized.size());
+    }
+
+    @Test
+    void legacyFileIsMigrated() throws IOException {
+        AppData data = sampleData(10);
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(dataFile))) {
+            out.writeObject(data);
+        }
+        assertTrue(DataStore.isLegacyFormat(dataFile));
+
+        AppData loaded = DataStore.load(dataFile, journalFile);
+        assertEquals(3, loaded.getUsers().size());
+        assertEquals(data.getUsers().get("user2").getWallet().getBalance(),
+                loaded.getUsers().get("user2").getWallet().getBalance());
+
+        assertFalse(DataStore.isLegacyFormat(dataFile));
+        assertTrue(new File(dataFile.getPath() + ".legacy").exists());
+        assertEquals(3, DataStore.load(dataFile, journalFile).getUsers().size());
+
+        // Первое сохранение разбивает файл на шарды
+        DataStore.save(loaded, dataFile, journalFile);
+        assertFalse(dataFile.exists());
+        assertEquals(DataStore.SHARDS, DataStore.shardIndexes(dataFile).size());
+        assertEquals(3, DataStore.load(dataFile, journalFile).getUsers().size());
+    }
+
+    @Test
+    void onlyChangedShardsAreRewritten() throws IOException {
+        DataStore.save(sampleData(20), dataFile, journalFile);
+        File changed = DataStore.shardFile(dataFile, DataStore.shardOf("user1"));
+        File untouched = DataStore.shardFile(dataFile, DataStore.shardOf("user0"));
+        assertNotEquals(changed, untouched);
+
+        AppData loaded = DataStore.load(dataFile, journalFile);
+        DataStore.openJournal(loaded, journalFile, Journal.FsyncPolicy.OFF);
+        long balance = loaded.getUsers().get("user1").getWallet().getBalance();
+        loaded.getUsers().get("user1").getWallet()
+                .addTransaction(new Transaction(TransactionType.INCOME, Money.ofMajor(5), "ЗП", "аванс", LocalDate.now()));
+        assertTrue(changed.setLastModified(0));
+        assertTrue(untouched.setLastModified(0));
+        DataStore.save(loaded, dataFile, journalFile);
+        DataStore.closeJournal(loaded);
+
+        assertNotEquals(0, changed.lastModified());
+        assertEquals(0, untouched.lastModified());
+        AppData reloaded = DataStore.load(dataFile, journalFile);
+        assertEquals(balance + Money.ofMajor(5), reloaded.getUsers().get("user1").getWallet().getBalance());
+        assertEquals(3, reloaded.getUsers().size());
+    }
+
+    @Test
+    void previousVersionIsLoadedWhenChecksumFails() throws IOException {
+        AppData data = sampleData(20);
+        DataStore.save(data, dataFile, journalFile);
+        long balance = data.getUsers().get("user1").getWallet().getBalance();
+        data.getUsers().get("user1").getWallet()
+                .addTransaction(new Transaction(TransactionType.INCOME, Money.ofMajor(5), "ЗП", "аванс", LocalDate.now()));
+        DataStore.save(data, dataFile, journalFile);
+
+        File shard = DataStore.shardFile(dataFile, DataStore.shardOf("user1"));
+        assertTrue(DataStore.previousFile(shard).exists());
+        byte[] bytes = Files.readAllBytes(shard.toPath());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(shard.toPath(), bytes);
+
+        AppData loaded = DataStore.load(dataFile, journalFile);
+        assertEquals(3, loaded.getUsers().size());
+        assertEquals(balance, loaded.getUsers().get("user1").getWallet().getBalance());
+        DataStore.save(loaded, dataFile, journalFile);
+        assertTrue(shard.exists());
+    }
+
+    @Test
+    void damagedShardIsSetAsideAndOthersLoad() throws IOException {
+        AppData data = sampleData(20);
+        DataStore.save(data, dataFile, journalFile);
+        int badShard = DataStore.shardOf("user1");
+        File damaged = DataStore.shardFile(dataFile, badShard);
+        byte[] bytes = Files.readAllBytes(damaged.toPath());
+        bytes[bytes.length - 1] ^= 1; // один байт концевика
+        Files.write(damaged.toPath(), bytes);
+
+        AppData loaded = DataStore.load(dataFile, journalFile);
+        assertNull(loaded.getUsers().get("user1"));
+        for (String key : data.getUsers().keySet()) {
+            if (DataStore.shardOf(key) != badShard) {
+                assertEquals(data.getUsers().get(key).getWallet().getBalance(),
+                        loaded.getUsers().get(key).getWallet().getBalance());
+            }
+        }
+        assertFalse(damaged.exists());
+        String[] aside = dataFile.getParentFile().list((dir, name) -> name.startsWith(damaged.getName() + ".corrupt-"));
+        assertEquals(1, aside.length);
+    }
+
+    @Test
+    void walletsAreLoadedOnFirstAccess() {
+        AppData data = sampleData(50);
+        DataStore.save(data, dataFile, journalFile);
+
+        AppData loaded = DataStore.load(dataFile, journalFile);
+        for (UserAccount user : loaded.getUsers().values()) {
+            assertFalse(user.isWalletLoaded());
+        }
+
+        UserAccount logged = new AuthService(loaded).login("user1", "pass1");
+        assertFalse(logged.isWalletLoaded());
+        assertEquals(data.getUsers().get("user1").getWallet().getBalance(), logged.getWallet().getBalance());
+        assertTrue(logged.isWalletLoaded());
+        assertFalse(loaded.getUsers().get("user0").isWalletLoaded());
+    }
+
+    @Test
+    void saveKeepsUnloadedWalletsIntact() {
+        AppData data = sampleData(50);
+        DataStore.save(data, dataFile, journalFile);
+
+        AppData loaded = DataStore.load(dataFile, journalFile);
+        UserAccount user1 = loaded.getUsers().get("user1");
+        user1.getWallet().addTransaction(new Transaction(TransactionType.INCOME, Money.ofMajor(5), "ЗП", "аванс", LocalDate.now()));
+        new AuthService(loaded).register("newbie", "pass");
+        DataStore.save(loaded, dataFile, journalFile);
+        assertFalse(loaded.getUsers().get("user0").isWalletLoaded());
+
+        AppData reloaded = DataStore.load(dataFile, journalFile);
+        assertEquals(4, reloaded.getUsers().size());
+        for (String key : data.getUsers().keySet()) {
+            long expected = data.getUsers().get(key).getWallet().getBalance() + ("user1".equals(key) ? Money.ofMajor(5) : 0);
+            assertEquals(expected, reloaded.getUsers().get(key).getWallet().getBalance());
+        }
+        assertTrue(reloaded.getUsers().get("newbie").getWallet().getTransactions().isEmpty());
+    }
+
+    @Test
+    void leastRecentlyUsedWalletsAreEvictedAndReloaded() {
+        AppData data = sampleData(50);
+        DataStore.save(data, dataFile, journalFile);
+
+        AppData loaded = DataStore.load(dataFile, journalFile);
+        WalletCache cache = new WalletCache(1, Long.MAX_VALUE, () -> { });
+        loaded.attachWalletCache(cache);
+        for (String key : new String[]{"user0", "user1", "user2", "user2"}) {
+            loaded.getUsers().get(key).getWallet();
+        }
+        assertEquals(3, cache.misses());
+        assertEquals(1, cache.hits());
+        assertTrue(cache.isOverflowing());
+
+        DataStore.save(loaded, dataFile, journalFile);
+        assertEquals(2, cache.evictions());
+        assertEquals(1, cache.size());
+        assertFalse(loaded.getUsers().get("user0").isWalletLoaded());
+        assertTrue(loaded.getUsers().get("user2").isWalletLoaded());
+
+        assertEquals(data.getUsers().get("user0").getWallet().getBalance(),
+                loaded.getUsers().get("user0").getWallet().getBalance());
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    void changedWalletStaysLoadedUntilSaved() {
+        AppData data = sampleData(50);
+        DataStore.save(data, dataFile, journalFile);
+
+        AppData loaded = DataStore.load(dataFile, journalFile);
+        WalletCache cache = new WalletCache(1, Long.MAX_VALUE, () -> { });
+        loaded.attachWalletCache(cache);
+        UserAccount user0 = loaded.getUsers().get("user0");
+        user0.getWallet().addTransaction(new Transaction(TransactionType.INCOME, Money.ofMajor(7), "ЗП", "премия", LocalDate.now()));
+        loaded.getUsers().get("user1").getWallet();
+
+        cache.trim();
+        assertTrue(user0.isWalletLoaded());
+        assertFalse(loaded.getUsers().get("user1").isWalletLoaded());
+        assertEquals(1, cache.evictions());
+
+        // После сохранения кошелёк совпадает с новой секцией, и его можно выгрузить
+        loaded.getUsers().get("user2").getWallet();
+        DataStore.save(loaded, dataFile, journalFile);
+        assertFalse(user0.isWalletLoaded());
+        assertEquals(data.getUsers().get("user0").getWallet().getBalance() + Money.ofMajor(7),
+                user0.getWallet().getBalance());
+    }
+}
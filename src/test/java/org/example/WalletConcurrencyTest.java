@@ -0,0 +1,221 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WalletConcurrencyTest {
+
+    private static final int THREADS = 8;
+
+    @Test
+    void concurrentWritersAndReadersKeepTotalsConsistent() throws Exception {
+        UserAccount user = new UserAccount("user", "pass");
+        WalletService service = new WalletService();
+        int perThread = 5_000;
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        List<Callable<long[]>> writers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            writers.add(() -> {
+                Random rnd = new Random(seed);
+                long income = 0;
+                long expense = 0;
+                for (int i = 0; i < perThread; i++) {
+                    long amount = 1 + rnd.nextInt(100_000);
+                    // Даты вразнобой: индекс по дате постоянно достраивается читателями
+                    LocalDate date = start.plusDays(rnd.nextInt(365));
+                    if (rnd.nextBoolean()) {
+                        user.getWallet().addTransaction(new Transaction(TransactionType.INCOME, amount, "ЗП", "", date));
+                        income += amount;
+                    } else {
+                        user.getWallet().addTransaction(new Transaction(TransactionType.EXPENSE, amount, "cat" + rnd.nextInt(10), "", date));
+                        expense += amount;
+                    }
+                }
+                return new long[]{income, expense};
+            });
+        }
+        List<Callable<long[]>> readers = new ArrayList<>();
+        for (int t = 0; t < THREADS / 2; t++) {
+            readers.add(() -> {
+                long reads = 0;
+                while (writing.get()) {
+                    Wallet w = user.getWallet();
+                    List<Transaction> latest = w.getLatestTransactions(50);
+                    for (int i = 1; i < latest.size(); i++) {
+                        assertFalse(latest.get(i).getDate().isAfter(latest.get(i - 1).getDate()));
+                    }
+                    MonthlyRollup.Totals totals = w.getPeriodTotals(start, start.plusDays(40), null);
+                    assertTrue(totals.get(TransactionType.EXPENSE) >= 0);
+                    assertFalse(service.buildFilteredReport(user, start, start.plusDays(3), null).isEmpty());
+                    reads++;
+                }
+                return new long[]{reads};
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + THREADS / 2);
+        try {
+            List<Future<long[]>> readerResults = new ArrayList<>();
+            for (Callable<long[]> reader : readers) {
+                readerResults.add(pool.submit(reader));
+            }
+            long income = 0;
+            long expense = 0;
+            for (Future<long[]> f : pool.invokeAll(writers)) {
+                income += get(f)[0];
+                expense += get(f)[1];
+            }
+            writing.set(false);
+            for (Future<long[]> f : readerResults) {
+                get(f);
+            }
+
+            Wallet result = user.getWallet();
+            assertEquals(THREADS * perThread, result.getTransactionCount());
+            assertEquals(income, result.getTotalByType(TransactionType.INCOME));
+            assertEquals(expense, result.getTotalByType(TransactionType.EXPENSE));
+            assertEquals(income - expense, result.getBalance());
+            MonthlyRollup.Totals all = result.getPeriodTotals(null, null, null);
+            assertEquals(expense, all.get(TransactionType.EXPENSE));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentRegistrationOfSameLoginSucceedsOnce() throws Exception {
+        AppData data = new AppData();
+        AuthService auth = new AuthService(data);
+        CountDownLatch go = new CountDownLatch(1);
+        int tasks = THREADS * 4;
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < tasks; t++) {
+                int n = t;
+                results.add(pool.submit(() -> {
+                    go.await();
+                    auth.register("user" + n, "pass" + n);
+                    try {
+                        auth.register(" Общий", "pass" + n);
+                        return true;
+                    } catch (IllegalArgumentException e) {
+                        return false;
+                    }
+                }));
+            }
+            go.countDown();
+            int registered = 0;
+            for (Future<Boolean> f : results) {
+                if (get(f)) {
+                    registered++;
+                }
+            }
+            assertEquals(1, registered);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(tasks + 1, data.getUsers().size());
+        assertNotNull(data.getUsers().get("общий"));
+    }
+
+    @Test
+    void readersNeverSeeHalfRenamedCategory() throws Exception {
+        UserAccount user = new UserAccount("user", "pass");
+        Wallet wallet = user.getWallet();
+        YearMonth ym = YearMonth.now();
+        long total = 0;
+        for (int i = 0; i < 10_000; i++) {
+            // Разное написание одной категории - в словаре это разные строки
+            String category = i % 3 == 0 ? "Еда" : i % 3 == 1 ? "еда " : "ЕДА";
+            wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 100 + i, category, "", ym.atDay(1 + i % 28)));
+            total += 100 + i;
+        }
+        long expected = total;
+        int renames = 200;
+        CountDownLatch done = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            Future<?> renamer = pool.submit(() -> {
+                try {
+                    for (int i = 0; i < renames; i++) {
+                        if (i % 2 == 0) {
+                            wallet.renameCategory("еда", "Продукты");
+                        } else {
+                            wallet.renameCategory("продукты", "Еда");
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+                return null;
+            });
+            List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < THREADS - 1; t++) {
+                readers.add(pool.submit(() -> {
+                    WalletService service = new WalletService();
+                    while (done.getCount() > 0) {
+                        CategoryTotals spent = wallet.getExpensesByCategoryForMonth(ym);
+                        long food = spent.get("еда");
+                        long groceries = spent.get("продукты");
+                        assertTrue(food == 0 || groceries == 0, "категория видна под двумя именами");
+                        assertEquals(expected, food + groceries);
+
+                        // В отчёте все операции - под одним из двух имён
+                        Set<String> names = new HashSet<>();
+                        for (String line : service.buildFilteredReport(user, ym.atDay(2), ym.atDay(27), null)) {
+                            String[] cells = line.split("\\|");
+                            if (cells.length == 5 && cells[1].trim().equals("Расход")) {
+                                names.add(Wallet.normalizeCategory(cells[2]));
+                            }
+                        }
+                        assertEquals(1, names.size(), names.toString());
+                    }
+                    return null;
+                }));
+            }
+            get(renamer);
+            for (Future<?> f : readers) {
+                get(f);
+            }
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertEquals(expected, wallet.getSpentForCategoryInMonth("еда", ym));
+    }
+
+    // Ошибка в потоке (в том числе проваленная проверка) роняет тест
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get(60, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -5,10 +5,13 @@ import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.time.LocalDate;
 import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -26,11 +29,11 @@ public class WalletServiceTest {
 
     @Test
     void addIncomeIncreasesBalanceAndCreatesTransaction() {
-        walletService.addIncome(user, 1000.0, "ЗП", "зарплата");
+        walletService.addIncome(user, Money.ofMajor(1000), "ЗП", "зарплата");
         Wallet wallet = user.getWallet();
 
         assertEquals(1, wallet.getTransactions().size());
-        assertEquals(1000.0, wallet.getBalance(), 0.0001);
+        assertEquals(Money.ofMajor(1000), wallet.getBalance());
         Transaction tx = wallet.getTransactions().get(0);
         assertEquals(TransactionType.INCOME, tx.getType());
         assertEquals("ЗП", tx.getCategory());
@@ -38,12 +41,12 @@ public class WalletServiceTest {
 
     @Test
     void addExpenseDecreasesBalanceAndCreatesTransaction() {
-        walletService.addIncome(user, 1000.0, "ЗП", "зарплата");
-        List<String> notes = walletService.addExpense(user, 200.0, "Еда", "ужин");
+        walletService.addIncome(user, Money.ofMajor(1000), "ЗП", "зарплата");
+        List<String> notes = walletService.addExpense(user, Money.ofMajor(200), "Еда", "ужин");
 
         Wallet wallet = user.getWallet();
         assertEquals(2, wallet.getTransactions().size());
-        assertEquals(800.0, wallet.getBalance(), 0.0001);
+        assertEquals(Money.ofMajor(800), wallet.getBalance());
         Transaction tx = wallet.getTransactions().get(1);
         assertEquals(TransactionType.EXPENSE, tx.getType());
         assertEquals("Еда", tx.getCategory());
@@ -53,23 +56,62 @@ public class WalletServiceTest {
 
     @Test
     void addExpenseTriggers80PercentWarning() {
-        walletService.setBudget(user, "Еда", 1000.0);
-        walletService.addIncome(user, 2000.0, "ЗП", "зарплата");
+        walletService.setBudget(user, "Еда", Money.ofMajor(1000));
+        walletService.addIncome(user, Money.ofMajor(2000), "ЗП", "зарплата");
 
         // Потратим ровно 800 -> 80% лимита
-        List<String> notes = walletService.addExpense(user, 800.0, "Еда", "продукты");
+        List<String> notes = walletService.addExpense(user, Money.ofMajor(800), "Еда", "продукты");
         assertTrue(
                 notes.stream().anyMatch(s -> s.contains("80%")),
                 "Должно быть предупреждение про 80% бюджета"
         );
     }
 
+    @Test
+    void foreignExpensesAreConvertedForBudgetsAndSummary() throws IOException {
+        FxRates rates = FxRates.parse(new StringReader("2000-01-01,USD,RUB,100\n2000-01-01,RUB,EUR,0.01\n"), 16);
+        WalletService service = new WalletService(rates);
+        service.setBudget(user, "Еда", Money.ofMajor(1000), CategoryBudget.DEFAULT_THRESHOLDS);
+        service.setBudget(user, "Кафе", Money.ofMajor(10), CategoryBudget.DEFAULT_THRESHOLDS, "eur");
+        service.addIncome(user, Money.ofMajor(2000), "ЗП", "зарплата");
+        service.addExpense(user, Money.ofMajor(500), "Еда", "продукты");
+
+        // 4 USD = 400 RUB: вместе с 500 RUB - 90% бюджета
+        List<String> notes = service.addTransactions(user, List.of(
+                new Transaction(TransactionType.EXPENSE, Money.ofMajor(4), "Еда", "орехи", null, "USD")));
+        assertTrue(notes.stream().anyMatch(s -> s.contains("90%") && s.contains("Потрачено 900.00 из 1000.00")),
+                notes.toString());
+        // Бюджет в EUR: 2 USD через RUB = 2 EUR
+        notes = service.addTransactions(user, List.of(
+                new Transaction(TransactionType.EXPENSE, Money.ofMajor(2), "Кафе", "кофе", null, "USD")));
+        // до порога бюджета далеко, а вот баланс в USD ушёл в минус
+        assertEquals(1, notes.size(), notes.toString());
+        assertTrue(notes.get(0).contains("-6.00 USD"), notes.toString());
+
+        Wallet wallet = user.getWallet();
+        assertEquals(Money.ofMajor(1500), wallet.getBalance());
+        assertEquals(-Money.ofMajor(6), wallet.getBalance("USD"));
+        assertEquals(List.of("RUB", "USD"), wallet.getCurrencies());
+        assertEquals("EUR", wallet.getBudget("кафе").getCurrency());
+
+        String summary = String.join("\n", service.buildSummary(user));
+        assertTrue(summary.contains("Текущий баланс: 900.00 (в RUB"), summary);
+        assertTrue(summary.contains("Баланс по валютам: 1500.00; -6.00 USD"), summary);
+        assertTrue(summary.contains("Кафе (EUR)"), summary);
+        assertTrue(summary.contains("900.00"), summary);
+
+        // Без курса суммы в USD не переводятся, а сводка об этом сообщает
+        String noRates = String.join("\n", new WalletService().buildSummary(user));
+        assertTrue(noRates.contains("Текущий баланс: 1500.00 (в RUB"), noRates);
+        assertTrue(noRates.contains("Нет курса USD/RUB"), noRates);
+    }
+
     @Test
     void addExpenseTriggers90PercentWarning() {
-        walletService.setBudget(user, "Еда", 1000.0);
-        walletService.addIncome(user, 2000.0, "ЗП", "зарплата");
+        walletService.setBudget(user, "Еда", Money.ofMajor(1000));
+        walletService.addIncome(user, Money.ofMajor(2000), "ЗП", "зарплата");
 
-        List<String> notes = walletService.addExpense(user, 900.0, "Еда", "продукты");
+        List<String> notes = walletService.addExpense(user, Money.ofMajor(900), "Еда", "продукты");
         assertTrue(
                 notes.stream().anyMatch(s -> s.contains("90%")),
                 "Должно быть предупреждение про 90% бюджета"
@@ -78,10 +120,10 @@ public class WalletServiceTest {
 
     @Test
     void addExpenseTriggersOverLimitWarning() {
-        walletService.setBudget(user, "Еда", 1000.0);
-        walletService.addIncome(user, 2000.0, "ЗП", "зарплата");
+        walletService.setBudget(user, "Еда", Money.ofMajor(1000));
+        walletService.addIncome(user, Money.ofMajor(2000), "ЗП", "зарплата");
 
-        List<String> notes = walletService.addExpense(user, 1200.0, "Еда", "продукты");
+        List<String> notes = walletService.addExpense(user, Money.ofMajor(1200), "Еда", "продукты");
         assertTrue(
                 notes.stream().anyMatch(s -> s.contains("превышен")),
                 "Должно быть сообщение о перерасходе бюджета"
@@ -90,29 +132,92 @@ public class WalletServiceTest {
 
     @Test
     void addExpenseWarnsOnZeroOrNegativeBalance() {
-        walletService.addIncome(user, 100.0, "ЗП", "зарплата");
-        List<String> notes = walletService.addExpense(user, 100.0, "Еда", "продукты");
+        walletService.addIncome(user, Money.ofMajor(100), "ЗП", "зарплата");
+        List<String> notes = walletService.addExpense(user, Money.ofMajor(100), "Еда", "продукты");
 
-        assertEquals(0.0, user.getWallet().getBalance(), 0.0001);
+        assertEquals(Money.ofMajor(0), user.getWallet().getBalance());
         assertTrue(
                 notes.stream().anyMatch(s -> s.contains("баланс нулевой или отрицательный")),
                 "Должно быть предупреждение о нулевом/отрицательном балансе"
         );
     }
 
+    @Test
+    void thresholdEventsFireOnlyWhenFirstCrossed() {
+        List<BudgetEvent> events = new ArrayList<>();
+        walletService.addListener(events::add);
+        walletService.setBudget(user, "Еда", Money.ofMajor(1000), new int[]{50, 75});
+        walletService.addIncome(user, Money.ofMajor(5000), "ЗП", "зарплата");
+
+        assertTrue(walletService.addExpense(user, Money.ofMajor(400), "Еда", "1").isEmpty());
+        List<String> notes = walletService.addExpense(user, Money.ofMajor(200), "Еда", "2");
+        assertEquals(1, notes.size());
+        assertTrue(notes.get(0).contains("50%"), notes.get(0));
+        assertTrue(walletService.addExpense(user, Money.ofMajor(100), "Еда", "3").isEmpty());
+        walletService.addExpense(user, Money.ofMajor(100), "Еда", "4");
+        walletService.addExpense(user, Money.ofMajor(300), "Еда", "5");
+        assertTrue(walletService.addExpense(user, Money.ofMajor(300), "Еда", "6").isEmpty());
+
+        assertEquals(3, events.size());
+        assertEquals(BudgetEvent.Kind.THRESHOLD, events.get(0).getKind());
+        assertEquals(50, events.get(0).getThreshold());
+        assertEquals(75, events.get(1).getThreshold());
+        assertEquals(Money.ofMajor(800), events.get(1).getSpent());
+        BudgetEvent over = events.get(2);
+        assertEquals(BudgetEvent.Kind.OVER_LIMIT, over.getKind());
+        assertEquals("Еда", over.getCategory());
+        assertEquals(YearMonth.now(), over.getMonth());
+        assertEquals(Money.ofMajor(1100), over.getSpent());
+        assertEquals(Money.ofMajor(1000), over.getLimit());
+    }
+
+    @Test
+    void addTransactionsEvaluatesEachCategoryAndMonthOnce() {
+        walletService.setBudget(user, "Еда", Money.ofMajor(1000));
+        YearMonth previous = YearMonth.now().minusMonths(1);
+        List<Transaction> batch = new ArrayList<>();
+        batch.add(new Transaction(TransactionType.INCOME, Money.ofMajor(5000), "ЗП", "зарплата", null));
+        for (int i = 0; i < 10; i++) {
+            batch.add(new Transaction(TransactionType.EXPENSE, Money.ofMajor(95), "еда", "обед " + i, null));
+            batch.add(new Transaction(TransactionType.EXPENSE, Money.ofMajor(120), "Еда", "прошлый " + i, previous.atDay(1 + i)));
+            batch.add(new Transaction(TransactionType.EXPENSE, Money.ofMajor(10), "Кафе", "кофе", null));
+        }
+
+        List<String> notes = walletService.addTransactions(user, batch);
+
+        Wallet wallet = user.getWallet();
+        assertEquals(31, wallet.getTransactionCount());
+        assertEquals(Money.ofMajor(5000 - 950 - 1200 - 100), wallet.getBalance());
+        assertEquals(3, notes.size(), notes.toString());
+        assertTrue(notes.get(0).startsWith(previous + ": ВНИМАНИЕ: бюджет по категории 'Еда' превышен"), notes.get(0));
+        assertTrue(notes.get(1).startsWith("Осторожно: вы превысили 90%"), notes.get(1));
+        assertTrue(notes.get(2).contains("'Кафе' ещё не установлен бюджет"), notes.get(2));
+        assertEquals(LocalDate.now(), wallet.getTransactions().get(0).getDate());
+    }
+
+    @Test
+    void addTransactionsRejectsWholeBatchOnInvalidEntry() {
+        List<Transaction> batch = new ArrayList<>();
+        batch.add(new Transaction(TransactionType.INCOME, Money.ofMajor(100), "ЗП", "", null));
+        batch.add(new Transaction(TransactionType.EXPENSE, 0, "Еда", "", null));
+
+        assertThrows(IllegalArgumentException.class, () -> walletService.addTransactions(user, batch));
+        assertEquals(0, user.getWallet().getTransactionCount());
+    }
+
     @Test
     void setBudgetStoresBudget() {
-        walletService.setBudget(user, "Еда", 15000.0);
+        walletService.setBudget(user, "Еда", Money.ofMajor(15000));
         CategoryBudget b = user.getWallet().getBudget("Еда");
         assertNotNull(b);
-        assertEquals(15000.0, b.getLimit(), 0.0001);
+        assertEquals(Money.ofMajor(15000), b.getLimit());
     }
 
     @Test
     void renameCategoryChangesTransactionsAndBudget() {
-        walletService.setBudget(user, "Еда", 1000.0);
-        walletService.addIncome(user, 2000.0, "ЗП", "зарплата");
-        walletService.addExpense(user, 100.0, "Еда", "обед");
+        walletService.setBudget(user, "Еда", Money.ofMajor(1000));
+        walletService.addIncome(user, Money.ofMajor(2000), "ЗП", "зарплата");
+        walletService.addExpense(user, Money.ofMajor(100), "Еда", "обед");
 
         walletService.renameCategory(user, "Еда", "Продукты");
 
@@ -129,9 +234,9 @@ public class WalletServiceTest {
 
     @Test
     void buildSummaryReturnsNonEmptyLines() {
-        walletService.addIncome(user, 1000.0, "ЗП", "зарплата");
-        walletService.setBudget(user, "Еда", 500.0);
-        walletService.addExpense(user, 100.0, "Еда", "обед");
+        walletService.addIncome(user, Money.ofMajor(1000), "ЗП", "зарплата");
+        walletService.setBudget(user, "Еда", Money.ofMajor(500));
+        walletService.addExpense(user, Money.ofMajor(100), "Еда", "обед");
 
         List<String> summary = walletService.buildSummary(user);
         assertFalse(summary.isEmpty());
@@ -147,9 +252,9 @@ public class WalletServiceTest {
         LocalDate tomorrow = today.plusDays(1);
 
         // Доходы/расходы в разные дни
-        user.getWallet().addTransaction(new Transaction(TransactionType.INCOME, 1000, "ЗП", "old", yesterday));
-        user.getWallet().addTransaction(new Transaction(TransactionType.EXPENSE, 200, "Еда", "today", today));
-        user.getWallet().addTransaction(new Transaction(TransactionType.EXPENSE, 300, "Транспорт", "tomorrow", tomorrow));
+        user.getWallet().addTransaction(new Transaction(TransactionType.INCOME, Money.ofMajor(1000), "ЗП", "old", yesterday));
+        user.getWallet().addTransaction(new Transaction(TransactionType.EXPENSE, Money.ofMajor(200), "Еда", "today", today));
+        user.getWallet().addTransaction(new Transaction(TransactionType.EXPENSE, Money.ofMajor(300), "Транспорт", "tomorrow", tomorrow));
 
         LocalDate from = today;
         LocalDate to = today;
@@ -164,11 +269,129 @@ public class WalletServiceTest {
         assertFalse(hasTransport);
     }
 
+    @Test
+    void filteredReportStreamsPageAndTotalsOverAllRows() {
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        List<Transaction> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(new Transaction(i % 4 == 0 ? TransactionType.INCOME : TransactionType.EXPENSE,
+                    Money.ofMajor(1), i % 2 == 0 ? "Еда" : "Кино", "п" + i, start.plusDays(i / 10)));
+        }
+        walletService.addTransactions(user, batch);
+
+        StringBuilder out = new StringBuilder();
+        int matched = walletService.writeFilteredReport(user, start, null, null, 990, 20, out);
+        List<String> lines = ReportWriter.toLines(out);
+
+        assertEquals(1000, matched);
+        assertEquals(10, lines.stream().filter(l -> l.startsWith("2024-")).count());
+        assertTrue(lines.contains("Показаны операции 991-1000 из 1000."), lines.toString());
+        assertTrue(lines.contains("Всего доходов: 250.00"), lines.toString());
+        assertTrue(lines.contains("Всего расходов: 750.00"), lines.toString());
+        assertTrue(lines.contains(String.format("%-20s | %-10s", "кино", "500.00")), lines.toString());
+        assertEquals(String.format("%-10s | %-7s | %-15s | %-10s | %s", "2024-04-09", "Расход", "Кино", "1.00", "п999"),
+                lines.stream().filter(l -> l.startsWith("2024-")).reduce((a, b) -> b).orElse(null));
+
+        // Выборка целиком в список - те же строки, что и поток без ограничения
+        StringBuilder all = new StringBuilder();
+        walletService.writeFilteredReport(user, null, null, null, 0, Integer.MAX_VALUE, all);
+        assertEquals(ReportWriter.toLines(all), walletService.buildFilteredReport(user, null, null, null));
+    }
+
+    @Test
+    void parallelReportMatchesSequential() {
+        Random rnd = new Random(11);
+        String[] cats = {"Еда", "еда ", "Кино", "Транспорт", "ЗП"};
+        LocalDate start = LocalDate.of(2023, 1, 1);
+        List<Transaction> batch = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            batch.add(new Transaction(rnd.nextInt(4) == 0 ? TransactionType.INCOME : TransactionType.EXPENSE,
+                    1 + rnd.nextInt(1_000_000), cats[rnd.nextInt(cats.length)], "п" + i, start.plusDays(rnd.nextInt(700))));
+        }
+        walletService.addTransactions(user, batch);
+
+        WalletService sequential = new WalletService(Integer.MAX_VALUE);
+        WalletService parallel = new WalletService(1);
+        Set<String> food = new HashSet<>(List.of("еда", "кино"));
+        for (int k = 0; k < 8; k++) {
+            LocalDate from = k % 2 == 0 ? null : start.plusDays(rnd.nextInt(300));
+            LocalDate to = k % 3 == 0 ? null : start.plusDays(300 + rnd.nextInt(400));
+            Set<String> filter = k % 4 < 2 ? null : food;
+            int offset = rnd.nextInt(20_000);
+            int limit = k == 0 ? Integer.MAX_VALUE : 1 + rnd.nextInt(100);
+
+            StringBuilder expected = new StringBuilder();
+            StringBuilder actual = new StringBuilder();
+            int matched = sequential.writeFilteredReport(user, from, to, filter, offset, limit, expected);
+            assertEquals(matched, parallel.writeFilteredReport(user, from, to, filter, offset, limit, actual));
+            assertEquals(expected.toString(), actual.toString());
+        }
+
+        Wallet wallet = user.getWallet();
+        TransactionColumns columns = wallet.getColumns();
+        int keyCount = wallet.getCategoryKeys().size();
+        RowTotals one = RowTotals.collect(columns, 0, columns.size(), wallet.categoryKeyIds(), keyCount, null, Integer.MAX_VALUE);
+        RowTotals forked = RowTotals.collect(columns, 0, columns.size(), wallet.categoryKeyIds(), keyCount, null, 1);
+        assertEquals(50_000, forked.count());
+        int base = columns.currencyPool().intern(Money.BASE_CURRENCY);
+        assertEquals(wallet.getTotalByType(TransactionType.INCOME), forked.get(base, TransactionType.INCOME));
+        assertEquals(one.get(base, TransactionType.EXPENSE), forked.get(base, TransactionType.EXPENSE));
+    }
+
+    @Test
+    void reportTotalsMatchRowScan() {
+        Random rnd = new Random(7);
+        String[] cats = {"Еда", "Кино", "Транспорт", "ЗП"};
+        LocalDate start = LocalDate.of(2023, 1, 1);
+        List<Transaction> batch = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            batch.add(new Transaction(rnd.nextInt(4) == 0 ? TransactionType.INCOME : TransactionType.EXPENSE,
+                    1 + rnd.nextInt(100_000), cats[rnd.nextInt(cats.length)], "п" + i, start.plusDays(rnd.nextInt(700))));
+        }
+        walletService.addTransactions(user, batch);
+        Wallet wallet = user.getWallet();
+
+        WalletService parallel = new WalletService(1);
+        Set<String> food = new HashSet<>(List.of("еда", "кино"));
+        for (int k = 0; k < 12; k++) {
+            LocalDate from = k % 2 == 0 ? null : start.plusDays(rnd.nextInt(300));
+            LocalDate to = k % 3 == 0 ? null : start.plusDays(300 + rnd.nextInt(400));
+            Set<String> filter = k % 4 < 2 ? null : food;
+            int offset = rnd.nextInt(3000);
+
+            StringBuilder out = new StringBuilder();
+            int matched = parallel.writeFilteredReport(user, from, to, filter, offset, 25, out);
+            List<String> lines = ReportWriter.toLines(out);
+            // Ожидаемое - прямым перебором операций, независимо от помесячных итогов
+            int count = 0;
+            long income = 0;
+            long expense = 0;
+            for (Transaction t : wallet.getTransactions()) {
+                if ((from != null && t.getDate().isBefore(from)) || (to != null && t.getDate().isAfter(to))
+                        || (filter != null && !filter.contains(Wallet.normalizeCategory(t.getCategory())))) {
+                    continue;
+                }
+                count++;
+                if (t.getType() == TransactionType.INCOME) {
+                    income += t.getAmount();
+                } else {
+                    expense += t.getAmount();
+                }
+            }
+
+            assertEquals(count, matched);
+            assertTrue(lines.contains("Всего доходов: " + Money.format(income)), lines.toString());
+            assertTrue(lines.contains("Всего расходов: " + Money.format(expense)), lines.toString());
+            assertEquals(Math.max(0, Math.min(25, matched - offset)),
+                    lines.stream().filter(l -> l.startsWith("202")).count());
+        }
+    }
+
     @Test
     void exportAndImportCsvWorks() throws IOException {
         // заполним исходного пользователя
-        walletService.addIncome(user, 1000.0, "ЗП", "зарплата");
-        walletService.addExpense(user, 200.0, "Еда", "обед");
+        walletService.addIncome(user, Money.ofMajor(1000), "ЗП", "зарплата");
+        walletService.addExpense(user, Money.ofMajor(200), "Еда", "обед");
 
         File tmp = File.createTempFile("tx_test", ".csv");
         tmp.deleteOnExit();
@@ -177,12 +400,13 @@ public class WalletServiceTest {
 
         // Новый пользователь, пустой кошелёк
         UserAccount other = new UserAccount("other", "1234");
-        int imported = walletService.importTransactionsFromCsv(other, tmp.getAbsolutePath());
+        CsvImporter.Report report = walletService.importTransactionsFromCsv(other, tmp.getAbsolutePath());
 
-        assertEquals(2, imported);
+        assertEquals(2, report.getImported());
+        assertEquals(0, report.getErrorCount());
         Wallet otherWallet = other.getWallet();
         assertEquals(2, otherWallet.getTransactions().size());
         // Баланс должен совпасть с исходным: 1000 - 200 = 800
-        assertEquals(800.0, otherWallet.getBalance(), 0.0001);
+        assertEquals(Money.ofMajor(800), otherWallet.getBalance());
     }
 }
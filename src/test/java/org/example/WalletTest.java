@@ -4,7 +4,17 @@ import org.junit.jupiter.api.Test;
 
 import java.time.LocalDate;
 import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -15,12 +25,12 @@ public class WalletTest {
         Wallet wallet = new Wallet();
         YearMonth ym = YearMonth.now();
 
-        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 100, "Еда", "обед", ym.atDay(1)));
-        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 200, "Еда", "ужин", ym.atDay(2)));
-        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 50, "Транспорт", "проезд", ym.atDay(3)));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, Money.ofMajor(100), "Еда", "обед", ym.atDay(1)));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, Money.ofMajor(200), "Еда", "ужин", ym.atDay(2)));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, Money.ofMajor(50), "Транспорт", "проезд", ym.atDay(3)));
         // другая категория
-        double spentFood = wallet.getSpentForCategoryInMonth("Еда", ym);
-        assertEquals(300.0, spentFood, 0.0001);
+        long spentFood = wallet.getSpentForCategoryInMonth("Еда", ym);
+        assertEquals(Money.ofMajor(300), spentFood);
     }
 
     @Test
@@ -29,15 +39,223 @@ public class WalletTest {
         YearMonth ym = YearMonth.now();
         YearMonth prev = ym.minusMonths(1);
 
-        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 100, "Еда", "1", ym.atDay(1)));
-        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 50, "Еда", "2", ym.atDay(2)));
-        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 30, "Транспорт", "3", ym.atDay(3)));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, Money.ofMajor(100), "Еда", "1", ym.atDay(1)));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, Money.ofMajor(50), "Еда", "2", ym.atDay(2)));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, Money.ofMajor(30), "Транспорт", "3", ym.atDay(3)));
         // в другом месяце не должно учитываться
-        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 999, "Еда", "старое", prev.atDay(1)));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, Money.ofMajor(999), "Еда", "старое", prev.atDay(1)));
 
-        Map<String, Double> map = wallet.getExpensesByCategoryForMonth(ym);
-        assertEquals(2, map.size());
-        assertEquals(150.0, map.get(Wallet.normalizeCategory("Еда")), 0.0001);
-        assertEquals(30.0, map.get(Wallet.normalizeCategory("Транспорт")), 0.0001);
+        CategoryTotals totals = wallet.getExpensesByCategoryForMonth(ym);
+        assertEquals(2, totals.count());
+        assertEquals(Money.ofMajor(150), totals.get(Wallet.normalizeCategory("Еда")));
+        assertEquals(Money.ofMajor(30), totals.get(Wallet.normalizeCategory("Транспорт")));
+    }
+
+    @Test
+    void spentIndexMatchesFullRescan() {
+        Wallet wallet = new Wallet();
+        Random rnd = new Random(42);
+        String[] cats = {"Еда", "еда ", "Транспорт", "Кино", "ТРАНСПОРТ"};
+        LocalDate start = LocalDate.of(2024, 1, 1);
+
+        for (int i = 0; i < 2000; i++) {
+            TransactionType type = rnd.nextInt(4) == 0 ? TransactionType.INCOME : TransactionType.EXPENSE;
+            LocalDate date = start.plusDays(rnd.nextInt(400));
+            wallet.addTransaction(new Transaction(type, 1 + rnd.nextInt(500), cats[rnd.nextInt(cats.length)], "x", date));
+        }
+        wallet.renameCategory("Кино", "Развлечения");
+        wallet.renameCategory("транспорт", "Еда");
+
+        // Полный пересчёт по всем операциям
+        Map<String, Map<YearMonth, Long>> expected = new HashMap<>();
+        for (Transaction t : wallet.getTransactions()) {
+            if (t.getType() == TransactionType.EXPENSE) {
+                expected.computeIfAbsent(Wallet.normalizeCategory(t.getCategory()), k -> new HashMap<>())
+                        .merge(YearMonth.from(t.getDate()), t.getAmount(), Long::sum);
+            }
+        }
+
+        assertNull(expected.get("кино"));
+        assertEquals(0, wallet.getSpentForCategoryInMonth("Кино", YearMonth.from(start)));
+        for (Map.Entry<String, Map<YearMonth, Long>> e : expected.entrySet()) {
+            for (Map.Entry<YearMonth, Long> m : e.getValue().entrySet()) {
+                assertEquals((long) m.getValue(), wallet.getSpentForCategoryInMonth(e.getKey(), m.getKey()));
+                assertEquals((long) m.getValue(), wallet.getExpensesByCategoryForMonth(m.getKey()).get(e.getKey()));
+            }
+        }
+    }
+
+    @Test
+    void columnarStoreReturnsStoredTransactions() {
+        Wallet wallet = new Wallet();
+        Random rnd = new Random(7);
+        List<Transaction> added = new ArrayList<>();
+        long income = 0;
+        for (int i = 0; i < 10_000; i++) {
+            TransactionType type = rnd.nextBoolean() ? TransactionType.INCOME : TransactionType.EXPENSE;
+            long amount = 1 + rnd.nextInt(100_000);
+            Transaction tx = new Transaction(type, amount, "cat" + rnd.nextInt(20), "desc" + rnd.nextInt(500),
+                    LocalDate.of(2023, 1, 1).plusDays(rnd.nextInt(700)));
+            wallet.addTransaction(tx);
+            added.add(tx);
+            if (type == TransactionType.INCOME) {
+                income += amount;
+            }
+        }
+
+        List<Transaction> stored = wallet.getTransactions();
+        assertEquals(added.size(), stored.size());
+        for (int i = 0; i < added.size(); i++) {
+            Transaction e = added.get(i);
+            Transaction a = stored.get(i);
+            assertEquals(e.getType(), a.getType());
+            assertEquals(e.getAmount(), a.getAmount());
+            assertEquals(e.getCategory(), a.getCategory());
+            assertEquals(e.getDescription(), a.getDescription());
+            assertEquals(e.getDate(), a.getDate());
+        }
+        assertEquals(income, wallet.getTotalByType(TransactionType.INCOME));
+        assertThrows(UnsupportedOperationException.class, () -> stored.add(added.get(0)));
+    }
+
+    @Test
+    void dateIndexStaysOrderedForOutOfOrderInserts() {
+        Wallet wallet = new Wallet();
+        Random rnd = new Random(3);
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        for (int i = 0; i < 3000; i++) {
+            // в основном по порядку, иногда - задним числом
+            int offset = rnd.nextInt(10) == 0 ? rnd.nextInt(i / 10 + 1) : i / 10;
+            wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 1 + i, "Еда", "t" + i, start.plusDays(offset)));
+        }
+        TransactionColumns batch = new TransactionColumns();
+        for (int i = 0; i < 2000; i++) {
+            batch.add(TransactionType.INCOME, 1, "ЗП", "b" + i, (int) start.plusDays(rnd.nextInt(400)).toEpochDay());
+        }
+        wallet.addTransactions(batch);
+
+        List<Transaction> all = wallet.getTransactions();
+        List<Transaction> expected = new ArrayList<>(all);
+        expected.sort(Comparator.comparing(Transaction::getDate)); // устойчивая сортировка
+        TransactionColumns columns = wallet.getColumns();
+        for (int rank = 0; rank < expected.size(); rank++) {
+            assertEquals(expected.get(rank).getDescription(), columns.description(columns.byDay(rank)));
+        }
+
+        int from = (int) start.plusDays(100).toEpochDay();
+        int to = (int) start.plusDays(199).toEpochDay();
+        long inRange = all.stream()
+                .filter(t -> t.getDate().toEpochDay() >= from && t.getDate().toEpochDay() <= to)
+                .count();
+        assertEquals(inRange, columns.upperBound(to) - columns.lowerBound(from));
+
+        List<Transaction> latest = wallet.getLatestTransactions(50);
+        assertEquals(50, latest.size());
+        for (int i = 0; i < latest.size(); i++) {
+            assertEquals(expected.get(expected.size() - 1 - i).getDescription(), latest.get(i).getDescription());
+        }
+        assertTrue(new Wallet().getLatestTransactions(5).isEmpty());
+    }
+
+    @Test
+    void renameUpdatesDictionaryInsteadOfRows() {
+        Wallet wallet = new Wallet();
+        LocalDate day = LocalDate.of(2024, 3, 1);
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 100, "Кино", "1", day));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 200, "КИНО ", "2", day));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 40, "Такси", "3", day));
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 5, "Еда", "4", day));
+        int kinoId = wallet.getCategoryKeys().find("кино");
+        int keyCount = wallet.getCategoryKeys().size();
+
+        // Новое имя - та же запись словаря под тем же id
+        assertTrue(wallet.renameCategory("кино", "Досуг"));
+        assertEquals(kinoId, wallet.getCategoryKeys().find("досуг"));
+        assertEquals(-1, wallet.getCategoryKeys().find("кино"));
+        assertEquals(keyCount, wallet.getCategoryKeys().size());
+        assertEquals(300, wallet.getSpentForCategoryInMonth("ДОСУГ", YearMonth.from(day)));
+
+        // Имя уже занято - итоги сливаются
+        assertTrue(wallet.renameCategory("такси", "еда"));
+        assertEquals(45, wallet.getSpentForCategoryInMonth("Еда", YearMonth.from(day)));
+        assertEquals(Arrays.asList("Досуг", "Досуг", "еда", "Еда"),
+                wallet.getTransactions().stream().map(Transaction::getCategory).collect(Collectors.toList()));
+        assertFalse(wallet.renameCategory("такси", "Транспорт"));
+
+        wallet.addTransaction(new Transaction(TransactionType.EXPENSE, 7, "Такси", "5", day));
+        assertEquals(7, wallet.getSpentForCategoryInMonth("такси", YearMonth.from(day)));
+        assertEquals(45, wallet.getSpentForCategoryInMonth("еда", YearMonth.from(day)));
+        Set<String> food = new HashSet<>(Arrays.asList("еда"));
+        assertEquals(45, wallet.getPeriodTotals(null, null, food).get(TransactionType.EXPENSE));
+    }
+
+    @Test
+    void normalizationDoesNotDependOnDefaultLocale() {
+        Locale saved = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            assertEquals("kino", Wallet.normalizeCategory(" KINO "));
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    @Test
+    void periodTotalsMatchRowScan() {
+        Wallet wallet = new Wallet();
+        Random rnd = new Random(5);
+        String[] cats = {"Еда", "Транспорт", "Кино", "ЗП"};
+        LocalDate start = LocalDate.of(2023, 11, 1);
+        for (int i = 0; i < 3000; i++) {
+            TransactionType type = rnd.nextInt(3) == 0 ? TransactionType.INCOME : TransactionType.EXPENSE;
+            wallet.addTransaction(new Transaction(type, 1 + rnd.nextInt(10_000), cats[rnd.nextInt(cats.length)], "x",
+                    start.plusDays(rnd.nextInt(500))));
+        }
+        wallet.renameCategory("Кино", "Досуг");
+
+        for (int k = 0; k < 200; k++) {
+            if (k == 100) {
+                // слияние с существующей категорией складывает и суммы, и число операций
+                wallet.renameCategory("Транспорт", "Еда");
+            }
+            LocalDate from = rnd.nextInt(10) == 0 ? null : start.plusDays(rnd.nextInt(520) - 10);
+            LocalDate to = rnd.nextInt(10) == 0 ? null : start.plusDays(rnd.nextInt(520) - 10);
+            if (k % 7 == 0 && from != null) {
+                // целые месяцы
+                from = from.withDayOfMonth(1);
+                to = YearMonth.from(from).plusMonths(rnd.nextInt(4)).atEndOfMonth();
+            }
+            Set<String> filter = rnd.nextBoolean() ? null : new HashSet<>(Arrays.asList("еда", "досуг"));
+
+            long income = 0;
+            long expense = 0;
+            int count = 0;
+            Map<String, Long> byCategory = new HashMap<>();
+            for (Transaction t : wallet.getTransactions()) {
+                String key = Wallet.normalizeCategory(t.getCategory());
+                if ((from != null && t.getDate().isBefore(from)) || (to != null && t.getDate().isAfter(to))
+                        || (filter != null && !filter.contains(key))) {
+                    continue;
+                }
+                count++;
+                if (t.getType() == TransactionType.INCOME) {
+                    income += t.getAmount();
+                } else {
+                    expense += t.getAmount();
+                    byCategory.merge(key, t.getAmount(), Long::sum);
+                }
+            }
+
+            MonthlyRollup.Totals totals = wallet.getPeriodTotals(from, to, filter);
+            assertEquals(count, totals.count());
+            assertEquals(income, totals.get(TransactionType.INCOME));
+            assertEquals(expense, totals.get(TransactionType.EXPENSE));
+            assertEquals(byCategory.size(), totals.byCategory(TransactionType.EXPENSE).count());
+            for (Map.Entry<String, Long> e : byCategory.entrySet()) {
+                assertEquals((long) e.getValue(), totals.byCategory(TransactionType.EXPENSE).get(e.getKey()));
+            }
+        }
+        assertEquals(wallet.getTotalByType(TransactionType.INCOME) - wallet.getTotalByType(TransactionType.EXPENSE),
+                wallet.getBalance());
     }
 }